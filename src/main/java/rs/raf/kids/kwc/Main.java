@@ -1,19 +1,31 @@
 package rs.raf.kids.kwc;
 
-import jdk.jshell.execution.Util;
 import rs.raf.kids.kwc.cli.ConsoleUI;
 import rs.raf.kids.kwc.cli.Logger;
 import rs.raf.kids.kwc.config.AppConfig;
 import rs.raf.kids.kwc.crawler.DirectoryCrawler;
+import rs.raf.kids.kwc.crawler.FileStateTable;
+import rs.raf.kids.kwc.fetch.ContentHashCache;
+import rs.raf.kids.kwc.fetch.HttpPageFetcher;
+import rs.raf.kids.kwc.fetch.PageCache;
+import rs.raf.kids.kwc.fetch.PageFetcher;
+import rs.raf.kids.kwc.fetch.UrlValidityCache;
+import rs.raf.kids.kwc.job.FileCountCache;
+import rs.raf.kids.kwc.job.FileCountIndex;
 import rs.raf.kids.kwc.job.JobDispatcher;
 import rs.raf.kids.kwc.job.ScanType;
 import rs.raf.kids.kwc.job.ScanningJobQueue;
+import rs.raf.kids.kwc.pool.CrawlCheckpoint;
+import rs.raf.kids.kwc.pool.CrawlFrontier;
 import rs.raf.kids.kwc.pool.FileScannerPool;
+import rs.raf.kids.kwc.pool.VisitedUrlStore;
 import rs.raf.kids.kwc.pool.WebScannerPool;
 import rs.raf.kids.kwc.result.DefaultResultRetriever;
 import rs.raf.kids.kwc.result.ResultRetriever;
 import rs.raf.kids.kwc.util.Utils;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -21,18 +33,35 @@ import java.util.Set;
 public class Main {
 
     public static final ScanningJobQueue scanningJobQueue;
+    public static final CrawlCheckpoint crawlCheckpoint;
+    public static final CrawlFrontier crawlFrontier;
     public static final DirectoryCrawler directoryCrawler;
+    public static final FileCountCache fileCountCache;
     public static final ResultRetriever resultRetriever;
+    public static final UrlValidityCache urlValidityCache;
+    public static final PageFetcher pageFetcher;
+    public static final PageCache pageCache;
+    public static final ContentHashCache contentHashCache;
     public static final JobDispatcher jobDispatcher;
     public static final FileScannerPool fileScannerPool;
     public static final WebScannerPool webScannerPool;
     public static final ConsoleUI console;
 
     static {
-        scanningJobQueue = new ScanningJobQueue();
-        directoryCrawler = new DirectoryCrawler(scanningJobQueue, AppConfig.corpusPrefix, AppConfig.crawlerSleepTime);
-        resultRetriever = new DefaultResultRetriever();
-        jobDispatcher = new JobDispatcher(scanningJobQueue);
+        scanningJobQueue = new ScanningJobQueue(AppConfig.jobQueueCapacity,
+                Map.of(ScanType.FILE, AppConfig.fileJobDeadline, ScanType.WEB, AppConfig.webJobDeadline));
+        crawlCheckpoint = createCrawlCheckpoint();
+        crawlFrontier = createCrawlFrontier();
+        fileCountCache = new FileCountCache(createFileCountIndex());
+        directoryCrawler = new DirectoryCrawler(scanningJobQueue, AppConfig.corpusPrefix, AppConfig.crawlerSleepTime,
+                AppConfig.directoryWatch, AppConfig.directoryWatchDebounce, AppConfig.directorySweepInterval,
+                fileCountCache, AppConfig.crawlerParallelism);
+        resultRetriever = new DefaultResultRetriever(fileCountCache);
+        urlValidityCache = new UrlValidityCache(AppConfig.urlValidityTtl);
+        pageFetcher = urlValidityCache.track(new HttpPageFetcher(AppConfig.httpConnectTimeout, AppConfig.httpRequestTimeout));
+        pageCache = createPageCache();
+        contentHashCache = AppConfig.contentHashCacheSize > 0 ? new ContentHashCache(AppConfig.contentHashCacheSize) : null;
+        jobDispatcher = new JobDispatcher();
         fileScannerPool = new FileScannerPool(scanningJobQueue, resultRetriever);
         webScannerPool = new WebScannerPool(scanningJobQueue, resultRetriever);
         console = new ConsoleUI();
@@ -42,6 +71,73 @@ public class Main {
         jobDispatcher.registerScannerPool(ScanType.WEB, webScannerPool);
     }
 
+    /**
+     * Creates a checkpoint of web crawls in configured file.
+     * @return crawl checkpoint, or <code>null</code> if web
+     * crawls are not checkpointed
+     */
+    private static CrawlCheckpoint createCrawlCheckpoint() {
+        if (AppConfig.webCheckpointFile.isEmpty())
+            return null;
+        return new CrawlCheckpoint(new File(AppConfig.webCheckpointFile), AppConfig.keywordAutomaton.keywords(),
+                AppConfig.webCheckpointInterval);
+    }
+
+    /**
+     * Creates a frontier for links found by web scanning tasks. Jobs taken
+     * from the frontier are tracked by the crawl checkpoint, if there is one.
+     * @return crawl frontier, or <code>null</code> if found links are
+     * submitted straight to the job queue, or the spill file can't be used
+     */
+    private static CrawlFrontier createCrawlFrontier() {
+        if (AppConfig.webFrontierSize <= 0)
+            return null;
+        try {
+            File spillFile = AppConfig.webFrontierSpillFile.isEmpty()
+                    ? File.createTempFile("frontier", ".spill")
+                    : new File(AppConfig.webFrontierSpillFile);
+            if (crawlCheckpoint != null)
+                return new CrawlFrontier(scanningJobQueue, AppConfig.webFrontierSize, spillFile, crawlCheckpoint::track);
+            return new CrawlFrontier(scanningJobQueue, AppConfig.webFrontierSize, spillFile);
+        } catch (IOException e) {
+            Logger.error("Crawl frontier is disabled, its spill file can't be used: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Opens the file index at configured path.
+     * @return file index, or <code>null</code> if counts of files are
+     * not persisted, or the index can't be opened
+     */
+    private static FileCountIndex createFileCountIndex() {
+        if (AppConfig.fileIndexPath.isEmpty())
+            return null;
+        try {
+            return new FileCountIndex(new File(AppConfig.fileIndexPath), AppConfig.keywordAutomaton.keywords());
+        } catch (IOException e) {
+            Logger.error("File index is disabled, can't use " + AppConfig.fileIndexPath + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Creates a page cache in configured directory.
+     * @return page cache, or <code>null</code> if pages are not cached,
+     * or the directory can't be used
+     */
+    private static PageCache createPageCache() {
+        if (AppConfig.pageCacheSize <= 0)
+            return null;
+        try {
+            return new PageCache(new File(AppConfig.pageCacheDirectory), AppConfig.pageCacheSize,
+                    AppConfig.keywordAutomaton.keywords());
+        } catch (IOException e) {
+            Logger.error("Page cache is disabled, can't use " + AppConfig.pageCacheDirectory + ": " + e.getMessage());
+            return null;
+        }
+    }
+
     public static void main(String[] args) throws InterruptedException {
 
         // when debugging, we want to set Logger flag to true
@@ -54,13 +150,17 @@ public class Main {
         Thread consoleThead = new Thread(console);
 
         crawlerThread.setName("DirectoryCrawlerThread");
-        // Job dispatcher thread is identified by name JobDispatcherThread
         jobDispatcherThread.setName("JobDispatcherThread");
         consoleThead.setName("CLI Thread");
 
         // and start them
         crawlerThread.start();
         jobDispatcherThread.start();
+
+        // resume an interrupted web crawl, once there are threads
+        // to scan its pages, but before new urls can be added
+        if (crawlCheckpoint != null)
+            crawlCheckpoint.start(resultRetriever, crawlFrontier, scanningJobQueue);
         consoleThead.start();
 
         // main should be running as long as
@@ -72,6 +172,11 @@ public class Main {
         // to stop execution
         directoryCrawler.stop();
         resultRetriever.stop();
+        // the last checkpoint reads the frontier, so it's taken first
+        if (crawlCheckpoint != null)
+            crawlCheckpoint.stop();
+        if (crawlFrontier != null)
+            crawlFrontier.stop();
 //        jobDispatcher.stop();
 
         scanningJobQueue.terminate();
@@ -84,6 +189,7 @@ public class Main {
 
         fileScannerPool.terminate();
         webScannerPool.terminate();
+        fileCountCache.close();
 
         Logger.warn("Stopping main...");
     }
@@ -96,4 +202,25 @@ public class Main {
         }
         Logger.info("----------------");
     }
+
+    public static void printMetrics() {
+        Logger.info("\n-- Metrics --");
+        if (contentHashCache != null) {
+            Logger.info("%-28s %d / %d (%.1f%%)".formatted("Duplicate page hits:", contentHashCache.getHits(),
+                    contentHashCache.getLookups(), contentHashCache.getHitRatio() * 100));
+            Logger.info("%-28s %d".formatted("Distinct page bodies:", contentHashCache.size()));
+        }
+        if (pageCache != null)
+            Logger.info("%-28s %d bytes".formatted("Page cache size:", pageCache.size()));
+        FileStateTable fileStates = directoryCrawler.getFileStates();
+        Logger.info("%-28s %d (%d bytes)".formatted("Tracked corpus files:", fileStates.size(),
+                fileStates.memoryUsage()));
+        VisitedUrlStore visitedUrls = WebScannerPool.getVisitedUrls();
+        Logger.info("%-28s %d (%d bytes)".formatted("Visited urls:", visitedUrls.size(), visitedUrls.memoryUsage()));
+        if (crawlFrontier != null)
+            Logger.info("%-28s %d".formatted("Urls in crawl frontier:", crawlFrontier.size()));
+        if (crawlCheckpoint != null)
+            Logger.info("%-28s %d".formatted("Logged scanned urls:", crawlCheckpoint.loggedUrls()));
+        Logger.info("----------------");
+    }
 }
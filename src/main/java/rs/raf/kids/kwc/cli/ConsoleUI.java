@@ -25,6 +25,7 @@ public class ConsoleUI implements Runnable, Stoppable {
         commands.addCommand(Commands.getResultCommand());
         commands.addCommand(Commands.queryResultCommand());
         commands.addCommand(Commands.printLinksCommand());
+        commands.addCommand(Commands.printMetricsCommand());
         commands.addCommand(Commands.clearFileSummaryCommand());
         commands.addCommand(Commands.clearWebSummaryCommand());
     }
@@ -2,6 +2,9 @@ package rs.raf.kids.kwc.cli.command;
 
 import rs.raf.kids.kwc.Main;
 import rs.raf.kids.kwc.cli.Logger;
+import rs.raf.kids.kwc.job.ScanType;
+
+import java.io.File;
 
 public class AddDirectoryCommand implements Command {
 
@@ -12,10 +15,15 @@ public class AddDirectoryCommand implements Command {
 
     @Override
     public void execute(String... args) {
-        if (args.length != 1)
-            throw new IllegalArgumentException('\'' + getName() + "' takes 1 argument, but " + args.length + " were passed");
+        if (args.length < 1 || args.length > 2)
+            throw new IllegalArgumentException('\'' + getName() + "' takes 1 or 2 arguments, but " + args.length + " were passed");
 
+        // optional weight of the directory in the job queue
         String dirPath = args[0];
+        int weight = args.length == 2 ? Command.parseWeight(args[1]) : 1;
+        if (!new File(dirPath).isDirectory())
+            throw new IllegalArgumentException(dirPath + " is not a directory");
+        Main.scanningJobQueue.setWeight(ScanType.FILE, new File(dirPath).getPath(), weight);
         Main.directoryCrawler.addDirectory(dirPath);
     }
 }
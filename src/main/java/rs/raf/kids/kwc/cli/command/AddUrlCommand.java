@@ -2,6 +2,7 @@ package rs.raf.kids.kwc.cli.command;
 
 import rs.raf.kids.kwc.Main;
 import rs.raf.kids.kwc.cli.Logger;
+import rs.raf.kids.kwc.job.ScanType;
 import rs.raf.kids.kwc.job.WebScanningJob;
 import rs.raf.kids.kwc.pool.WebScannerPool;
 import rs.raf.kids.kwc.util.Utils;
@@ -15,16 +16,21 @@ public class AddUrlCommand implements Command {
 
     @Override
     public void execute(String... args) {
-        if (args.length != 1)
-            throw new IllegalArgumentException('\'' + getName() + "' takes 1 argument, but " + args.length + " were passed");
+        if (args.length < 1 || args.length > 2)
+            throw new IllegalArgumentException('\'' + getName() + "' takes 1 or 2 arguments, but " + args.length + " were passed");
 
+        // optional weight of the url and pages found from it in the job queue
         String url = args[0];
-        if (!Utils.isValidUrl(url)) {
+        int weight = args.length == 2 ? Command.parseWeight(args[1]) : 1;
+        if (!Utils.isWellFormedUrl(url) || Main.urlValidityCache.isKnownInvalid(url))
             throw new IllegalArgumentException("Invalid url: " + url);
-        } else if (WebScannerPool.isUrlReadyToScan(url)){
-            Main.scanningJobQueue.submit(new WebScanningJob(url));
-        } else {
+
+        Main.scanningJobQueue.setWeight(ScanType.WEB, url, weight);
+        if (!WebScannerPool.isUrlReadyToScan(url)) {
             Logger.debugError("Already visited url: " + url);
+        } else if (!WebScannerPool.offer(new WebScanningJob(url))) {
+            WebScannerPool.forgetUrl(url);
+            Logger.warn("Job queue is full, try again later: " + url);
         }
     }
 }
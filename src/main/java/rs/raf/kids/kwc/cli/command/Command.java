@@ -1,11 +1,26 @@
 package rs.raf.kids.kwc.cli.command;
 
+import rs.raf.kids.kwc.util.Utils;
+
 public interface Command {
 
     String getName();
 
     void execute(String...args);
 
+    /**
+     * Parses an optional weight argument of a command.
+     * @param value the argument
+     * @return the weight
+     * @throws IllegalArgumentException if the argument is not a positive integer
+     */
+    static int parseWeight(String value) {
+        int weight = Utils.parseIntOrDefault(value, 0);
+        if (weight < 1)
+            throw new IllegalArgumentException("Weight must be a positive integer, but was '" + value + '\'');
+        return weight;
+    }
+
     Command INVALID = new Command() {
         @Override
         public String getName() {
@@ -11,6 +11,7 @@ public class Commands {
     private static Command queryResultCommand = new QueryResultCommand();
     private static Command printThreadsCommand = new PrintThreadsCommand();
     private static Command printLinksCommand = new PrintLinksCommand();
+    private static Command printMetricsCommand = new PrintMetricsCommand();
     private static Command clearFileSummaryCommand = new ClearFileSummaryCommand();
     private static Command clearWebSummaryCommand = new ClearWebSummaryCommand();
 
@@ -32,6 +33,9 @@ public class Commands {
     public static Command printLinksCommand() {
         return printLinksCommand;
     }
+    public static Command printMetricsCommand() {
+        return printMetricsCommand;
+    }
     public static Command clearFileSummaryCommand() {
         return clearFileSummaryCommand;
     }
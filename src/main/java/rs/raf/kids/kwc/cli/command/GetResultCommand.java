@@ -1,6 +1,5 @@
 package rs.raf.kids.kwc.cli.command;
 
-import jdk.jshell.execution.Util;
 import rs.raf.kids.kwc.Main;
 import rs.raf.kids.kwc.cli.Logger;
 import rs.raf.kids.kwc.job.ScanType;
@@ -41,7 +40,7 @@ public class GetResultCommand implements Command {
                 Utils.prettyPrintSummaryResult(scanType, result);
             } else {
                 var result = Main.resultRetriever.getResult(query);
-                Utils.prettyPrintResult(query, result);
+                Utils.prettyPrintResult(query, result.toMap());
             }
         } catch (Exception e) {
             throw new RuntimeException(e.getMessage());
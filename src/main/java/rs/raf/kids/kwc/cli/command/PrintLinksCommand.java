@@ -1,9 +1,9 @@
 package rs.raf.kids.kwc.cli.command;
 
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
+import rs.raf.kids.kwc.Main;
+import rs.raf.kids.kwc.fetch.FetchedPage;
 
 import java.io.IOException;
 
@@ -21,7 +21,10 @@ public class PrintLinksCommand implements Command {
 
         String url = args[0];
         try {
-            Document doc = Jsoup.connect(url).get();
+            FetchedPage page = Main.pageFetcher.fetch(url);
+            if (!page.isSuccessful())
+                throw new IOException("HTTP status " + page.statusCode() + " for " + url);
+            Document doc = page.parse();
             Elements links = doc.select("a");
             links.stream()
                     .map(link -> link.attr("abs:href"))
@@ -0,0 +1,19 @@
+package rs.raf.kids.kwc.cli.command;
+
+import rs.raf.kids.kwc.Main;
+
+public class PrintMetricsCommand implements Command {
+
+    @Override
+    public String getName() {
+        return "metrics";
+    }
+
+    @Override
+    public void execute(String... args) {
+        if (args.length != 0)
+            throw new IllegalArgumentException('\'' + getName() + "' command does not take any arguments");
+
+        Main.printMetrics();
+    }
+}
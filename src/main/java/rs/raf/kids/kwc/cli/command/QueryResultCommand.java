@@ -40,7 +40,7 @@ public class QueryResultCommand implements Command {
                 Utils.prettyPrintSummaryResult(scanType, result);
             } else {
                 var result = Main.resultRetriever.queryResult(query);
-                Utils.prettyPrintResult(query, result);
+                Utils.prettyPrintResult(query, result.toMap());
             }
         } catch (Exception e) {
             throw new RuntimeException(e.getMessage());
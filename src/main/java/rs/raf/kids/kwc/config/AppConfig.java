@@ -1,6 +1,9 @@
 package rs.raf.kids.kwc.config;
 
 import rs.raf.kids.kwc.cli.Logger;
+import rs.raf.kids.kwc.job.FileScanningMode;
+import rs.raf.kids.kwc.job.WebScanningMode;
+import rs.raf.kids.kwc.scan.KeywordAutomaton;
 import rs.raf.kids.kwc.util.Utils;
 
 import java.io.IOException;
@@ -15,16 +18,87 @@ public class AppConfig {
     private static final String KEY_CORPUS_PREFIX = "file_corpus_prefix";
     private static final String KEY_FILE_SIZE_LIMIT = "file_scanning_size_limit";
     private static final String KEY_CRAWLER_SLEEP_TIME = "directory_crawler_sleep_time";
+    private static final String KEY_DIRECTORY_WATCH = "directory_watch";
+    private static final String KEY_DIRECTORY_WATCH_DEBOUNCE = "directory_watch_debounce";
+    private static final String KEY_DIRECTORY_SWEEP_INTERVAL = "directory_sweep_interval";
+    private static final String KEY_FILE_INDEX_PATH = "file_index_path";
+    private static final String KEY_CRAWLER_PARALLELISM = "directory_crawler_parallelism";
     private static final String KEY_URL_DEPTH_LIMIT = "web_scanning_depth_limit";
     private static final String KEY_URL_REFRESH_TIME = "url_refresh_time";
+    private static final String KEY_FILE_SCANNING_MODE = "file_scanning_mode";
+    private static final String KEY_FILE_SEGMENT_SIZE = "file_segment_size";
+    private static final String KEY_FILE_SCANNER_PARALLELISM = "file_scanner_parallelism";
+    private static final String KEY_WEB_POOL_CORE_SIZE = "web_pool_core_size";
+    private static final String KEY_WEB_POOL_MAX_SIZE = "web_pool_max_size";
+    private static final String KEY_WEB_POOL_QUEUE_CAPACITY = "web_pool_queue_capacity";
+    private static final String KEY_POOL_RESIZE_INTERVAL = "pool_resize_interval";
+    private static final String KEY_JOB_QUEUE_CAPACITY = "scanning_job_queue_capacity";
+    private static final String KEY_WEB_DROP_LINKS_WHEN_FULL = "web_drop_links_when_full";
+    private static final String KEY_WEB_FRONTIER_SIZE = "web_frontier_size";
+    private static final String KEY_WEB_FRONTIER_SPILL_FILE = "web_frontier_spill_file";
+    private static final String KEY_WEB_CHECKPOINT_FILE = "web_checkpoint_file";
+    private static final String KEY_WEB_CHECKPOINT_INTERVAL = "web_checkpoint_interval";
+    private static final String KEY_FILE_JOB_DEADLINE = "file_job_deadline";
+    private static final String KEY_WEB_JOB_DEADLINE = "web_job_deadline";
+    private static final String KEY_WEB_VIRTUAL_THREADS = "web_virtual_threads";
+    private static final String KEY_WEB_HOST_CONCURRENCY_LIMIT = "web_host_concurrency_limit";
+    private static final String KEY_WEB_HOST_REQUEST_RATE = "web_host_request_rate";
+    private static final String KEY_WEB_HOST_LATENCY_TARGET = "web_host_latency_target";
+    private static final String KEY_HTTP_CONNECT_TIMEOUT = "http_connect_timeout";
+    private static final String KEY_HTTP_REQUEST_TIMEOUT = "http_request_timeout";
+    private static final String KEY_URL_VALIDITY_TTL = "url_validity_ttl";
+    private static final String KEY_WEB_SCANNING_MODE = "web_scanning_mode";
+    private static final String KEY_VISITED_URL_CAPACITY = "visited_url_capacity";
+    private static final String KEY_VISITED_URL_BLOOM_FILTER = "visited_url_bloom_filter";
+    private static final String KEY_URL_RECRAWL = "url_recrawl";
+    private static final String KEY_URL_RECRAWL_TICK = "url_recrawl_tick";
+    private static final String KEY_PAGE_CACHE_DIRECTORY = "page_cache_directory";
+    private static final String KEY_PAGE_CACHE_SIZE = "page_cache_size";
+    private static final String KEY_CONTENT_HASH_CACHE_SIZE = "content_hash_cache_size";
 
     private static Properties properties;
     public static Set<String> keywords;
+    public static KeywordAutomaton keywordAutomaton;
     public static String corpusPrefix;
     public static long fileSizeLimit;
     public static long crawlerSleepTime;
+    public static boolean directoryWatch;
+    public static long directoryWatchDebounce;
+    public static long directorySweepInterval;
+    public static String fileIndexPath;
+    public static int crawlerParallelism;
     public static int urlDepthLimit;
     public static long urlRefreshTime;
+    public static FileScanningMode fileScanningMode;
+    public static long fileSegmentSize;
+    public static int fileScannerParallelism;
+    public static int webPoolCoreSize;
+    public static int webPoolMaxSize;
+    public static int webPoolQueueCapacity;
+    public static long poolResizeInterval;
+    public static int jobQueueCapacity;
+    public static boolean webDropLinksWhenFull;
+    public static int webFrontierSize;
+    public static String webFrontierSpillFile;
+    public static String webCheckpointFile;
+    public static long webCheckpointInterval;
+    public static long fileJobDeadline;
+    public static long webJobDeadline;
+    public static boolean webVirtualThreads;
+    public static int webHostConcurrencyLimit;
+    public static double webHostRequestRate;
+    public static long webHostLatencyTarget;
+    public static long httpConnectTimeout;
+    public static long httpRequestTimeout;
+    public static long urlValidityTtl;
+    public static WebScanningMode webScanningMode;
+    public static int visitedUrlCapacity;
+    public static boolean visitedUrlBloomFilter;
+    public static boolean urlRecrawl;
+    public static long urlRecrawlTick;
+    public static String pageCacheDirectory;
+    public static long pageCacheSize;
+    public static int contentHashCacheSize;
 
     static {
         loadProperties();
@@ -50,6 +124,7 @@ public class AppConfig {
         keywords = Arrays.stream(keywordValues.split(","))
                 .map(String::trim)
                 .collect(Collectors.toUnmodifiableSet());
+        keywordAutomaton = KeywordAutomaton.compile(keywords);
 
         corpusPrefix = properties.getProperty("file_corpus_prefix", "corpus_");
         Logger.debugError("corpusPrefix=" + corpusPrefix);
@@ -68,6 +143,23 @@ public class AppConfig {
         );
         Logger.debugError("crawlerSleepTimeValue=" + crawlerSleepTimeValue);
 
+        directoryWatch = Boolean.parseBoolean(properties.getProperty(KEY_DIRECTORY_WATCH, "false").trim());
+        String directoryWatchDebounceValue = properties.getProperty(KEY_DIRECTORY_WATCH_DEBOUNCE, "500");
+        directoryWatchDebounce = Math.max(0, Utils.parseLongOrDefault(directoryWatchDebounceValue, 500L));
+        String directorySweepIntervalValue = properties.getProperty(KEY_DIRECTORY_SWEEP_INTERVAL, "60000");
+        directorySweepInterval = Math.max(1, Utils.parseLongOrDefault(directorySweepIntervalValue, 60000L));
+        Logger.debugError("directoryWatch=" + directoryWatch + ", directoryWatchDebounce=" + directoryWatchDebounce
+                + ", directorySweepInterval=" + directorySweepInterval);
+
+        fileIndexPath = properties.getProperty(KEY_FILE_INDEX_PATH, "").trim();
+        Logger.debugError("fileIndexPath=" + fileIndexPath);
+
+        String crawlerParallelismValue = properties.getProperty(KEY_CRAWLER_PARALLELISM, "0");
+        crawlerParallelism = Utils.parseIntOrDefault(crawlerParallelismValue, 0);
+        if (crawlerParallelism <= 0)
+            crawlerParallelism = Runtime.getRuntime().availableProcessors();
+        Logger.debugError("crawlerParallelism=" + crawlerParallelism);
+
         String urlDepthLimitValue = properties.getProperty("web_scanning_depth_limit", "1");
         urlDepthLimit = Utils.parseIntOrDefault(urlDepthLimitValue, 1, () -> {}
 //                () -> Logger.def.warn("WARN", "Invalid value", "web_scanning_depth_limit is being set to default value of 1")
@@ -79,6 +171,104 @@ public class AppConfig {
 //                () -> Logger.def.warn("WARN", "Invalid value", "url_refresh_time is being set to default value of 86400000")
         );
         Logger.debugError("urlRefreshTimeValue=" + urlRefreshTimeValue);
+
+        String fileScanningModeValue = properties.getProperty(KEY_FILE_SCANNING_MODE, "lines");
+        fileScanningMode = FileScanningMode.parseOrDefault(fileScanningModeValue, FileScanningMode.LINES);
+        Logger.debugError("fileScanningMode=" + fileScanningMode);
+
+        String fileSegmentSizeValue = properties.getProperty(KEY_FILE_SEGMENT_SIZE, "16777216");
+        fileSegmentSize = Math.max(1, Utils.parseLongOrDefault(fileSegmentSizeValue, 16777216L));
+        Logger.debugError("fileSegmentSize=" + fileSegmentSize);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        String fileScannerParallelismValue = properties.getProperty(KEY_FILE_SCANNER_PARALLELISM, "0");
+        fileScannerParallelism = Utils.parseIntOrDefault(fileScannerParallelismValue, 0);
+        if (fileScannerParallelism <= 0)
+            fileScannerParallelism = cores;
+        Logger.debugError("fileScannerParallelism=" + fileScannerParallelism);
+
+        String webPoolCoreSizeValue = properties.getProperty(KEY_WEB_POOL_CORE_SIZE, String.valueOf(cores));
+        webPoolCoreSize = Math.max(1, Utils.parseIntOrDefault(webPoolCoreSizeValue, cores));
+        String webPoolMaxSizeValue = properties.getProperty(KEY_WEB_POOL_MAX_SIZE, String.valueOf(cores * 16));
+        webPoolMaxSize = Math.max(webPoolCoreSize, Utils.parseIntOrDefault(webPoolMaxSizeValue, cores * 16));
+        String webPoolQueueCapacityValue = properties.getProperty(KEY_WEB_POOL_QUEUE_CAPACITY, "1024");
+        webPoolQueueCapacity = Math.max(1, Utils.parseIntOrDefault(webPoolQueueCapacityValue, 1024));
+        Logger.debugError("webPool=" + webPoolCoreSize + ".." + webPoolMaxSize + ", queue=" + webPoolQueueCapacity);
+
+        String poolResizeIntervalValue = properties.getProperty(KEY_POOL_RESIZE_INTERVAL, "5000");
+        poolResizeInterval = Math.max(0, Utils.parseLongOrDefault(poolResizeIntervalValue, 5000L));
+        Logger.debugError("poolResizeInterval=" + poolResizeInterval);
+
+        String jobQueueCapacityValue = properties.getProperty(KEY_JOB_QUEUE_CAPACITY, "100000");
+        jobQueueCapacity = Math.max(1, Utils.parseIntOrDefault(jobQueueCapacityValue, 100000));
+        Logger.debugError("jobQueueCapacity=" + jobQueueCapacity);
+
+        webDropLinksWhenFull = Boolean.parseBoolean(properties.getProperty(KEY_WEB_DROP_LINKS_WHEN_FULL, "false").trim());
+        Logger.debugError("webDropLinksWhenFull=" + webDropLinksWhenFull);
+
+        String webFrontierSizeValue = properties.getProperty(KEY_WEB_FRONTIER_SIZE, "0");
+        webFrontierSize = Math.max(0, Utils.parseIntOrDefault(webFrontierSizeValue, 0));
+        webFrontierSpillFile = properties.getProperty(KEY_WEB_FRONTIER_SPILL_FILE, "").trim();
+        Logger.debugError("webFrontierSize=" + webFrontierSize + ", webFrontierSpillFile=" + webFrontierSpillFile);
+
+        webCheckpointFile = properties.getProperty(KEY_WEB_CHECKPOINT_FILE, "").trim();
+        String webCheckpointIntervalValue = properties.getProperty(KEY_WEB_CHECKPOINT_INTERVAL, "30000");
+        webCheckpointInterval = Math.max(1, Utils.parseLongOrDefault(webCheckpointIntervalValue, 30000L));
+        Logger.debugError("webCheckpointFile=" + webCheckpointFile + ", webCheckpointInterval=" + webCheckpointInterval);
+
+        String fileJobDeadlineValue = properties.getProperty(KEY_FILE_JOB_DEADLINE, "2000");
+        fileJobDeadline = Math.max(0, Utils.parseLongOrDefault(fileJobDeadlineValue, 2000L));
+        String webJobDeadlineValue = properties.getProperty(KEY_WEB_JOB_DEADLINE, "0");
+        webJobDeadline = Math.max(0, Utils.parseLongOrDefault(webJobDeadlineValue, 0L));
+        Logger.debugError("fileJobDeadline=" + fileJobDeadline + ", webJobDeadline=" + webJobDeadline);
+
+        webVirtualThreads = Boolean.parseBoolean(properties.getProperty(KEY_WEB_VIRTUAL_THREADS, "false").trim());
+        String webHostConcurrencyLimitValue = properties.getProperty(KEY_WEB_HOST_CONCURRENCY_LIMIT, "8");
+        webHostConcurrencyLimit = Math.max(1, Utils.parseIntOrDefault(webHostConcurrencyLimitValue, 8));
+        Logger.debugError("webVirtualThreads=" + webVirtualThreads + ", webHostConcurrencyLimit=" + webHostConcurrencyLimit);
+
+        String webHostRequestRateValue = properties.getProperty(KEY_WEB_HOST_REQUEST_RATE, "2");
+        try {
+            webHostRequestRate = Math.max(0, Double.parseDouble(webHostRequestRateValue));
+        } catch (NumberFormatException e) {
+            webHostRequestRate = 2;
+        }
+        String webHostLatencyTargetValue = properties.getProperty(KEY_WEB_HOST_LATENCY_TARGET, "2000");
+        webHostLatencyTarget = Math.max(1, Utils.parseLongOrDefault(webHostLatencyTargetValue, 2000L));
+        Logger.debugError("webHostRequestRate=" + webHostRequestRate + ", webHostLatencyTarget=" + webHostLatencyTarget);
+
+        String httpConnectTimeoutValue = properties.getProperty(KEY_HTTP_CONNECT_TIMEOUT, "5000");
+        httpConnectTimeout = Math.max(1, Utils.parseLongOrDefault(httpConnectTimeoutValue, 5000L));
+        String httpRequestTimeoutValue = properties.getProperty(KEY_HTTP_REQUEST_TIMEOUT, "15000");
+        httpRequestTimeout = Math.max(1, Utils.parseLongOrDefault(httpRequestTimeoutValue, 15000L));
+        Logger.debugError("httpConnectTimeout=" + httpConnectTimeout + ", httpRequestTimeout=" + httpRequestTimeout);
+
+        String urlValidityTtlValue = properties.getProperty(KEY_URL_VALIDITY_TTL, "3600000");
+        urlValidityTtl = Math.max(0, Utils.parseLongOrDefault(urlValidityTtlValue, 3600000L));
+        Logger.debugError("urlValidityTtl=" + urlValidityTtl);
+
+        String webScanningModeValue = properties.getProperty(KEY_WEB_SCANNING_MODE, "dom");
+        webScanningMode = WebScanningMode.parseOrDefault(webScanningModeValue, WebScanningMode.DOM);
+        Logger.debugError("webScanningMode=" + webScanningMode);
+
+        String visitedUrlCapacityValue = properties.getProperty(KEY_VISITED_URL_CAPACITY, "65536");
+        visitedUrlCapacity = Math.max(1, Utils.parseIntOrDefault(visitedUrlCapacityValue, 65536));
+        visitedUrlBloomFilter = Boolean.parseBoolean(properties.getProperty(KEY_VISITED_URL_BLOOM_FILTER, "false").trim());
+        Logger.debugError("visitedUrlCapacity=" + visitedUrlCapacity + ", visitedUrlBloomFilter=" + visitedUrlBloomFilter);
+
+        urlRecrawl = Boolean.parseBoolean(properties.getProperty(KEY_URL_RECRAWL, "false").trim());
+        String urlRecrawlTickValue = properties.getProperty(KEY_URL_RECRAWL_TICK, "1000");
+        urlRecrawlTick = Math.max(1, Utils.parseLongOrDefault(urlRecrawlTickValue, 1000L));
+        Logger.debugError("urlRecrawl=" + urlRecrawl + ", urlRecrawlTick=" + urlRecrawlTick);
+
+        pageCacheDirectory = properties.getProperty(KEY_PAGE_CACHE_DIRECTORY, "page_cache").trim();
+        String pageCacheSizeValue = properties.getProperty(KEY_PAGE_CACHE_SIZE, "0");
+        pageCacheSize = Math.max(0, Utils.parseLongOrDefault(pageCacheSizeValue, 0L));
+        Logger.debugError("pageCacheDirectory=" + pageCacheDirectory + ", pageCacheSize=" + pageCacheSize);
+
+        String contentHashCacheSizeValue = properties.getProperty(KEY_CONTENT_HASH_CACHE_SIZE, "4096");
+        contentHashCacheSize = Math.max(0, Utils.parseIntOrDefault(contentHashCacheSizeValue, 4096));
+        Logger.debugError("contentHashCacheSize=" + contentHashCacheSize);
     }
 
     public static Properties properties() {
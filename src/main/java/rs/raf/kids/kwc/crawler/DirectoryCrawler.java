@@ -2,20 +2,46 @@ package rs.raf.kids.kwc.crawler;
 
 import rs.raf.kids.kwc.Stoppable;
 import rs.raf.kids.kwc.cli.Logger;
+import rs.raf.kids.kwc.job.FileCountCache;
 import rs.raf.kids.kwc.job.FileScanningJob;
+import rs.raf.kids.kwc.job.FileStat;
 import rs.raf.kids.kwc.job.ScanningJob;
 import rs.raf.kids.kwc.job.ScanningJobQueue;
-import rs.raf.kids.kwc.util.Utils;
 
 import java.io.File;
-import java.util.Arrays;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 public class DirectoryCrawler implements Runnable, Stoppable {
 
+    /**
+     * Longest time to wait for watch events before checking
+     * for directories added in the meantime, in milliseconds.
+     */
+    private static final long NEW_DIRECTORY_CHECK_INTERVAL = 250;
+
+    /**
+     * A corpus directory which keeps changing is rescanned at the
+     * latest after this many debounce times since its first change.
+     */
+    private static final int MAX_DEBOUNCE_FACTOR = 10;
+
     /**
      * A list of directories that crawler will
      * scan for corpus directories in each run.
@@ -23,10 +49,10 @@ public class DirectoryCrawler implements Runnable, Stoppable {
     private final List<File> directories;
 
     /**
-     * A map which holds information about files
-     * that are being scanned.
+     * Sizes and modification times of files in
+     * corpus directories, as of their last check.
      */
-    private final Map<String, FileInfo> fileInfoMap;
+    private final FileStateTable fileStates;
 
     /**
      * A flag to indicate whether the crawler
@@ -50,6 +76,70 @@ public class DirectoryCrawler implements Runnable, Stoppable {
 
     private final ScanningJobQueue scanningJobQueue;
 
+    /**
+     * Whether changes are detected by watching directories
+     * instead of polling them.
+     */
+    private final boolean watch;
+
+    /**
+     * Time a corpus directory has to stay unchanged after
+     * an event before it's rescanned, given in milliseconds.
+     */
+    private final long debounceTime;
+
+    /**
+     * Time between consistency sweeps of all directories
+     * while watching, given in milliseconds.
+     */
+    private final long sweepInterval;
+
+    private volatile WatchService watchService;
+
+    /**
+     * Watched directories by their watch keys. Other watch
+     * state is only accessed by the crawler thread.
+     */
+    private final Map<WatchKey, Path> watchedDirectories;
+
+    /**
+     * Directories that have been swept at least once,
+     * and are therefore watched.
+     */
+    private final Set<File> sweptDirectories;
+
+    /**
+     * Corpus directories which have changed, but are
+     * not rescanned until they stop changing.
+     */
+    private final Map<File, PendingCorpus> pendingCorpora;
+
+    /**
+     * Time of the next consistency sweep.
+     */
+    private long nextSweep;
+
+    /**
+     * Counts of files restored from a previous run, which decide whether
+     * a corpus has changed when it's first seen, or <code>null</code>.
+     */
+    private final FileCountCache fileCountCache;
+
+    /**
+     * Corpus directories checked at least once since the crawler started.
+     */
+    private final Set<String> checkedCorpora;
+
+    /**
+     * Walks registered directories in parallel.
+     */
+    private final DirectoryWalker walker;
+
+    /**
+     * Receives directories found by <code>walker</code>.
+     */
+    private final DirectoryWalker.Visitor visitor;
+
     /**
      * Creates an instance of <code>DirectoryCrawler</code>
      * with an empty directory list and wait time between
@@ -62,11 +152,60 @@ public class DirectoryCrawler implements Runnable, Stoppable {
      * @param sleepTime time to wait between individual scans.
      */
     public DirectoryCrawler(ScanningJobQueue scanningJobQueue, String corpusPrefix, long sleepTime) {
+        this(scanningJobQueue, corpusPrefix, sleepTime, false, 0, 0, null,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates an instance of <code>DirectoryCrawler</code> which may
+     * detect changes through a <code>WatchService</code>. While watching,
+     * every event in a corpus directory delays its rescan by
+     * <code>debounceTime</code>, so a burst of changes results in a single
+     * <code>FileScanningJob</code>. All directories are still polled every
+     * <code>sweepInterval</code>, and whenever events are lost because the
+     * watch queue has overflowed. If a <code>WatchService</code> can't be
+     * created, the crawler polls every <code>sleepTime</code> instead.
+     * @param scanningJobQueue queue to put scanning jobs into
+     * @param corpusPrefix a prefix which indicates that directory
+     *                     is a corpus directory
+     * @param sleepTime time to wait between individual scans when polling
+     * @param watch whether to watch directories instead of polling them
+     * @param debounceTime time a corpus directory has to stay unchanged
+     *                     before it's rescanned
+     * @param sweepInterval time between consistency sweeps while watching
+     * @param fileCountCache counts of files restored from a previous run,
+     *                       so unchanged corpora are not scanned again after
+     *                       a restart, or <code>null</code>
+     * @param parallelism number of threads walking directories
+     */
+    public DirectoryCrawler(ScanningJobQueue scanningJobQueue, String corpusPrefix, long sleepTime,
+                            boolean watch, long debounceTime, long sweepInterval, FileCountCache fileCountCache,
+                            int parallelism) {
         this.scanningJobQueue = scanningJobQueue;
         this.corpusPrefix = corpusPrefix;
         this.sleepTime = sleepTime;
+        this.watch = watch;
+        this.debounceTime = debounceTime;
+        this.sweepInterval = sweepInterval;
+        this.fileCountCache = fileCountCache;
+        checkedCorpora = ConcurrentHashMap.newKeySet();
         directories = new CopyOnWriteArrayList<>();
-        fileInfoMap = new ConcurrentHashMap<>();
+        fileStates = new FileStateTable();
+        watchedDirectories = new ConcurrentHashMap<>();
+        sweptDirectories = new HashSet<>();
+        pendingCorpora = new HashMap<>();
+        walker = new DirectoryWalker(corpusPrefix, parallelism);
+        visitor = new DirectoryWalker.Visitor() {
+            @Override
+            public void directoryFound(File directory) {
+                watchDirectory(directory);
+            }
+
+            @Override
+            public void corpusFound(File corpus, List<FileStat> files) {
+                checkDirectoryForScanningJob(corpus, files);
+            }
+        };
     }
 
     /**
@@ -101,69 +240,66 @@ public class DirectoryCrawler implements Runnable, Stoppable {
     @Override
     public void run() {
         signalRun();
-        while (isRunning()) {
-
-            // iterate over list of directories
-            // for each corpus directory create new FileScanningJob
-            // check if any files in directory were modified and
-            // if they have, add newly created job to ScanningJobQueue
-            directories.forEach(this::scanForCorpusDirectories);
-            pause();
+        try {
+            if (watch && openWatchService()) {
+                runWatching();
+                return;
+            }
+            while (isRunning()) {
+
+                // walk all directories, and for each corpus directory
+                // check if any files in directory were modified and
+                // if they have, add newly created job to ScanningJobQueue
+                walker.walk(directories, visitor);
+                pause();
+            }
+        } finally {
+            walker.shutdown();
         }
     }
 
     /**
      * Searches and scans all the possible corpus directories
-     * in the given directory, recursively. Directory is considered as
-     * corpus directory if its name starts with <code>corpusPrefix</code>.
+     * in the given directory, recursively and in parallel. Directory is
+     * considered as corpus directory if its name starts with
+     * <code>corpusPrefix</code>.
      * @param directory Directory which is scanned for corpus directories.
      */
     private void scanForCorpusDirectories(File directory) {
-
-        // get the list of files in directory
-        // and convert it into empty array if
-        // listFiles returned null
-        File[] files = Utils.nullableToEmpty(directory.listFiles());
-
-        // now iterate over all the files
-        for (File dir : files) {
-
-            // in case the file is directory
-            if (dir.isDirectory()) {
-
-                // and its name starts with corpusPrefix
-                // check if scanning job is required
-                if (dir.getName().startsWith(corpusPrefix)) {
-                    checkDirectoryForScanningJob(dir);
-                }
-                // otherwise, search for possible corpus
-                // directories recursively inside directory
-                else {
-                    scanForCorpusDirectories(dir);
-                }
-            }
-        }
+        walker.walk(List.of(directory), visitor);
     }
 
     /**
-     * Iterates through all the files in the given directory and updates
-     * the <code>lastModified</code> property of a given file in
-     * <code>fileInfoMap</code> if its needed. In case any of the files
-     * were modified since the last run, a new <code>FileScanningJob</code>
-     * is created and submitted to <code>scanningJobQueue</code>.
+     * Lists files of a corpus directory and checks it for modifications.
      * @param directory corpus directory to scan for modifications
      */
     private void checkDirectoryForScanningJob(File directory) {
+        checkDirectoryForScanningJob(directory, walker.listFiles(directory));
+    }
 
-        // first get all the files inside directory
-        File[] files = Utils.nullableToEmpty(directory.listFiles());
+    /**
+     * Records sizes and modification times of all the files in the given
+     * directory in <code>fileStates</code>. In case any of the files were
+     * added, modified or deleted since the last run, a new
+     * <code>FileScanningJob</code> is created and submitted to
+     * <code>scanningJobQueue</code>, which updates counts of the corpus by
+     * rescanning changed files and dropping deleted ones. Called from
+     * threads of <code>walker</code>, for many corpora at once.
+     * @param directory corpus directory to scan for modifications
+     * @param files stats of all regular files in the directory
+     */
+    private void checkDirectoryForScanningJob(File directory, List<FileStat> files) {
+        watchDirectory(directory);
 
-        // then iterate over all the files to check
-        // if any of them were modified
-        boolean shouldStartJob = Arrays.stream(files)
-                .filter(File::isFile)
-                .map(this::updateFileInfo)
-                .reduce(false, Boolean::logicalOr, Boolean::logicalOr);
+        // files which are not listed any more are removed,
+        // which counts as a change just like a modified file
+        boolean shouldStartJob = fileStates.update(directory, files);
+
+        // all files are new to a corpus seen for the first time, but
+        // if its counts were restored, it's scanned only if it changed
+        if (checkedCorpora.add(directory.getPath()) && fileCountCache != null) {
+            shouldStartJob = fileCountCache.hasChanges(directory, files);
+        }
 
         // if shouldStartJob is true, we create new ScanningJob
         // and submit it to ScanningJobQueue
@@ -171,56 +307,162 @@ public class DirectoryCrawler implements Runnable, Stoppable {
 
             // Job creation code goes here
 //            Logger.def.info("INFO", Thread.currentThread().getName(), "Creating job for corpus: " + directory);
-            ScanningJob job = new FileScanningJob(directory);
+            ScanningJob job = new FileScanningJob(directory, sourceOf(directory));
             scanningJobQueue.submit(job);
         }
     }
 
     /**
-     * Updates <code>FileInfo</code> of corresponding file in <code>fileInfoMap</code>.
-     * If its <code>FileInfo</code> was not found, a new instance is created and put
-     * into <code>fileInfoMap</code>.
-     * @param file file whose info will be updated
-     * @return <code>true</code> is file wasn't registered before or if it has expired
+     * Finds the added directory a corpus directory was found in.
+     * @param corpus a corpus directory
+     * @return path of the added directory, or of the corpus directory
+     * if it's not in any of them
      */
-    private boolean updateFileInfo(File file) {
+    private String sourceOf(File corpus) {
+        Path path = corpus.toPath();
+        for (File directory : directories) {
+            if (path.startsWith(directory.toPath()))
+                return directory.getPath();
+        }
+        return corpus.getPath();
+    }
 
-        // filePath will be used as unique key for fileInfoMap
-        String filepath = file.getPath();
-        // we get lastModified value to compare with existing fileInfo
-        long lastModified = file.lastModified();
+    /**
+     * Watches directories for changes until the crawler is stopped.
+     * Newly added directories are swept right away, which starts watching
+     * them, and all directories are swept again periodically, or as soon
+     * as the watch queue overflows.
+     */
+    private void runWatching() {
+        nextSweep = System.currentTimeMillis();
+        try {
+            while (isRunning()) {
+                long now = System.currentTimeMillis();
+                if (now >= nextSweep) {
+                    Logger.debugInfo("Sweeping all directories for changes");
+                    sweptDirectories.clear();
+                    nextSweep = now + sweepInterval;
+                }
+                for (File directory : directories) {
+                    if (sweptDirectories.add(directory))
+                        scanForCorpusDirectories(directory);
+                }
+                submitSettledCorpora(now);
 
-        // if file was checked earlier, it will be registered in fileMap
-        if (fileInfoMap.containsKey(filepath)) {
+                WatchKey key = watchService.poll(pollTimeout(now), TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    handleEvents(key);
+                    key = watchService.poll();
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException ignored) {
+        } finally {
+            closeWatchService();
+        }
+    }
+
+    private boolean openWatchService() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            Logger.warn("Can't watch directories, polling them instead: " + e.getMessage());
+            return false;
+        }
+    }
 
-            // we retrieve fileInfo for the current file
-            FileInfo fileInfo = fileInfoMap.get(filepath);
+    private void closeWatchService() {
+        WatchService service = watchService;
+        if (service == null)
+            return;
+        try {
+            service.close();
+        } catch (IOException ignored) {}
+    }
 
-            // if modification occurred in, lastModified
-            // values will no be the same
-            if (fileInfo.lastModified != lastModified) {
+    /**
+     * Starts watching a directory for created, modified and deleted
+     * entries, unless the crawler is polling.
+     * @param directory a directory to watch
+     */
+    private void watchDirectory(File directory) {
+        if (watchService == null)
+            return;
+        try {
+            Path path = directory.toPath();
+            WatchKey key = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            watchedDirectories.put(key, path);
+        } catch (IOException e) {
+            Logger.debugWarn("Can't watch directory '" + directory + "': " + e.getMessage());
+        }
+    }
 
-                // in that case we update lastModified value
-                // and return true as a signal that scanning
-                // job should be created
-                fileInfo.lastModified = lastModified;
-                return true;
+    /**
+     * Handles events of a watched directory. A change of a file in a
+     * corpus directory delays its rescan, and a directory created outside
+     * of corpus directories is searched for corpus directories.
+     * @param key watch key of the directory
+     */
+    private void handleEvents(WatchKey key) {
+        Path path = watchedDirectories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events were lost, so only a sweep can tell what changed
+                Logger.debugWarn("Watch events were lost, sweeping all directories");
+                nextSweep = 0;
+                continue;
             }
+            if (path == null)
+                continue;
+
+            Path child = path.resolve((Path) event.context());
+            File directory = path.toFile();
+            if (directory.getName().startsWith(corpusPrefix)) {
+                // deleted files are found when the corpus is listed again
+                markChanged(directory);
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                File created = child.toFile();
+                if (created.getName().startsWith(corpusPrefix)) {
+                    // a new corpus is likely still being filled
+                    watchDirectory(created);
+                    markChanged(created);
+                } else {
+                    scanForCorpusDirectories(created);
+                }
+            }
+        }
+        if (!key.reset())
+            watchedDirectories.remove(key);
+    }
 
-            // otherwise, we know that the file has not been
-            // updated since the last check, so false is returned
-            return false;
-        } else {
+    private void markChanged(File corpus) {
+        long now = System.currentTimeMillis();
+        PendingCorpus pending = pendingCorpora.computeIfAbsent(corpus, c -> new PendingCorpus(now));
+        pending.deadline = Math.min(now + debounceTime, pending.firstChange + MAX_DEBOUNCE_FACTOR * debounceTime);
+    }
 
-            // in case that no fileInfo was found in fileInfoMap
-            // first we create new fileInfo object for current file,
-            // update its lastModified property, put it in the fileInfoMap
-            // and return true to signal that a new job should be created
-            FileInfo fileInfo = new FileInfo(file.getName());
-            fileInfo.lastModified = lastModified;
-            fileInfoMap.put(filepath, fileInfo);
-            return true;
+    /**
+     * Checks every changed corpus directory which has not
+     * changed for at least <code>debounceTime</code>.
+     */
+    private void submitSettledCorpora(long now) {
+        Iterator<Map.Entry<File, PendingCorpus>> iterator = pendingCorpora.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<File, PendingCorpus> entry = iterator.next();
+            if (entry.getValue().deadline <= now) {
+                iterator.remove();
+                checkDirectoryForScanningJob(entry.getKey());
+            }
+        }
+    }
+
+    private long pollTimeout(long now) {
+        long wakeUp = Math.min(nextSweep, now + NEW_DIRECTORY_CHECK_INTERVAL);
+        for (PendingCorpus pending : pendingCorpora.values()) {
+            wakeUp = Math.min(wakeUp, pending.deadline);
         }
+        return Math.max(1, wakeUp - now);
     }
 
     private void pause() {
@@ -237,11 +479,20 @@ public class DirectoryCrawler implements Runnable, Stoppable {
     @Override
     public void stop() {
         signalStop();
+        closeWatchService();
         synchronized (this) {
             notifyAll();
         }
     }
 
+    /**
+     * @return sizes and modification times of files in corpus
+     * directories, which the crawler compares to find changes
+     */
+    public FileStateTable getFileStates() {
+        return fileStates;
+    }
+
     /**
      * Checks if the crawler is still running,
      * based on the <code>running</code> flag.
@@ -268,32 +519,15 @@ public class DirectoryCrawler implements Runnable, Stoppable {
     }
 
     /**
-     * <p>
-     *     A private class that encapsulates basic
-     *     information about file. Instances of this
-     *     class are used as values in <code>fileInfoMap</code>.
-     * </p>
-     * <p>
-     *     Objects of this class contain a name of the file
-     *     they are associated with (immutable), and when was
-     *     the corresponding file last modified (mutable).
-     * </p>
-     */
-    private static class FileInfo {
-        final String filename;
-        long lastModified;
-
-        private FileInfo(String filename) {
-            this.filename = filename;
-            lastModified = Long.MIN_VALUE;
-        }
+     * A corpus directory which has changed, and is
+     * rescanned once it stops changing.
+     */
+    private static class PendingCorpus {
+        final long firstChange;
+        long deadline;
 
-        @Override
-        public String toString() {
-            return "FileInfo{" +
-                    "filename='" + filename + '\'' +
-                    ", lastModified=" + lastModified +
-                    '}';
+        private PendingCorpus(long firstChange) {
+            this.firstChange = firstChange;
         }
     }
 }
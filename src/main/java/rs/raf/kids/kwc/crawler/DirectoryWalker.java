@@ -0,0 +1,197 @@
+package rs.raf.kids.kwc.crawler;
+
+import rs.raf.kids.kwc.cli.Logger;
+import rs.raf.kids.kwc.job.FileStat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ *   Walks directory trees in parallel, looking for corpus directories.
+ *   Every directory is listed by its own fork/join task, which forks a
+ *   task for each of its subdirectories, so idle workers steal whole
+ *   subtrees and a large tree is walked by all of them at once.
+ * </p>
+ * <p>
+ *   Directories are read through a <code>DirectoryStream</code>, so no
+ *   array of all entries is built, and attributes of every entry are read
+ *   once, with <code>BasicFileAttributes</code>, instead of a separate
+ *   call for its type, size and modification time.
+ * </p>
+ * <p>
+ *   Found directories are reported to a <code>Visitor</code> from worker
+ *   threads, so a visitor must be thread safe.
+ * </p>
+ */
+public class DirectoryWalker {
+
+    private final String corpusPrefix;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param corpusPrefix prefix of names of corpus directories
+     * @param parallelism number of threads walking the trees
+     */
+    public DirectoryWalker(String corpusPrefix, int parallelism) {
+        this.corpusPrefix = corpusPrefix;
+        pool = new ForkJoinPool(parallelism, pool -> {
+            var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("DirectoryWalker-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Walks trees under given directories, and returns once they
+     * have been walked. The directories themselves are never
+     * treated as corpus directories.
+     * @param roots directories to walk
+     * @param visitor visitor of found directories
+     */
+    public void walk(List<File> roots, Visitor visitor) {
+        List<RecursiveAction> tasks = new ArrayList<>();
+        for (File root : roots) {
+            tasks.add(new WalkTask(root.toPath(), visitor));
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    /**
+     * Lists regular files of a corpus directory, in the calling thread.
+     * @param corpus a corpus directory
+     * @return stats of all regular files in the directory
+     */
+    public List<FileStat> listFiles(File corpus) {
+        List<FileStat> files = new ArrayList<>();
+        forEachEntry(corpus.toPath(), (path, attributes) -> {
+            if (attributes.isRegularFile())
+                files.add(new FileStat(path.toFile(), attributes.size(), attributes.lastModifiedTime().toMillis()));
+        });
+        return files;
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private boolean isCorpus(Path directory) {
+        Path name = directory.getFileName();
+        return name != null && name.toString().startsWith(corpusPrefix);
+    }
+
+    /**
+     * Reads attributes of every entry of a directory. Entries which
+     * disappear while being read are skipped, and a directory which
+     * can't be read is treated as empty.
+     */
+    private static void forEachEntry(Path directory, EntryConsumer consumer) {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    continue;
+                }
+                consumer.accept(entry, attributes);
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            Logger.debugWarn("Can't list directory '" + directory + "': " + e.getMessage());
+        }
+    }
+
+    private interface EntryConsumer {
+        void accept(Path entry, BasicFileAttributes attributes);
+    }
+
+    /**
+     * Receives directories found by the walk.
+     */
+    public interface Visitor {
+
+        /**
+         * Called for every directory which is searched for corpus
+         * directories, including the roots.
+         * @param directory a directory which is not a corpus directory
+         */
+        void directoryFound(File directory);
+
+        /**
+         * Called for every corpus directory, once its files are listed.
+         * @param corpus a corpus directory
+         * @param files stats of all regular files in the corpus directory
+         */
+        void corpusFound(File corpus, List<FileStat> files);
+    }
+
+    /**
+     * Lists a single directory, forking a task for every subdirectory.
+     */
+    @SuppressWarnings("serial") // tasks are never serialized
+    private class WalkTask extends RecursiveAction {
+
+        private final Path directory;
+
+        private final Visitor visitor;
+
+        private WalkTask(Path directory, Visitor visitor) {
+            this.directory = directory;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected void compute() {
+            visitor.directoryFound(directory.toFile());
+            List<RecursiveAction> subtasks = new ArrayList<>();
+            forEachEntry(directory, (entry, attributes) -> {
+                if (!attributes.isDirectory())
+                    return;
+                RecursiveAction subtask = isCorpus(entry) ? new CorpusTask(entry, visitor) : new WalkTask(entry, visitor);
+                subtask.fork();
+                subtasks.add(subtask);
+            });
+            // join in reverse order, so tasks still in the local queue are run by this worker
+            for (int i = subtasks.size() - 1; i >= 0; i--) {
+                subtasks.get(i).join();
+            }
+        }
+    }
+
+    /**
+     * Lists files of a corpus directory.
+     */
+    @SuppressWarnings("serial") // tasks are never serialized
+    private class CorpusTask extends RecursiveAction {
+
+        private final Path corpus;
+
+        private final Visitor visitor;
+
+        private CorpusTask(Path corpus, Visitor visitor) {
+            this.corpus = corpus;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected void compute() {
+            File directory = corpus.toFile();
+            visitor.corpusFound(directory, listFiles(directory));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package rs.raf.kids.kwc.crawler;
+
+import rs.raf.kids.kwc.job.FileStat;
+import rs.raf.kids.kwc.job.FileTable;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ *   Sizes and modification times of files in corpus directories, which
+ *   tell the crawler whether a corpus has changed since it was last seen.
+ * </p>
+ * <p>
+ *   Every directory path is stored once, and its files are kept in a
+ *   <code>FileTable</code>, keyed by a fingerprint of the file name, which
+ *   takes about 33 to 66 bytes per file, instead of several hundred for a
+ *   map entry with the full path and an object per file.
+ * </p>
+ * <p>
+ *   A file which was not listed when its directory was checked has been
+ *   deleted, so its entry is removed and the directory counts as changed.
+ * </p>
+ */
+public class FileStateTable {
+
+    private final Map<String, FileTable<Void>> directories;
+
+    public FileStateTable() {
+        directories = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Records current state of all files of a directory.
+     * @param directory a corpus directory
+     * @param files stats of all regular files currently in the directory
+     * @return <code>true</code> if any file was added, modified or deleted
+     * since the directory was last updated
+     */
+    public boolean update(File directory, List<FileStat> files) {
+        FileTable<Void> table = directories.computeIfAbsent(directory.getPath(), path -> new FileTable<>());
+        synchronized (table) {
+            boolean changed = false;
+            for (FileStat file : files) {
+                changed |= table.put(FileTable.fingerprint(file.file().getName()), file.length(), file.lastModified());
+            }
+            changed |= table.removeUnseen(null) > 0;
+            return changed;
+        }
+    }
+
+    /**
+     * @return number of tracked files
+     */
+    public long size() {
+        long size = 0;
+        for (FileTable<Void> table : directories.values()) {
+            synchronized (table) {
+                size += table.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return approximate memory taken by file entries, in bytes
+     */
+    public long memoryUsage() {
+        long bytes = 0;
+        for (Map.Entry<String, FileTable<Void>> entry : directories.entrySet()) {
+            synchronized (entry.getValue()) {
+                bytes += entry.getValue().memoryUsage() + 2L * entry.getKey().length();
+            }
+        }
+        return bytes;
+    }
+}
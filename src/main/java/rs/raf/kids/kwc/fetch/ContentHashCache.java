@@ -0,0 +1,201 @@
+package rs.raf.kids.kwc.fetch;
+
+import rs.raf.kids.kwc.result.KeywordCounts;
+import rs.raf.kids.kwc.util.Murmur3;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ *   A bounded cache of keyword counts of web pages by a 128-bit Murmur3
+ *   hash of their bodies. Mirrors, URLs which only differ in tracking
+ *   parameters and similar copies of a page all have the same body, so
+ *   it's enough to parse and scan it once, and reuse its counts for every
+ *   other URL it's found under.
+ * </p>
+ * <p>
+ *   Together with counts, the cache remembers the greatest depth links of
+ *   the body were followed from, so they are not extracted again for a copy
+ *   found at the same or lower depth. Least recently used bodies are evicted
+ *   once the cache is full.
+ * </p>
+ * <p>
+ *   A body which is not held in memory as a whole can be hashed while it's
+ *   read, through a <code>HashingInputStream</code>, which gives the same
+ *   hash as the whole body would.
+ * </p>
+ */
+public class ContentHashCache {
+
+    private final int capacity;
+
+    private final Map<ContentHash, Entry> entries;
+
+    private final AtomicLong lookups;
+
+    private final AtomicLong hits;
+
+    /**
+     * @param capacity maximum number of cached bodies
+     */
+    public ContentHashCache(int capacity) {
+        this.capacity = capacity;
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ContentHash, ContentHashCache.Entry> eldest) {
+                return size() > ContentHashCache.this.capacity;
+            }
+        };
+        lookups = new AtomicLong();
+        hits = new AtomicLong();
+    }
+
+    /**
+     * @param body body of a page
+     * @return hash of the body
+     */
+    public static ContentHash hash(byte[] body) {
+        long[] hash = Murmur3.hash128(body, 0, body.length, 0);
+        return new ContentHash(hash[0], hash[1]);
+    }
+
+    /**
+     * Wraps a body stream, so the body is hashed while it's read.
+     * @param body stream of a body
+     * @return stream which hashes all bytes read through it
+     */
+    public static HashingInputStream hashing(InputStream body) {
+        return new HashingInputStream(body);
+    }
+
+    /**
+     * Looks up a body, counting the lookup as a hit or a miss.
+     * @param hash hash of the body
+     * @return cached body, or <code>null</code> if it was not seen
+     */
+    public Entry get(ContentHash hash) {
+        lookups.incrementAndGet();
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(hash);
+        }
+        if (entry != null)
+            hits.incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * Caches counts of a body. If the body is already cached, the greater
+     * of the two depths its links were followed from is kept.
+     * @param hash hash of the body
+     * @param counts keyword counts of the body
+     * @param linkDepth depth links of the body were followed from,
+     *                  <code>0</code> if they were not
+     */
+    public synchronized void put(ContentHash hash, KeywordCounts counts, int linkDepth) {
+        Entry previous = entries.get(hash);
+        int depth = previous != null ? Math.max(previous.linkDepth, linkDepth) : linkDepth;
+        entries.put(hash, new Entry(counts.copy(), depth));
+    }
+
+    /**
+     * @return number of cached bodies
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return ratio of lookups which found the body, <code>0</code> if
+     * there were none
+     */
+    public double getHitRatio() {
+        long total = lookups.get();
+        return total > 0 ? (double) hits.get() / total : 0;
+    }
+
+    /**
+     * A body stream which hashes the body while it's read. Bytes which
+     * are skipped are read and hashed as well.
+     */
+    public static class HashingInputStream extends FilterInputStream {
+
+        private final Murmur3.Hasher hasher;
+
+        private final byte[] single;
+
+        private HashingInputStream(InputStream body) {
+            super(body);
+            hasher = new Murmur3.Hasher(0);
+            single = new byte[1];
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                single[0] = (byte) b;
+                hasher.update(single, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count > 0)
+                hasher.update(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            long skipped = 0;
+            int count;
+            while (skipped < n && (count = read(buffer, 0, (int) Math.min(buffer.length, n - skipped))) > 0) {
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Finishes the hash, once the whole body has been read.
+         * @return hash of all bytes read
+         */
+        public ContentHash hash() {
+            long[] hash = hasher.finish();
+            return new ContentHash(hash[0], hash[1]);
+        }
+    }
+
+    /**
+     * 128-bit hash of a page body.
+     */
+    public record ContentHash(long high, long low) {}
+
+    /**
+     * Cached counts of a body, which must not be modified.
+     * @param counts keyword counts of the body
+     * @param linkDepth greatest depth links of the body were followed from
+     */
+    public record Entry(KeywordCounts counts, int linkDepth) {}
+}
@@ -0,0 +1,30 @@
+package rs.raf.kids.kwc.fetch;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A response to a page request, with its body already decompressed.
+ * @param url final URL of the page, after any redirects
+ * @param statusCode HTTP status code of the response
+ * @param headers response headers, with lower case names
+ * @param body decoded bytes of the response body
+ */
+public record FetchedPage(String url, int statusCode, Map<String, List<String>> headers, byte[] body)
+        implements PageResponse {
+
+    /**
+     * Parses the body as a HTML document. If the response has no charset,
+     * Jsoup detects it from the document itself, falling back to UTF-8.
+     * @return parsed document, with relative links resolved against page URL
+     * @throws IOException if the body can't be decoded
+     */
+    public Document parse() throws IOException {
+        return Jsoup.parse(new ByteArrayInputStream(body), charset(), url);
+    }
+}
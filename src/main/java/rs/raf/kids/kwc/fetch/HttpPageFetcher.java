@@ -0,0 +1,257 @@
+package rs.raf.kids.kwc.fetch;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * <p>
+ *   A <code>PageFetcher</code> built on a single shared <code>HttpClient</code>.
+ *   The client keeps connections alive between requests and multiplexes
+ *   requests to the same host over one HTTP/2 connection where the server
+ *   supports it, falling back to HTTP/1.1 otherwise.
+ * </p>
+ * <p>
+ *   Requests ask for compressed bodies, which are decompressed before the
+ *   page is returned. Both connecting and whole responses, body included,
+ *   are bounded by timeouts, so a stalled or trickling server can't hold
+ *   a scanning thread forever.
+ * </p>
+ */
+public class HttpPageFetcher implements PageFetcher {
+
+    private static final String USER_AGENT = "Mozilla/5.0 (compatible; KeywordCounter/1.0)";
+
+    private static final String ACCEPT = "text/html,application/xhtml+xml;q=0.9,*/*;q=0.8";
+
+    /**
+     * Closes bodies of opened pages which are not read before their deadline.
+     */
+    private static final ScheduledThreadPoolExecutor DEADLINES = newDeadlineTimer();
+
+    private final HttpClient client;
+
+    private final Duration requestTimeout;
+
+    /**
+     * @param connectTimeout maximum time to establish a connection, in milliseconds
+     * @param requestTimeout maximum time to receive a whole response, in milliseconds
+     */
+    public HttpPageFetcher(long connectTimeout, long requestTimeout) {
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofMillis(connectTimeout))
+                .build();
+        this.requestTimeout = Duration.ofMillis(requestTimeout);
+    }
+
+    @Override
+    public CompletableFuture<FetchedPage> fetchAsync(String url, Map<String, String> headers) {
+        HttpRequest request;
+        try {
+            request = newRequest(url, headers);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<HttpResponse<byte[]>> exchange =
+                client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+        // timeout of the request only bounds the wait for headers,
+        // so the body is bounded by the same deadline here
+        return exchange.thenApply(HttpPageFetcher::toPage)
+                .orTimeout(requestTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .exceptionally(e -> {
+                    if (!(e instanceof TimeoutException))
+                        throw e instanceof CompletionException completion ? completion : new CompletionException(e);
+                    exchange.cancel(true);
+                    throw new CompletionException(new HttpTimeoutException(timeoutMessage(url)));
+                });
+    }
+
+    /**
+     * Opens a page whose body is read from the connection as it arrives,
+     * and decompressed on the fly. The whole response has to be read
+     * within the request timeout, after which the body is closed and
+     * reading it fails with <code>HttpTimeoutException</code>.
+     */
+    @Override
+    public PageStream open(String url, Map<String, String> headers) throws IOException {
+        long deadline = System.nanoTime() + requestTimeout.toNanos();
+        HttpResponse<InputStream> response;
+        try {
+            response = client.send(newRequest(url, headers), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching " + url, e);
+        }
+        InputStream body = new DeadlineInputStream(response.body(), deadline - System.nanoTime(), timeoutMessage(url));
+        try {
+            body = decode(body, encodingOf(response));
+        } catch (IOException e) {
+            body.close();
+            throw e;
+        }
+        return new PageStream(response.uri().toString(), response.statusCode(), headersOf(response), body);
+    }
+
+    private HttpRequest newRequest(String url, Map<String, String> headers) throws IOException {
+        try {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(requestTimeout)
+                    .header("User-Agent", USER_AGENT)
+                    .header("Accept", ACCEPT)
+                    .header("Accept-Encoding", "gzip, deflate")
+                    .GET();
+            headers.forEach(builder::header);
+            return builder.build();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid URL: " + url, e);
+        }
+    }
+
+    private String timeoutMessage(String url) {
+        return "No complete response from " + url + " within " + requestTimeout.toMillis() + " ms";
+    }
+
+    private static FetchedPage toPage(HttpResponse<byte[]> response) {
+        try {
+            byte[] body = decode(response.body(), encodingOf(response));
+            return new FetchedPage(response.uri().toString(), response.statusCode(), headersOf(response), body);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static Map<String, List<String>> headersOf(HttpResponse<?> response) {
+        Map<String, List<String>> headers = new HashMap<>();
+        response.headers().map().forEach((name, values) -> headers.put(name.toLowerCase(Locale.ROOT), values));
+        return headers;
+    }
+
+    private static String encodingOf(HttpResponse<?> response) {
+        return response.headers().firstValue("content-encoding").orElse("identity").trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Decompresses a response body.
+     * @param body raw body as received
+     * @param encoding value of <code>Content-Encoding</code> header, in lower case
+     * @return decompressed body
+     * @throws IOException if the body is not valid for its encoding
+     */
+    private static byte[] decode(byte[] body, String encoding) throws IOException {
+        if (body.length == 0)
+            return body;
+        return switch (encoding) {
+            case "gzip", "x-gzip" -> readAll(new GZIPInputStream(new ByteArrayInputStream(body)));
+            case "deflate" -> readAll(new InflaterInputStream(new ByteArrayInputStream(body)));
+            default -> body;
+        };
+    }
+
+    /**
+     * Wraps a response body stream, so it's decompressed while it's read.
+     * @param body raw body stream
+     * @param encoding value of <code>Content-Encoding</code> header, in lower case
+     * @return decompressing stream
+     * @throws IOException if the body doesn't start with a valid header
+     */
+    private static InputStream decode(InputStream body, String encoding) throws IOException {
+        return switch (encoding) {
+            case "gzip", "x-gzip" -> new GZIPInputStream(body);
+            case "deflate" -> new InflaterInputStream(body);
+            default -> body;
+        };
+    }
+
+    private static byte[] readAll(InputStream stream) throws IOException {
+        try (stream) {
+            return stream.readAllBytes();
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor newDeadlineTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "PageDeadlineThread");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    /**
+     * A response body which is closed once its deadline passes. Closing
+     * it also wakes up a read which waits on a stalled server, and every
+     * read from then on fails with <code>HttpTimeoutException</code>.
+     */
+    private static class DeadlineInputStream extends FilterInputStream {
+
+        private final String timeoutMessage;
+
+        private final ScheduledFuture<?> expiry;
+
+        private volatile boolean expired;
+
+        /**
+         * @param body raw response body
+         * @param timeout time left to read the body, in nanoseconds
+         * @param timeoutMessage message of the exception thrown once it's expired
+         */
+        private DeadlineInputStream(InputStream body, long timeout, String timeoutMessage) {
+            super(body);
+            this.timeoutMessage = timeoutMessage;
+            expiry = DEADLINES.schedule(this::expire, timeout, TimeUnit.NANOSECONDS);
+        }
+
+        private void expire() {
+            expired = true;
+            try {
+                in.close();
+            } catch (IOException ignored) {}
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                throw expired ? new HttpTimeoutException(timeoutMessage) : e;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                throw expired ? new HttpTimeoutException(timeoutMessage) : e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            expiry.cancel(false);
+            super.close();
+        }
+    }
+}
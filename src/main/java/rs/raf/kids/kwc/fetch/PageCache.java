@@ -0,0 +1,294 @@
+package rs.raf.kids.kwc.fetch;
+
+import rs.raf.kids.kwc.cli.Logger;
+import rs.raf.kids.kwc.result.KeywordCounts;
+import rs.raf.kids.kwc.util.Murmur3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ *   A cache of scanned web pages on local disk, used to revalidate pages
+ *   with conditional requests. For every page which was served with an
+ *   <code>ETag</code> or <code>Last-Modified</code> header, the cache keeps
+ *   those validators, the keyword counts of the page and the links found in
+ *   it. When the page is scanned again, the validators are sent back in
+ *   <code>If-None-Match</code> and <code>If-Modified-Since</code> headers, and
+ *   if the server answers with <code>304 Not Modified</code>, cached counts
+ *   and links are used without downloading or parsing the page.
+ * </p>
+ * <p>
+ *   Every page is kept in its own file, named by a hash of its URL. Total
+ *   size of the files is bounded, and least recently used pages are evicted
+ *   first. Counts are stored by keyword, together with a fingerprint of the
+ *   keyword set, so pages cached with different keywords are ignored.
+ * </p>
+ */
+public class PageCache {
+
+    private static final int MAGIC = 0x6b776370;
+
+    private static final int VERSION = 1;
+
+    private static final String SUFFIX = ".page";
+
+    /**
+     * Longer links are not cached, since they don't fit a modified UTF-8 string.
+     */
+    private static final int MAX_LINK_LENGTH = 16384;
+
+    private final File directory;
+
+    private final long maxSize;
+
+    private final List<String> keywords;
+
+    private final Map<String, Integer> ordinals;
+
+    private final long keywordsFingerprint;
+
+    /**
+     * Sizes of cached files by their names, in least recently used order.
+     */
+    private final LinkedHashMap<String, Long> index;
+
+    private long size;
+
+    /**
+     * Creates a cache in a directory, indexing pages already cached there.
+     * @param directory directory to keep cached pages in
+     * @param maxSize maximum total size of cached pages in bytes
+     * @param keywords keywords that counts are kept for, in ordinal order
+     * @throws IOException if the directory can't be created
+     */
+    public PageCache(File directory, long maxSize, List<String> keywords) throws IOException {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.keywords = keywords;
+        ordinals = new HashMap<>();
+        for (int i = 0; i < keywords.size(); i++) {
+            ordinals.put(keywords.get(i), i);
+        }
+        keywordsFingerprint = fingerprintOf(keywords);
+        index = new LinkedHashMap<>(16, 0.75f, true);
+        Files.createDirectories(directory.toPath());
+        loadIndex();
+    }
+
+    private static long fingerprintOf(List<String> keywords) {
+        List<String> sorted = new ArrayList<>(keywords);
+        sorted.sort(Comparator.naturalOrder());
+        byte[] bytes = String.join("\n", sorted).getBytes(StandardCharsets.UTF_8);
+        return Murmur3.hash128(bytes, 0, bytes.length, 0)[0];
+    }
+
+    /**
+     * Indexes files already in the directory, treating the most
+     * recently modified ones as the most recently used.
+     */
+    private void loadIndex() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null)
+            return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        synchronized (this) {
+            for (File file : files) {
+                index.put(file.getName(), file.length());
+                size += file.length();
+            }
+            evict();
+        }
+    }
+
+    /**
+     * Looks up a cached page.
+     * @param url an URL of the page
+     * @return cached page, or <code>null</code> if the page is not cached
+     * or was cached with different keywords
+     */
+    public Entry get(String url) {
+        String name = fileNameOf(url);
+        synchronized (this) {
+            if (index.get(name) == null)
+                return null;
+        }
+        File file = new File(directory, name);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            Entry entry = read(in);
+            if (entry == null || !entry.url.equals(url))
+                return null;
+            file.setLastModified(System.currentTimeMillis());
+            return entry;
+        } catch (IOException e) {
+            Logger.debugWarn("Dropping unreadable cached page " + url + ": " + e.getMessage());
+            remove(name);
+            return null;
+        }
+    }
+
+    /**
+     * Caches a page, replacing any previous version of it. Pages without
+     * validators are not cached, since they can't be revalidated.
+     * @param url an URL of the page
+     * @param response response the page was received with
+     * @param counts keyword counts of the page
+     * @param links links found in the page, or <code>null</code> if they
+     *              were not collected
+     */
+    public void put(String url, PageResponse response, KeywordCounts counts, List<String> links) {
+        String etag = response.header("etag");
+        String lastModified = response.header("last-modified");
+        if (etag == null && lastModified == null)
+            return;
+
+        String name = fileNameOf(url);
+        File file = new File(directory, name);
+        File temporary = new File(directory, name + ".tmp" + Thread.currentThread().getId());
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                write(out, new Entry(url, etag, lastModified, counts, links));
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Logger.debugWarn("Failed to cache page " + url + ": " + e.getMessage());
+            temporary.delete();
+            return;
+        }
+        synchronized (this) {
+            Long previous = index.put(name, file.length());
+            size += file.length() - (previous != null ? previous : 0);
+            evict();
+        }
+    }
+
+    /**
+     * @return total size of cached pages in bytes
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    private synchronized void remove(String name) {
+        Long removed = index.remove(name);
+        if (removed != null) {
+            size -= removed;
+            new File(directory, name).delete();
+        }
+    }
+
+    /**
+     * Deletes least recently used pages until the cache fits its size.
+     * Must be called while holding the lock.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            size -= eldest.getValue();
+            new File(directory, eldest.getKey()).delete();
+            iterator.remove();
+        }
+    }
+
+    private static String fileNameOf(String url) {
+        byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+        long[] hash = Murmur3.hash128(bytes, 0, bytes.length, 0);
+        return "%016x%016x%s".formatted(hash[0], hash[1], SUFFIX);
+    }
+
+    private void write(DataOutputStream out, Entry entry) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(keywordsFingerprint);
+        out.writeUTF(entry.url);
+        out.writeUTF(entry.etag != null ? entry.etag : "");
+        out.writeUTF(entry.lastModified != null ? entry.lastModified : "");
+
+        List<Integer> nonZero = new ArrayList<>();
+        entry.counts.forEachNonZero((ordinal, count) -> nonZero.add(ordinal));
+        out.writeInt(nonZero.size());
+        for (int ordinal : nonZero) {
+            out.writeUTF(keywords.get(ordinal));
+            out.writeLong(entry.counts.get(ordinal));
+        }
+
+        out.writeBoolean(entry.links != null);
+        if (entry.links != null) {
+            List<String> links = entry.links.stream().filter(link -> link.length() <= MAX_LINK_LENGTH).toList();
+            out.writeInt(links.size());
+            for (String link : links) {
+                out.writeUTF(link);
+            }
+        }
+    }
+
+    private Entry read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != keywordsFingerprint)
+            return null;
+        String url = in.readUTF();
+        String etag = in.readUTF();
+        String lastModified = in.readUTF();
+
+        KeywordCounts counts = KeywordCounts.create(keywords.size());
+        for (int i = in.readInt(); i > 0; i--) {
+            Integer ordinal = ordinals.get(in.readUTF());
+            long count = in.readLong();
+            if (ordinal == null)
+                return null;
+            counts.add(ordinal, count);
+        }
+
+        List<String> links = null;
+        if (in.readBoolean()) {
+            int linkCount = in.readInt();
+            links = new ArrayList<>(linkCount);
+            for (int i = 0; i < linkCount; i++) {
+                links.add(in.readUTF());
+            }
+        }
+        return new Entry(url, etag.isEmpty() ? null : etag, lastModified.isEmpty() ? null : lastModified,
+                counts, links);
+    }
+
+    /**
+     * A cached page.
+     * @param url an URL of the page
+     * @param etag value of <code>ETag</code> header, or <code>null</code>
+     * @param lastModified value of <code>Last-Modified</code> header, or <code>null</code>
+     * @param counts keyword counts of the page
+     * @param links links found in the page, or <code>null</code> if they were not collected
+     */
+    public record Entry(String url, String etag, String lastModified, KeywordCounts counts, List<String> links) {
+
+        /**
+         * @return headers which ask the server to send the page
+         * only if it has changed since it was cached
+         */
+        public Map<String, String> validators() {
+            Map<String, String> headers = new HashMap<>();
+            if (etag != null)
+                headers.put("If-None-Match", etag);
+            if (lastModified != null)
+                headers.put("If-Modified-Since", lastModified);
+            return headers;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package rs.raf.kids.kwc.fetch;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Fetches web pages. Implementations are shared by all web scanning
+ * tasks, so they are expected to be thread safe and to reuse
+ * connections between requests.
+ */
+public interface PageFetcher {
+
+    /**
+     * Starts fetching a page, without blocking the calling thread.
+     * @param url an URL of the page
+     * @param headers additional request headers, such as conditional ones
+     * @return a future which completes with fetched page, or exceptionally
+     * with an <code>IOException</code> if the page couldn't be fetched
+     */
+    CompletableFuture<FetchedPage> fetchAsync(String url, Map<String, String> headers);
+
+    /**
+     * Starts fetching a page, without blocking the calling thread.
+     * @param url an URL of the page
+     * @return a future which completes with fetched page, or exceptionally
+     * with an <code>IOException</code> if the page couldn't be fetched
+     */
+    default CompletableFuture<FetchedPage> fetchAsync(String url) {
+        return fetchAsync(url, Map.of());
+    }
+
+    /**
+     * Fetches a page and waits for it.
+     * @param url an URL of the page
+     * @return fetched page, which may have an unsuccessful status
+     * @throws IOException if the page couldn't be fetched
+     */
+    default FetchedPage fetch(String url) throws IOException {
+        return fetch(url, Map.of());
+    }
+
+    /**
+     * Fetches a page and waits for it.
+     * @param url an URL of the page
+     * @param headers additional request headers, such as conditional ones
+     * @return fetched page, which may have an unsuccessful status
+     * @throws IOException if the page couldn't be fetched
+     */
+    default FetchedPage fetch(String url, Map<String, String> headers) throws IOException {
+        try {
+            return fetchAsync(url, headers).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching " + url, e);
+        } catch (ExecutionException | CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException)
+                throw ioException;
+            throw new IOException(cause != null ? cause.getMessage() : e.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Opens a page, so its body can be read as it arrives.
+     * @param url an URL of the page
+     * @return stream of the page, which may have an unsuccessful status
+     * @throws IOException if the page couldn't be fetched
+     */
+    default PageStream open(String url) throws IOException {
+        return open(url, Map.of());
+    }
+
+    /**
+     * Opens a page, so its body can be read as it arrives. By default,
+     * the whole page is fetched first, and then streamed from memory.
+     * @param url an URL of the page
+     * @param headers additional request headers, such as conditional ones
+     * @return stream of the page, which may have an unsuccessful status
+     * @throws IOException if the page couldn't be fetched
+     */
+    default PageStream open(String url, Map<String, String> headers) throws IOException {
+        return PageStream.of(fetch(url, headers));
+    }
+}
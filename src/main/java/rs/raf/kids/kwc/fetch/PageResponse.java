@@ -0,0 +1,104 @@
+package rs.raf.kids.kwc.fetch;
+
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Status and headers of a response to a page request, common to
+ * buffered and streamed pages.
+ */
+public interface PageResponse {
+
+    /**
+     * @return final URL of the page, after any redirects
+     */
+    String url();
+
+    /**
+     * @return HTTP status code of the response
+     */
+    int statusCode();
+
+    /**
+     * @return response headers, with lower case names
+     */
+    Map<String, List<String>> headers();
+
+    /**
+     * @return <code>true</code> if status code is <code>2xx</code>
+     */
+    default boolean isSuccessful() {
+        return statusCode() >= 200 && statusCode() < 300;
+    }
+
+    /**
+     * @return <code>true</code> if status code is <code>304 Not Modified</code>,
+     * an answer to a conditional request
+     */
+    default boolean isNotModified() {
+        return statusCode() == 304;
+    }
+
+    /**
+     * Returns the first value of a header.
+     * @param name header name, in any case
+     * @return header value, or <code>null</code> if there is no such header
+     */
+    default String header(String name) {
+        List<String> values = headers().get(name.toLowerCase(Locale.ROOT));
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * @return media type of the body without parameters,
+     * or <code>null</code> if it's unknown
+     */
+    default String mediaType() {
+        String contentType = header("content-type");
+        if (contentType == null)
+            return null;
+        int end = contentType.indexOf(';');
+        return (end < 0 ? contentType : contentType.substring(0, end)).trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Tells whether the body can be parsed as a HTML document. A body
+     * of unknown type is assumed to be HTML, same as browsers do.
+     * @return <code>true</code> for HTML, XHTML and unknown bodies
+     */
+    default boolean isHtml() {
+        String mediaType = mediaType();
+        return mediaType == null || mediaType.equals("text/html") || mediaType.equals("application/xhtml+xml");
+    }
+
+    /**
+     * @return charset given in <code>Content-Type</code> header,
+     * or <code>null</code> if there is none, or it's not supported
+     */
+    default String charset() {
+        String contentType = header("content-type");
+        if (contentType == null)
+            return null;
+        for (String parameter : contentType.split(";")) {
+            String[] pair = parameter.trim().split("=", 2);
+            if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("charset"))
+                return supportedOrNull(pair[1].trim().replace("\"", ""));
+        }
+        return null;
+    }
+
+    /**
+     * @param charset name of a charset
+     * @return given name if the charset is supported, otherwise <code>null</code>
+     */
+    static String supportedOrNull(String charset) {
+        try {
+            return Charset.isSupported(charset) ? charset : null;
+        } catch (IllegalCharsetNameException e) {
+            return null;
+        }
+    }
+}
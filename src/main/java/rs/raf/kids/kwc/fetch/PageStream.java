@@ -0,0 +1,122 @@
+package rs.raf.kids.kwc.fetch;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A response to a page request whose body is read as it arrives,
+ * already decompressed. The stream must be closed once it's read,
+ * so its connection can be reused.
+ */
+public class PageStream implements PageResponse, Closeable {
+
+    /**
+     * Number of bytes at the start of a body searched for a
+     * <code>meta</code> charset declaration.
+     */
+    private static final int SNIFF_LENGTH = 1024;
+
+    private static final Pattern META_CHARSET = Pattern.compile("<meta[^>]*charset\\s*=\\s*[\"']?([\\w.:-]+)",
+            Pattern.CASE_INSENSITIVE);
+
+    private final String url;
+
+    private final int statusCode;
+
+    private final Map<String, List<String>> headers;
+
+    private final InputStream body;
+
+    /**
+     * @param url final URL of the page, after any redirects
+     * @param statusCode HTTP status code of the response
+     * @param headers response headers, with lower case names
+     * @param body decompressed response body
+     */
+    public PageStream(String url, int statusCode, Map<String, List<String>> headers, InputStream body) {
+        this.url = url;
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    /**
+     * Creates a stream over an already fetched page.
+     * @param page fetched page
+     * @return stream over the body of the page
+     */
+    public static PageStream of(FetchedPage page) {
+        return new PageStream(page.url(), page.statusCode(), page.headers(), new ByteArrayInputStream(page.body()));
+    }
+
+    /**
+     * Creates a stream over the same response, whose body is read through
+     * another stream, such as one which hashes it. Only one of the two
+     * should be read, and this one closed.
+     * @param body stream which reads the body of this response
+     * @return stream with the same status and headers
+     */
+    public PageStream withBody(InputStream body) {
+        return new PageStream(url, statusCode, headers, body);
+    }
+
+    @Override
+    public String url() {
+        return url;
+    }
+
+    @Override
+    public int statusCode() {
+        return statusCode;
+    }
+
+    @Override
+    public Map<String, List<String>> headers() {
+        return headers;
+    }
+
+    /**
+     * @return the body as raw bytes
+     */
+    public InputStream body() {
+        return body;
+    }
+
+    /**
+     * Returns the body as characters. Charset is taken from the
+     * <code>Content-Type</code> header, or a <code>meta</code> tag at the
+     * start of the body, falling back to UTF-8. Should be called at most once.
+     * @return reader over the body
+     * @throws IOException if the start of the body can't be read
+     */
+    public Reader reader() throws IOException {
+        BufferedInputStream stream = new BufferedInputStream(body);
+        String charset = charset();
+        if (charset == null)
+            charset = sniffCharset(stream);
+        return new InputStreamReader(stream, charset != null ? charset : StandardCharsets.UTF_8.name());
+    }
+
+    private static String sniffCharset(BufferedInputStream stream) throws IOException {
+        stream.mark(SNIFF_LENGTH);
+        byte[] start = stream.readNBytes(SNIFF_LENGTH);
+        stream.reset();
+        Matcher matcher = META_CHARSET.matcher(new String(start, StandardCharsets.ISO_8859_1));
+        return matcher.find() ? PageResponse.supportedOrNull(matcher.group(1)) : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        body.close();
+    }
+}
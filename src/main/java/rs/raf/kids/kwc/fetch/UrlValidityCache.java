@@ -0,0 +1,118 @@
+package rs.raf.kids.kwc.fetch;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ *   Remembers which URLs could be fetched, for a limited time. The cache is
+ *   filled by fetching itself: a <code>PageFetcher</code> wrapped with
+ *   {@link #track(PageFetcher)} records the outcome of every request, so
+ *   link discovery can skip known broken URLs without any network I/O.
+ * </p>
+ * <p>
+ *   A URL is valid if it was fetched with a <code>2xx</code> status, after
+ *   following redirects, or found not modified since it was cached. Entries expire after a given time to live, after
+ *   which the URL is unknown again and will be fetched once more.
+ * </p>
+ */
+public class UrlValidityCache {
+
+    /**
+     * Size above which expired entries are removed on every
+     * <code>PRUNE_INTERVAL</code> recorded URLs.
+     */
+    private static final int PRUNE_THRESHOLD = 10_000;
+
+    private static final int PRUNE_INTERVAL = 1_000;
+
+    private final long timeToLive;
+
+    private final Map<String, Validity> validities;
+
+    private int recordsSincePrune;
+
+    /**
+     * @param timeToLive time in milliseconds for which validity of an URL is known
+     */
+    public UrlValidityCache(long timeToLive) {
+        this.timeToLive = timeToLive;
+        validities = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Wraps a fetcher, so the outcome of every fetch it makes is recorded
+     * in this cache.
+     * @param fetcher fetcher to wrap
+     * @return a fetcher which fetches through given one
+     */
+    public PageFetcher track(PageFetcher fetcher) {
+        return new PageFetcher() {
+            @Override
+            public CompletableFuture<FetchedPage> fetchAsync(String url, Map<String, String> headers) {
+                return fetcher.fetchAsync(url, headers)
+                        .whenComplete((page, error) -> record(url, error == null && isValid(page)));
+            }
+
+            @Override
+            public PageStream open(String url, Map<String, String> headers) throws IOException {
+                try {
+                    PageStream page = fetcher.open(url, headers);
+                    record(url, isValid(page));
+                    return page;
+                } catch (IOException e) {
+                    record(url, false);
+                    throw e;
+                }
+            }
+        };
+    }
+
+    private static boolean isValid(PageResponse page) {
+        return page.isSuccessful() || page.isNotModified();
+    }
+
+    /**
+     * Records whether an URL could be fetched.
+     * @param url an URL that was fetched
+     * @param valid <code>true</code> if it was fetched successfully
+     */
+    public void record(String url, boolean valid) {
+        validities.put(url, new Validity(valid, System.currentTimeMillis() + timeToLive));
+        if (validities.size() > PRUNE_THRESHOLD && shouldPrune())
+            pruneExpired();
+    }
+
+    /**
+     * Tells whether an URL recently failed to be fetched.
+     * @param url an URL to check
+     * @return <code>true</code> only if the last fetch of the URL failed
+     * and that outcome hasn't expired yet
+     */
+    public boolean isKnownInvalid(String url) {
+        Validity validity = validities.get(url);
+        if (validity == null)
+            return false;
+        if (validity.expiresAt <= System.currentTimeMillis()) {
+            validities.remove(url, validity);
+            return false;
+        }
+        return !validity.valid;
+    }
+
+    private synchronized boolean shouldPrune() {
+        if (++recordsSincePrune < PRUNE_INTERVAL)
+            return false;
+        recordsSincePrune = 0;
+        return true;
+    }
+
+    private void pruneExpired() {
+        long now = System.currentTimeMillis();
+        validities.values().removeIf(validity -> validity.expiresAt <= now);
+    }
+
+    private record Validity(boolean valid, long expiresAt) {}
+}
@@ -0,0 +1,245 @@
+package rs.raf.kids.kwc.job;
+
+import rs.raf.kids.kwc.cli.Logger;
+import rs.raf.kids.kwc.result.KeywordCounts;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ *   Keyword counts of every scanned file, kept in memory so a corpus can
+ *   be rescanned incrementally. Files of a corpus are kept in a
+ *   <code>FileTable</code>, keyed by a fingerprint of their name, and a file
+ *   whose size and modification time haven't changed since it was scanned
+ *   is not scanned again.
+ * </p>
+ * <p>
+ *   Every corpus also keeps its total, which is adjusted by the difference
+ *   between old and new counts of changed files, so rescanning a corpus
+ *   costs as much as reading the files that changed, plus listing it.
+ * </p>
+ * <p>
+ *   With a <code>FileCountIndex</code>, every change is also appended to
+ *   the index, and the cache is restored from it when it's first used, so
+ *   after a restart files are only scanned again if they have changed.
+ * </p>
+ */
+public class FileCountCache {
+
+    private final Map<String, Corpus> corpora;
+
+    /**
+     * Index the cache is persisted in, <code>null</code> if it's not.
+     */
+    private final FileCountIndex index;
+
+    private volatile boolean loaded;
+
+    public FileCountCache() {
+        this(null);
+    }
+
+    /**
+     * @param index index to restore the cache from and persist it in,
+     *              or <code>null</code> to keep it in memory only
+     */
+    public FileCountCache(FileCountIndex index) {
+        this.index = index;
+        corpora = new ConcurrentHashMap<>();
+        loaded = index == null;
+    }
+
+    /**
+     * @param corpusDirectory a corpus directory
+     * @return cached state of the corpus, which is empty if
+     * it was never scanned
+     */
+    public Corpus corpus(File corpusDirectory) {
+        ensureLoaded();
+        return corpora.computeIfAbsent(keyOf(corpusDirectory), Corpus::new);
+    }
+
+    /**
+     * Tells whether a corpus has to be scanned, because any of its files
+     * were added, changed or deleted since it was last scanned.
+     * @param corpusDirectory a corpus directory
+     * @param files stats of all files currently in the corpus
+     * @return <code>true</code> if the corpus has to be scanned
+     */
+    public boolean hasChanges(File corpusDirectory, List<FileStat> files) {
+        ensureLoaded();
+        Corpus corpus = corpora.get(keyOf(corpusDirectory));
+        if (corpus == null)
+            return true;
+        synchronized (corpus) {
+            // if no file is new, the same number of files means none was deleted
+            if (corpus.files.size() != files.size())
+                return true;
+            for (FileStat file : files) {
+                if (corpus.isStale(file.file(), file.length(), file.lastModified()))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @return a copy of counts of every cached corpus, by its directory
+     */
+    public Map<File, KeywordCounts> totals() {
+        ensureLoaded();
+        Map<File, KeywordCounts> totals = new HashMap<>();
+        corpora.forEach((path, corpus) -> {
+            synchronized (corpus) {
+                totals.put(new File(path), corpus.total());
+            }
+        });
+        return totals;
+    }
+
+    /**
+     * Flushes and closes the index, if the cache is persisted.
+     */
+    public void close() {
+        if (index != null)
+            index.close();
+    }
+
+    /**
+     * Restores the cache from the index on first use. If the index can't
+     * be read, the cache starts empty.
+     */
+    private void ensureLoaded() {
+        if (loaded)
+            return;
+        synchronized (this) {
+            if (loaded)
+                return;
+            try {
+                long start = System.currentTimeMillis();
+                index.load(new FileCountIndex.Replay() {
+                    @Override
+                    public void put(String corpus, long name, long length, long lastModified, KeywordCounts counts) {
+                        corpora.computeIfAbsent(corpus, Corpus::new).replace(name, length, lastModified, counts);
+                    }
+
+                    @Override
+                    public void remove(String corpus, long name) {
+                        Corpus restored = corpora.get(corpus);
+                        if (restored != null)
+                            restored.remove(name);
+                    }
+                });
+                long files = corpora.values().stream().mapToLong(corpus -> corpus.files.size()).sum();
+                Logger.debugInfo("Restored " + files + " files of " + corpora.size() + " corpora in "
+                        + (System.currentTimeMillis() - start) + "ms");
+                if (index.isWasteful(files))
+                    index.rewrite(entries -> corpora.forEach((corpus, state) ->
+                            state.files.forEach((name, length, lastModified, counts) ->
+                                    entries.put(corpus, name, length, lastModified, counts))));
+            } catch (IOException e) {
+                Logger.error("File index can't be used, corpora will be scanned from scratch: " + e.getMessage());
+                corpora.clear();
+            }
+            loaded = true;
+        }
+    }
+
+    private static String keyOf(File file) {
+        return file.getAbsolutePath();
+    }
+
+    private static long nameOf(File file) {
+        return FileTable.fingerprint(file.getName());
+    }
+
+    /**
+     * Cached files of a single corpus. A corpus must be locked, by
+     * synchronizing on it, while its files are checked and while counts
+     * are merged into it. Files are scanned without the lock, so two jobs
+     * for the same corpus may scan the same file, and should check that
+     * it's still stale before merging its counts.
+     */
+    public class Corpus {
+
+        private final String path;
+
+        private final FileTable<KeywordCounts> files;
+
+        private final KeywordCounts total;
+
+        private Corpus(String path) {
+            this.path = path;
+            files = new FileTable<>();
+            total = KeywordCounts.create();
+        }
+
+        /**
+         * Tells whether a file has to be scanned, because it was not
+         * scanned before, or has changed since.
+         * @param file a file of the corpus
+         * @param length current length of the file
+         * @param lastModified current modification time of the file
+         * @return <code>true</code> if the file has to be scanned
+         */
+        public boolean isStale(File file, long length, long lastModified) {
+            return files.isStale(nameOf(file), length, lastModified);
+        }
+
+        /**
+         * Replaces counts of a file, adjusting the total of the corpus.
+         * @param file a scanned file
+         * @param length length of the file before it was scanned
+         * @param lastModified modification time of the file before it was scanned
+         * @param counts keyword counts of the file
+         */
+        public void update(File file, long length, long lastModified, KeywordCounts counts) {
+            long name = nameOf(file);
+            replace(name, length, lastModified, counts);
+            if (index != null)
+                index.put(path, name, length, lastModified, counts);
+        }
+
+        /**
+         * Removes all files which are not in the corpus any more,
+         * subtracting their counts from the total.
+         * @param present all files currently in the corpus
+         * @return number of removed files
+         */
+        public int retainAll(File[] present) {
+            for (File file : present) {
+                files.mark(nameOf(file));
+            }
+            return files.removeUnseen((name, length, lastModified, counts) -> {
+                total.subtractAll(counts);
+                if (index != null)
+                    index.remove(path, name);
+            });
+        }
+
+        /**
+         * @return a copy of keyword counts of all files in the corpus
+         */
+        public KeywordCounts total() {
+            return total.copy();
+        }
+
+        private void replace(long name, long length, long lastModified, KeywordCounts counts) {
+            KeywordCounts previous = files.replace(name, length, lastModified, counts);
+            if (previous != null)
+                total.subtractAll(previous);
+            total.addAll(counts);
+        }
+
+        private void remove(long name) {
+            KeywordCounts previous = files.remove(name);
+            if (previous != null)
+                total.subtractAll(previous);
+        }
+    }
+}
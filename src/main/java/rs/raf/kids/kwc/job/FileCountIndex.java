@@ -0,0 +1,445 @@
+package rs.raf.kids.kwc.job;
+
+import rs.raf.kids.kwc.cli.Logger;
+import rs.raf.kids.kwc.result.KeywordCounts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ *   An append-only log of file counts on disk, which lets
+ *   <code>FileCountCache</code> survive restarts. Every scanned file is
+ *   appended as a record with its corpus, fingerprint of its name, size,
+ *   modification time and keyword counts, and every deleted file as a record
+ *   which removes it. Files are keyed by the fingerprints
+ *   <code>FileTable</code> keeps them by, so names are not stored.
+ *   Replaying the log from the start restores the last state of every file.
+ * </p>
+ * <p>
+ *   The log is read and written through memory mappings. Records are
+ *   appended into a mapped region ahead of the end of the log, which is
+ *   zero filled, so a record is only complete once its length, which is
+ *   written last, is set, and a record cut short by a crash ends the log.
+ *   When the log has grown much larger than the state it holds, it's
+ *   rewritten with a single record per file.
+ * </p>
+ * <p>
+ *   Counts are stored against the keywords in the header of the log. If
+ *   the keywords have changed since the log was written, it's discarded,
+ *   since counts of new keywords are unknown.
+ * </p>
+ */
+public class FileCountIndex {
+
+    private static final int MAGIC = 0x6b776369;
+
+    private static final int VERSION = 2;
+
+    private static final byte PUT = 1;
+
+    private static final byte REMOVE = 2;
+
+    /**
+     * Size of regions mapped for appending.
+     */
+    private static final int REGION_SIZE = 1 << 20;
+
+    /**
+     * Size of windows the log is mapped in while it's replayed, so a log
+     * of any size can be read, although a single mapping is limited to 2 GiB.
+     */
+    private static final int REPLAY_WINDOW_SIZE = 64 << 20;
+
+    /**
+     * The log is rewritten on load if it holds more than this many
+     * records per live file, and more than <code>MIN_COMPACTED_RECORDS</code>.
+     */
+    private static final int MAX_RECORDS_PER_FILE = 2;
+
+    private static final int MIN_COMPACTED_RECORDS = 4096;
+
+    private final File file;
+
+    private final List<String> keywords;
+
+    /**
+     * Position of every keyword in the header of the log, by its ordinal.
+     */
+    private int[] positions;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer region;
+
+    /**
+     * Position of the region in the log.
+     */
+    private long regionStart;
+
+    /**
+     * Number of records in the log.
+     */
+    private long records;
+
+    private boolean closed;
+
+    /**
+     * Opens a log, creating it if it doesn't exist.
+     * @param file file of the log
+     * @param keywords keywords that counts are kept for, in ordinal order
+     * @throws IOException if the log can't be opened
+     */
+    public FileCountIndex(File file, List<String> keywords) throws IOException {
+        this.file = file;
+        this.keywords = keywords;
+        positions = identity(keywords.size());
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null)
+            Files.createDirectories(parent.toPath());
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Replays all complete records of the log, and prepares it for appending.
+     * A log which can't be read, or was written with other keywords, is
+     * discarded.
+     * @param replay receiver of the records, in order they were appended
+     * @throws IOException if the log can't be read or written
+     */
+    public synchronized void load(Replay replay) throws IOException {
+        long size = channel.size();
+        long end = size > 0 ? replay(size, replay) : 0;
+        if (end == 0) {
+            positions = identity(keywords.size());
+            if (size > 0)
+                Logger.warn("Discarding file index " + file + ", it's unreadable or was written for other keywords");
+            channel.truncate(0);
+            end = writeHeader(channel);
+        } else {
+            // drop the zero filled tail and any incomplete record,
+            // so appended records are followed by zeros again
+            channel.truncate(end);
+        }
+        mapRegion(end, 0);
+    }
+
+    /**
+     * @param liveFiles number of files in the state replayed from the log
+     * @return <code>true</code> if the log holds so many records for the
+     * given number of live files that it should be rewritten
+     */
+    public synchronized boolean isWasteful(long liveFiles) {
+        return records > MIN_COMPACTED_RECORDS && records > liveFiles * MAX_RECORDS_PER_FILE;
+    }
+
+    /**
+     * Replaces the log with a new one, which holds only the records
+     * written by the given writer.
+     * @param writer writer of the records that the new log will hold
+     * @throws IOException if the new log can't be written
+     */
+    public synchronized void rewrite(Writer writer) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (FileChannel rewritten = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            positions = identity(keywords.size());
+            long position = writeHeader(rewritten);
+            records = 0;
+            List<byte[]> batch = new ArrayList<>();
+            writer.writeTo((corpus, name, length, lastModified, counts) ->
+                    batch.add(putRecord(corpus, name, length, lastModified, counts)));
+            for (byte[] record : batch) {
+                position += rewritten.write(ByteBuffer.wrap(record), position);
+                records++;
+            }
+            rewritten.force(true);
+        }
+        channel.close();
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        mapRegion(channel.size(), 0);
+    }
+
+    /**
+     * Appends a scanned file.
+     */
+    public synchronized void put(String corpus, long name, long length, long lastModified, KeywordCounts counts) {
+        append(putRecord(corpus, name, length, lastModified, counts));
+    }
+
+    /**
+     * Appends a deleted file.
+     */
+    public synchronized void remove(String corpus, long name) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0);
+            out.writeByte(REMOVE);
+            writeString(out, corpus);
+            out.writeLong(name);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        append(withLength(bytes.toByteArray()));
+    }
+
+    /**
+     * Flushes the log to disk and closes it. Records appended afterwards
+     * are dropped, so their files are scanned again after a restart.
+     */
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            if (region != null)
+                region.force();
+            channel.close();
+        } catch (IOException e) {
+            Logger.debugWarn("Failed to close file index " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void append(byte[] record) {
+        if (closed || region == null)
+            return;
+        try {
+            if (region.remaining() < record.length + Integer.BYTES)
+                mapRegion(regionStart + region.position(), record.length);
+            int start = region.position();
+            // the length goes in last, so an incomplete record reads as the end of the log
+            region.position(start + Integer.BYTES);
+            region.put(record, Integer.BYTES, record.length - Integer.BYTES);
+            region.putInt(start, record.length - Integer.BYTES);
+            records++;
+        } catch (IOException e) {
+            Logger.debugWarn("Failed to append to file index " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void mapRegion(long position, int minimumSize) throws IOException {
+        if (region != null)
+            region.force();
+        regionStart = position;
+        region = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(REGION_SIZE, minimumSize));
+    }
+
+    private static int[] identity(int size) {
+        int[] identity = new int[size];
+        for (int i = 0; i < size; i++) {
+            identity[i] = i;
+        }
+        return identity;
+    }
+
+    private long writeHeader(FileChannel target) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(keywords.size());
+            for (String keyword : keywords) {
+                writeString(out, keyword);
+            }
+        }
+        return target.write(ByteBuffer.wrap(bytes.toByteArray()), 0);
+    }
+
+    /**
+     * Replays records of the log, which is mapped in windows of
+     * <code>REPLAY_WINDOW_SIZE</code>. A record which doesn't fit in the rest
+     * of a window is read from a new window that starts with it.
+     * @param size size of the log
+     * @return position after the last complete record, or <code>0</code>
+     * if the header doesn't match
+     */
+    private long replay(long size, Replay replay) throws IOException {
+        long windowStart = 0;
+        ByteBuffer buffer = mapWindow(windowStart, size, 0);
+        int[] ordinals;
+        try {
+            ordinals = readHeader(buffer);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return 0;
+        }
+        if (ordinals == null)
+            return 0;
+
+        records = 0;
+        while (true) {
+            int start = buffer.position();
+            if (buffer.remaining() < Integer.BYTES) {
+                if (windowStart + start + Integer.BYTES > size)
+                    break;
+                windowStart += start;
+                buffer = mapWindow(windowStart, size, Integer.BYTES);
+                continue;
+            }
+            int length = buffer.getInt();
+            if (length <= 0 || windowStart + start + Integer.BYTES + length > size
+                    || length > Integer.MAX_VALUE - Integer.BYTES) {
+                buffer.position(start);
+                break;
+            }
+            if (length > buffer.remaining()) {
+                windowStart += start;
+                buffer = mapWindow(windowStart, size, Integer.BYTES + length);
+                continue;
+            }
+            ByteBuffer record = buffer.slice(buffer.position(), length);
+            buffer.position(buffer.position() + length);
+            try {
+                replayRecord(record, ordinals, replay);
+                records++;
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                buffer.position(start);
+                break;
+            }
+        }
+        return windowStart + buffer.position();
+    }
+
+    /**
+     * Maps a read only window of the log.
+     * @param position start of the window
+     * @param size size of the log
+     * @param minimumSize number of bytes the window has to hold, if
+     *                    the log is large enough
+     */
+    private ByteBuffer mapWindow(long position, long size, int minimumSize) throws IOException {
+        long length = Math.min(size - position, Math.max(REPLAY_WINDOW_SIZE, minimumSize));
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+    }
+
+    /**
+     * @return current ordinal of every keyword of the log, in order
+     * of the log, or <code>null</code> if the keywords differ
+     */
+    private int[] readHeader(ByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+            return null;
+        int count = buffer.getInt();
+        if (count != keywords.size())
+            return null;
+        Map<String, Integer> current = new HashMap<>();
+        for (int i = 0; i < keywords.size(); i++) {
+            current.put(keywords.get(i), i);
+        }
+        int[] ordinals = new int[count];
+        int[] headerPositions = new int[count];
+        for (int i = 0; i < count; i++) {
+            Integer ordinal = current.get(readString(buffer));
+            if (ordinal == null)
+                return null;
+            ordinals[i] = ordinal;
+            headerPositions[ordinal] = i;
+        }
+        positions = headerPositions;
+        return ordinals;
+    }
+
+    private void replayRecord(ByteBuffer record, int[] ordinals, Replay replay) {
+        byte type = record.get();
+        String corpus = readString(record);
+        long name = record.getLong();
+        if (type == REMOVE) {
+            replay.remove(corpus, name);
+            return;
+        }
+        if (type != PUT)
+            throw new IllegalArgumentException("Unknown record type " + type);
+        long length = record.getLong();
+        long lastModified = record.getLong();
+        KeywordCounts counts = KeywordCounts.create(keywords.size());
+        for (int i = record.getInt(); i > 0; i--) {
+            int position = record.getInt();
+            if (position < 0 || position >= ordinals.length)
+                throw new IllegalArgumentException("Unknown keyword " + position);
+            counts.add(ordinals[position], record.getLong());
+        }
+        replay.put(corpus, name, length, lastModified, counts);
+    }
+
+    private byte[] putRecord(String corpus, long name, long length, long lastModified, KeywordCounts counts) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0);
+            out.writeByte(PUT);
+            writeString(out, corpus);
+            out.writeLong(name);
+            out.writeLong(length);
+            out.writeLong(lastModified);
+            List<long[]> nonZero = new ArrayList<>();
+            counts.forEachNonZero((ordinal, count) -> nonZero.add(new long[] {ordinal, count}));
+            out.writeInt(nonZero.size());
+            for (long[] entry : nonZero) {
+                out.writeInt(positions[(int) entry[0]]);
+                out.writeLong(entry[1]);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return withLength(bytes.toByteArray());
+    }
+
+    /**
+     * Fills in the length of a serialized record, which
+     * starts with a placeholder for it.
+     */
+    private static byte[] withLength(byte[] record) {
+        ByteBuffer.wrap(record).putInt(0, record.length - Integer.BYTES);
+        return record;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining())
+            throw new IllegalArgumentException("Invalid string length " + length);
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Receiver of scanned files.
+     */
+    public interface Entries {
+        void put(String corpus, long name, long length, long lastModified, KeywordCounts counts);
+    }
+
+    /**
+     * Receiver of records replayed from the log.
+     */
+    public interface Replay extends Entries {
+        void remove(String corpus, long name);
+    }
+
+    /**
+     * Writer of all records of a rewritten log.
+     */
+    public interface Writer {
+        void writeTo(Entries entries) throws IOException;
+    }
+}
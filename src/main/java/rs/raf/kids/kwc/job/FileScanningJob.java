@@ -1,16 +1,21 @@
 package rs.raf.kids.kwc.job;
 
+import rs.raf.kids.kwc.Main;
 import rs.raf.kids.kwc.cli.Logger;
 import rs.raf.kids.kwc.config.AppConfig;
+import rs.raf.kids.kwc.result.KeywordCounts;
 import rs.raf.kids.kwc.util.Utils;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
 
 public class FileScanningJob implements ScanningJob {
 
@@ -24,6 +29,33 @@ public class FileScanningJob implements ScanningJob {
      */
     private final long sizeLimit;
 
+    /**
+     * Files larger than this are split into byte ranges of this
+     * size, which are scanned by separate subtasks.
+     */
+    private final long segmentSize;
+
+    /**
+     * Determines how subtasks read files.
+     */
+    private final FileScanningMode mode;
+
+    /**
+     * Counts of previously scanned files, or <code>null</code>
+     * if the whole corpus is scanned every time.
+     */
+    private final FileCountCache fileCountCache;
+
+    /**
+     * Path of the directory the corpus was found in.
+     */
+    private final String source;
+
+    /**
+     * Query of the job, built once since the job queue looks it up.
+     */
+    private final String query;
+
     /**
      * Creates a new <code>FileScanningJob</code> for
      * given directory with size limit specified in
@@ -32,8 +64,38 @@ public class FileScanningJob implements ScanningJob {
      *                        for keywords
      */
     public FileScanningJob(File corpusDirectory) {
+        this(corpusDirectory, corpusDirectory.getPath(), Main.fileCountCache);
+    }
+
+    /**
+     * Creates a new <code>FileScanningJob</code> for a corpus
+     * found in a directory added by the user.
+     * @param corpusDirectory a directory to be scanned for keywords
+     * @param source path of the added directory the corpus was found in
+     */
+    public FileScanningJob(File corpusDirectory, String source) {
+        this(corpusDirectory, source, Main.fileCountCache);
+    }
+
+    /**
+     * Creates a new <code>FileScanningJob</code> which only scans files
+     * that changed since they were cached in <code>fileCountCache</code>.
+     * @param corpusDirectory a directory to be scanned for keywords
+     * @param fileCountCache counts of previously scanned files, or
+     *                       <code>null</code> to scan every file
+     */
+    public FileScanningJob(File corpusDirectory, FileCountCache fileCountCache) {
+        this(corpusDirectory, corpusDirectory.getPath(), fileCountCache);
+    }
+
+    private FileScanningJob(File corpusDirectory, String source, FileCountCache fileCountCache) {
         this.corpusDirectory = corpusDirectory;
+        this.source = source;
+        query = "file|" + corpusDirectory.getName();
+        this.fileCountCache = fileCountCache;
         sizeLimit = AppConfig.fileSizeLimit;
+        segmentSize = AppConfig.fileSegmentSize;
+        mode = AppConfig.fileScanningMode;
     }
 
     @Override
@@ -43,87 +105,135 @@ public class FileScanningJob implements ScanningJob {
 
     @Override
     public String getQuery() {
-        return "file|" + corpusDirectory.getName();
+        return query;
+    }
+
+    @Override
+    public String getSource() {
+        return source;
     }
 
     /**
      * Initiates a file scanning task and returns corresponding <code>Future</code>
-     * object. Corpus is searched for text files and the task is divided based on
-     * specified size limit. Subtasks are computed asynchronously and merged upon
-     * completion.
+     * object. Corpus is searched for text files, which are then scanned by
+     * fork/join tasks that split the work based on specified size limit.
+     * When given a <code>ForkJoinPool</code>, the task runs directly on it,
+     * otherwise the root task is submitted to the given service, and its
+     * subtasks are forked to the common pool.
      * @param executorService a service which will execute the word counting task
      * @return <code>Future</code> object that holds the result of computation
      */
     @Override
-    public Future<Map<String, Integer>> initiate(ExecutorService executorService) {
-        return executorService.submit(() -> countKeywords(executorService));
+    public Future<KeywordCounts> initiate(ExecutorService executorService) {
+        CorpusScanningTask task = new CorpusScanningTask();
+        if (executorService instanceof ForkJoinPool forkJoinPool)
+            return forkJoinPool.submit(task);
+        return executorService.submit(task::invoke);
     }
 
     /**
      * A method that represents base task of this object. Directory is searched
-     * for files and the task is split based on specified size limit. On completion,
-     * partial results are merged into one <code>Map</code> object.
-     * @param executorService a service which executes subtasks
-     * @return a <code>Map</code> which holds results of word counting, where
-     * keys are keywords specified in <code>AppConfig</code>, and values are
-     * occurrences of those keywords in all files in corpus directory
+     * for files, which are split into segments and scanned by a
+     * <code>SegmentScanningTask</code> in the current fork/join pool.
+     * @return <code>KeywordCounts</code> which hold occurrences of keywords
+     * specified in <code>AppConfig</code> in all files in corpus directory
      */
-    private Map<String, Integer> countKeywords(ExecutorService executorService) {
+    private KeywordCounts countKeywords() {
         Logger.info("Started job for corpus: " + getQuery());
-        File[] files = Utils.nullableToEmpty(corpusDirectory.listFiles());
-        List<Future<Map<String, Integer>>> subtasks = splitJobIntoTasks(files, executorService);
-        return mergePartialResults(subtasks);
+        File[] files = Utils.nullableToEmpty(corpusDirectory.listFiles(File::isFile));
+        KeywordCounts result;
+        if (fileCountCache != null) {
+            result = countChangedFiles(files);
+        } else {
+            List<FileSegment> segments = splitFilesIntoSegments(files);
+            result = new SegmentScanningTask(segments, sizeLimit, mode).invoke();
+        }
+        Logger.debugInfo("Finished job for corpus: " + corpusDirectory);
+        return result;
     }
 
     /**
-     * Splits main task into multiple subtasks, based on specified size limit. Files are
-     * grouped greedy, that is, a list for subtask will take files as long as the total
-     * size is less than size limit. Upon reaching limit or the end of the file list,
-     * a new <code>FileScanningTask</code> is created and submitted for execution to
-     * specified <code>ExecutorService</code> and is put into result list which holds
-     * all <code>Future</code> objects from all submitted subtasks.
-     * @param files a list of files in corpus directory
-     * @param executorService a service which executes subtasks
-     * @return list of <code>Future</code> objects of all submitted subtasks
+     * Scans only files which were added or changed since the corpus was
+     * last scanned, and drops files which were deleted, adjusting the
+     * cached total of the corpus by the difference. The corpus is locked
+     * only while changed files are picked and while their counts are
+     * merged, not while they are scanned, so a fork/join worker is never
+     * blocked on a corpus which another job is scanning.
+     * @param files all files in corpus directory
+     * @return <code>KeywordCounts</code> of all files in corpus directory
      */
-    private List<Future<Map<String, Integer>>> splitJobIntoTasks(File[] files, ExecutorService executorService) {
-        List<Future<Map<String, Integer>>> subtasks = new ArrayList<>();
-        List<File> taskFiles = new ArrayList<>();
-        long size = 0;
-        for (int i = 0, filesLength = files.length; i < filesLength; i++) {
-            File file = files[i];
-            size += file.length();
-            taskFiles.add(file);
-            if (size >= sizeLimit || i == filesLength - 1) {
-                Future<Map<String, Integer>> task = executorService.submit(new FileScanningTask(taskFiles));
-                subtasks.add(task);
-                taskFiles = new ArrayList<>();
-                size = 0;
+    private KeywordCounts countChangedFiles(File[] files) {
+        FileCountCache.Corpus corpus = fileCountCache.corpus(corpusDirectory);
+        List<FileStat> changed = new ArrayList<>();
+        synchronized (corpus) {
+            for (File file : files) {
+                // taken before the file is read, so a file written during
+                // the scan is seen as changed again next time
+                FileStat stat = FileStat.of(file);
+                if (corpus.isStale(file, stat.length(), stat.lastModified()))
+                    changed.add(stat);
             }
         }
-        return subtasks;
+
+        Map<File, KeywordCounts> fileCounts = new ConcurrentHashMap<>();
+        Set<File> failedFiles = ConcurrentHashMap.newKeySet();
+        if (!changed.isEmpty()) {
+            File[] changedFiles = changed.stream().map(FileStat::file).toArray(File[]::new);
+            new SegmentScanningTask(splitFilesIntoSegments(changedFiles), sizeLimit, mode, fileCounts,
+                    failedFiles).invoke();
+        }
+
+        synchronized (corpus) {
+            int merged = 0;
+            for (FileStat stat : changed) {
+                // a file which could not be read keeps its previous counts, and
+                // stays stale, so it's read again by the next job for the corpus
+                if (failedFiles.contains(stat.file()))
+                    continue;
+                // another job for the corpus may have merged the same version
+                // of the file while this one was scanning it
+                if (!corpus.isStale(stat.file(), stat.length(), stat.lastModified()))
+                    continue;
+                KeywordCounts counts = fileCounts.get(stat.file());
+                corpus.update(stat.file(), stat.length(), stat.lastModified(),
+                        counts != null ? counts : KeywordCounts.create());
+                merged++;
+            }
+            int deleted = corpus.retainAll(files);
+            Logger.debugInfo("Corpus " + corpusDirectory + ": rescanned " + changed.size() + " of "
+                    + files.length + " files, merged " + merged + ", " + failedFiles.size() + " failed, "
+                    + deleted + " deleted");
+            return corpus.total();
+        }
     }
 
     /**
-     * Takes a list of <code>Future</code> objects, iterates over them and puts all
-     * results of computation into a list. After all the tasks are finished, partial
-     * results are merged into a single <code>Map</code> object which holds a cumulative
-     * result.
-     * @param tasks a list of subtasks represented by <code>Future</code> object
-     * @return a <code>Map</code> where keys are keywords specified in <code>AppConfig</code>,
-     * and corresponding values are number of occurrences of each keyword in corpus
+     * Turns files into segments. Large files are split into byte ranges only
+     * in <code>FileScanningMode.MAPPED</code>, other modes always scan whole files.
+     * @param files a list of files in corpus directory
+     * @return segments that cover all given files
      */
-    private Map<String, Integer> mergePartialResults(List<Future<Map<String, Integer>>> tasks) {
-        List<Map<String, Integer>> partialResults = new ArrayList<>();
-        for (Future<Map<String, Integer>> subtask : tasks) {
-            try {
-                partialResults.add(subtask.get());
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
+    private List<FileSegment> splitFilesIntoSegments(File[] files) {
+        List<FileSegment> segments = new ArrayList<>();
+        for (File file : files) {
+            if (mode == FileScanningMode.MAPPED) {
+                segments.addAll(FileSegment.split(file, segmentSize));
+            } else {
+                segments.add(FileSegment.of(file));
             }
         }
-        Logger.debugInfo("Finished job for corpus: " + corpusDirectory);
-        return Utils.combineKeywordMaps(partialResults);
+        return segments;
     }
 
+    /**
+     * Root fork/join task of a job, which lists the corpus directory
+     * inside of the pool, instead of in the caller thread.
+     */
+    @SuppressWarnings("serial") // tasks are never serialized
+    private class CorpusScanningTask extends RecursiveTask<KeywordCounts> {
+        @Override
+        protected KeywordCounts compute() {
+            return countKeywords();
+        }
+    }
 }
@@ -0,0 +1,32 @@
+package rs.raf.kids.kwc.job;
+
+/**
+ * <p>
+ *   An enum that holds all the ways a <code>FileScanningTask</code>
+ *   can read the files it was given.
+ * </p>
+ * <p>
+ *   <code>FileScanningMode.LINES</code> reads files line by line and
+ *   splits them into <code>String</code> words, while
+ *   <code>FileScanningMode.MAPPED</code> maps each file into memory and
+ *   matches keywords directly on its bytes.
+ * </p>
+ */
+public enum FileScanningMode {
+    LINES,
+    MAPPED;
+
+    /**
+     * Parses a mode from its name, ignoring case and surrounding whitespace.
+     * @param value name of the mode
+     * @param defaultValue mode to return if <code>value</code> is not a valid name
+     * @return parsed mode, or <code>defaultValue</code>
+     */
+    public static FileScanningMode parseOrDefault(String value, FileScanningMode defaultValue) {
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return defaultValue;
+        }
+    }
+}
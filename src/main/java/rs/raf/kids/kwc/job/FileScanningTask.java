@@ -2,92 +2,161 @@ package rs.raf.kids.kwc.job;
 
 import rs.raf.kids.kwc.cli.Logger;
 import rs.raf.kids.kwc.config.AppConfig;
+import rs.raf.kids.kwc.result.KeywordCounts;
+import rs.raf.kids.kwc.scan.KeywordAutomaton;
+import rs.raf.kids.kwc.scan.MappedFileScanner;
 import rs.raf.kids.kwc.util.Utils;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Stream;
 
-public class FileScanningTask implements Callable<Map<String, Integer>> {
+public class FileScanningTask implements Callable<KeywordCounts> {
 
     /**
-     * A list of files that are being scanned for keywords.
+     * A list of file segments that are being scanned for keywords.
      */
-    private final List<File> filesToScan;
+    private final List<FileSegment> segmentsToScan;
 
     private final String corpusName;
 
     /**
-     * Keywords that are being counted in each file.
+     * Automaton that finds keywords in each file.
      */
-    private final Set<String> keywords;
+    private final KeywordAutomaton keywords;
 
-    public FileScanningTask(List<File> filesToScan) {
-        this.filesToScan = filesToScan;
-        corpusName = filesToScan.get(0).getParentFile().getName();
-        keywords = AppConfig.keywords;
+    /**
+     * Determines how files are read, see <code>FileScanningMode</code>.
+     */
+    private final FileScanningMode mode;
+
+    /**
+     * Counts of every scanned file are merged into this map,
+     * if it's not <code>null</code>.
+     */
+    private final Map<File, KeywordCounts> fileCounts;
+
+    /**
+     * Files which could not be read are added to this set,
+     * if it's not <code>null</code>.
+     */
+    private final Set<File> failedFiles;
+
+    public FileScanningTask(List<FileSegment> segmentsToScan) {
+        this(segmentsToScan, AppConfig.fileScanningMode);
+    }
+
+    public FileScanningTask(List<FileSegment> segmentsToScan, FileScanningMode mode) {
+        this(segmentsToScan, mode, null, null);
     }
 
     /**
-     * Initiates an empty <code>Map</code> object with keywords as keys.
-     * Words in file are then extracted, filtered and counted.
+     * Creates a task which scans given segments. Segments which don't
+     * cover the whole file are supported only in
+     * <code>FileScanningMode.MAPPED</code>.
+     * @param segmentsToScan segments to count keywords in
+     * @param mode the way files are read
+     * @param fileCounts map to merge counts of every file into, or
+     *                   <code>null</code> if only the total is needed
+     * @param failedFiles set to add files which could not be read to,
+     *                    or <code>null</code> if they are only logged
+     * @throws IllegalArgumentException if a partial segment is given
+     * in any other mode
+     */
+    public FileScanningTask(List<FileSegment> segmentsToScan, FileScanningMode mode,
+                            Map<File, KeywordCounts> fileCounts, Set<File> failedFiles) {
+        if (mode != FileScanningMode.MAPPED && !segmentsToScan.stream().allMatch(FileSegment::isWholeFile))
+            throw new IllegalArgumentException("Only " + FileScanningMode.MAPPED + " mode can scan parts of a file");
+
+        this.segmentsToScan = segmentsToScan;
+        this.mode = mode;
+        this.fileCounts = fileCounts;
+        this.failedFiles = failedFiles;
+        corpusName = segmentsToScan.get(0).getFile().getParentFile().getName();
+        keywords = AppConfig.keywordAutomaton;
+    }
+
+    /**
+     * Counts keywords in all files of this task, using the configured
+     * <code>FileScanningMode</code>. If counts of every file are needed,
+     * each segment is counted separately and merged into counts of its file.
      * @return occurrences of each keyword
      */
     @Override
-    public Map<String, Integer> call() {
+    public KeywordCounts call() {
 //        Logger.info("Started file scan for: file|" + corpusName);
-        Map<String, Integer> result = Utils.initKeywordsMap();
-        List<String> keywordsInFiles = filesToWords(filesToScan);
-        for (String word : keywordsInFiles) {
-            result.compute(word, (k,v) -> v + 1);
+        KeywordCounts counts = KeywordCounts.create(keywords.size());
+        KeywordAutomaton.Matcher matcher = keywords.matcher(counts);
+        for (FileSegment segment : segmentsToScan) {
+            if (fileCounts == null) {
+                scan(segment, matcher);
+                continue;
+            }
+            KeywordCounts segmentCounts = KeywordCounts.create(keywords.size());
+            if (!scan(segment, keywords.matcher(segmentCounts)) && failedFiles != null)
+                failedFiles.add(segment.getFile());
+            counts.addAll(segmentCounts);
+            fileCounts.merge(segment.getFile(), segmentCounts, KeywordCounts::addAll);
         }
-        Utils.sleepThread(ThreadLocalRandom.current().nextLong(6000, 16000));
+        if (mode == FileScanningMode.LINES)
+            Utils.sleepThread(ThreadLocalRandom.current().nextLong(6000, 16000));
 //        Logger.debugInfo("Finished file scan for: file|" + corpusName);
-        return result;
+        return counts;
     }
 
     /**
-     * Transforms files to list of words. Files are first split into lines,
-     * lines are then transformed into words, and finally, words are then
-     * cleaned and filtered, and put into a list.
-     * @param files a list of files to split into keywords
-     * @return
+     * @return <code>false</code> if the segment could not be read
      */
-    private List<String> filesToWords(List<File> files) {
-        return files.stream()
-                .flatMap(this::fileToLines)
-                .flatMap(this::lineToWords)
-                .map(Utils::removePunctuation)
-                .filter(keywords::contains)
-                .toList();
+    private boolean scan(FileSegment segment, KeywordAutomaton.Matcher matcher) {
+        return switch (mode) {
+            case LINES -> scanLines(segment.getFile(), matcher);
+            case MAPPED -> scanMapped(segment, matcher);
+        };
     }
 
     /**
-     * Takes a single file and splits it into lines. In case of any exception,
-     * an empty <code>Stream</code> is returned.
-     * @param file file to be split into lines
-     * @return a <code>Stream</code> of <code>String</code> objects, which
-     * represent lines in file
+     * Reads a file line by line and feeds every line to the matcher.
+     * @param file file to scan
+     * @param matcher matcher that counts keywords
+     * @return <code>false</code> if the file could not be read,
+     * in which case it's counted only up to the failure
      */
-    private Stream<String> fileToLines(File file) {
-        try {
-            return Files.lines(file.toPath());
-        } catch (IOException e) {
-            return Stream.empty();
+    private boolean scanLines(File file, KeywordAutomaton.Matcher matcher) {
+        boolean read = true;
+        try (Stream<String> lines = Files.lines(file.toPath())) {
+            lines.forEach(line -> {
+                matcher.feed(line);
+                matcher.feed((byte) '\n');
+            });
+        } catch (IOException | UncheckedIOException e) {
+            Logger.debugError("Failed to read file " + file + ": " + e.getMessage());
+            read = false;
         }
+        matcher.finish();
+        return read;
     }
 
     /**
-     * Splits a string into words by removing whitespace.
-     * @param line a string to be split into words
-     * @return words of given string
+     * Maps a segment into memory and matches keywords directly on its
+     * bytes. Segments that can't be read are skipped, same as in line based
+     * scanning.
+     * @param segment segment to scan
+     * @param matcher matcher that counts keywords
+     * @return <code>false</code> if the segment could not be read
      */
-    private Stream<String> lineToWords(String line) {
-        return Arrays.stream(line.split(" "));
+    private boolean scanMapped(FileSegment segment, KeywordAutomaton.Matcher matcher) {
+        try {
+            new MappedFileScanner(matcher).scan(segment.getFile(), segment.getStart(), segment.getEnd());
+            return true;
+        } catch (IOException e) {
+            Logger.debugError("Failed to map file " + segment + ": " + e.getMessage());
+            return false;
+        }
     }
 
 }
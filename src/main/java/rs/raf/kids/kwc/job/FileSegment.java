@@ -0,0 +1,105 @@
+package rs.raf.kids.kwc.job;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A byte range of a file which is scanned by a single <code>FileScanningTask</code>.
+ * A segment may cover the whole file, or only a part of a large file, in which
+ * case words on the boundaries are resolved by <code>MappedFileScanner</code>.
+ */
+public class FileSegment {
+
+    private final File file;
+
+    /**
+     * First byte of the segment.
+     */
+    private final long start;
+
+    /**
+     * First byte after the segment.
+     */
+    private final long end;
+
+    /**
+     * Whether the segment covers the whole file, however
+     * long the file is when it's scanned.
+     */
+    private final boolean wholeFile;
+
+    public FileSegment(File file, long start, long end) {
+        this(file, start, end, false);
+    }
+
+    private FileSegment(File file, long start, long end, boolean wholeFile) {
+        this.file = file;
+        this.start = start;
+        this.end = end;
+        this.wholeFile = wholeFile;
+    }
+
+    /**
+     * Creates a segment which covers a whole file. Its length is the
+     * length of file at the time of creation, but it's scanned to the
+     * end of file even if the file grows afterwards.
+     * @param file file to be covered
+     * @return segment from the first to the last byte of file
+     */
+    public static FileSegment of(File file) {
+        return new FileSegment(file, 0, file.length(), true);
+    }
+
+    /**
+     * Splits a file into segments of at most <code>segmentSize</code> bytes.
+     * Files which are not larger than that are returned as a single segment.
+     * @param file file to be split
+     * @param segmentSize maximum size of a segment in bytes
+     * @return segments which cover the whole file, in order
+     */
+    public static List<FileSegment> split(File file, long segmentSize) {
+        long length = file.length();
+        List<FileSegment> segments = new ArrayList<>();
+        if (length <= segmentSize) {
+            segments.add(of(file));
+            return segments;
+        }
+        for (long start = 0; start < length; start += segmentSize) {
+            segments.add(new FileSegment(file, start, Math.min(start + segmentSize, length)));
+        }
+        return segments;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return first byte after the segment, or <code>Long.MAX_VALUE</code>
+     * if the segment covers the whole file
+     */
+    public long getEnd() {
+        return wholeFile ? Long.MAX_VALUE : end;
+    }
+
+    /**
+     * @return <code>true</code> if the segment covers the whole file
+     */
+    public boolean isWholeFile() {
+        return wholeFile;
+    }
+
+    public long length() {
+        return end - start;
+    }
+
+    @Override
+    public String toString() {
+        return file + "[" + start + ", " + end + ")";
+    }
+}
@@ -0,0 +1,22 @@
+package rs.raf.kids.kwc.job;
+
+import java.io.File;
+
+/**
+ * Size and modification time of a file, read once
+ * and passed along with the file.
+ * @param file a file
+ * @param length length of the file in bytes
+ * @param lastModified modification time of the file in milliseconds
+ */
+public record FileStat(File file, long length, long lastModified) {
+
+    /**
+     * Reads current size and modification time of a file.
+     * @param file a file
+     * @return stat of the file
+     */
+    public static FileStat of(File file) {
+        return new FileStat(file, file.length(), file.lastModified());
+    }
+}
@@ -0,0 +1,297 @@
+package rs.raf.kids.kwc.job;
+
+import rs.raf.kids.kwc.util.Murmur3;
+
+/**
+ * <p>
+ *   Sizes and modification times of files of a single directory, with an
+ *   optional value per file, in an open addressing table of primitive
+ *   arrays. Files are keyed by a 64-bit Murmur3 fingerprint of their name,
+ *   so no name or path is kept in memory. A file takes 25 bytes per slot,
+ *   plus a reference once any value is stored, and a growing table is
+ *   between three eighths and three quarters full.
+ * </p>
+ * <p>
+ *   Every file has a mark, which is set when it's listed, so files which
+ *   were not listed since the last sweep are removed by
+ *   <code>removeUnseen</code>. Two names are taken for the same file only
+ *   if their fingerprints collide, which is negligible for any real
+ *   directory. The table is not thread safe.
+ * </p>
+ * @param <V> type of values kept with files
+ */
+public class FileTable<V> {
+
+    private static final int MIN_CAPACITY = 8;
+
+    /**
+     * Fingerprints of file names, <code>0</code> for an empty slot.
+     */
+    private long[] names;
+
+    private long[] lengths;
+
+    private long[] modificationTimes;
+
+    /**
+     * Whether a file was listed since the last <code>removeUnseen</code>.
+     */
+    private boolean[] seen;
+
+    /**
+     * Values of files, <code>null</code> until a value is stored.
+     */
+    private Object[] values;
+
+    private int mask;
+
+    private int size;
+
+    public FileTable() {
+        allocate(MIN_CAPACITY, false);
+    }
+
+    /**
+     * @param name name of a file, without its directory
+     * @return fingerprint of the name, which is never <code>0</code>
+     */
+    public static long fingerprint(String name) {
+        long fingerprint = Murmur3.hash64(name);
+        return fingerprint != 0 ? fingerprint : 1;
+    }
+
+    /**
+     * @return number of files in the table
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return approximate memory taken by the table, in bytes
+     */
+    public long memoryUsage() {
+        long perSlot = 3 * Long.BYTES + 1 + (values != null ? Integer.BYTES : 0);
+        return names.length * perSlot;
+    }
+
+    /**
+     * Records state of a listed file, and marks it as seen.
+     * @param name fingerprint of the file name
+     * @param length current length of the file
+     * @param lastModified current modification time of the file
+     * @return <code>true</code> if the file is new or has changed
+     */
+    public boolean put(long name, long length, long lastModified) {
+        int slot = find(name);
+        if (slot >= 0) {
+            seen[slot] = true;
+            if (lengths[slot] == length && modificationTimes[slot] == lastModified)
+                return false;
+            lengths[slot] = length;
+            modificationTimes[slot] = lastModified;
+            return true;
+        }
+        ensureRoom();
+        insert(name, length, lastModified, true, null);
+        return true;
+    }
+
+    /**
+     * @param name fingerprint of the file name
+     * @param length current length of the file
+     * @param lastModified current modification time of the file
+     * @return <code>true</code> if the file is not in the table,
+     * or its length or modification time differ
+     */
+    public boolean isStale(long name, long length, long lastModified) {
+        int slot = find(name);
+        return slot < 0 || lengths[slot] != length || modificationTimes[slot] != lastModified;
+    }
+
+    /**
+     * Sets state and value of a file, without changing its mark.
+     * @param name fingerprint of the file name
+     * @param length length of the file
+     * @param lastModified modification time of the file
+     * @param value value of the file
+     * @return previous value of the file, or <code>null</code> if it's new
+     */
+    public V replace(long name, long length, long lastModified, V value) {
+        if (values == null && value != null)
+            values = new Object[names.length];
+        int slot = find(name);
+        if (slot >= 0) {
+            V previous = valueAt(slot);
+            lengths[slot] = length;
+            modificationTimes[slot] = lastModified;
+            if (values != null)
+                values[slot] = value;
+            return previous;
+        }
+        ensureRoom();
+        insert(name, length, lastModified, false, value);
+        return null;
+    }
+
+    /**
+     * Removes a file.
+     * @param name fingerprint of the file name
+     * @return value of the removed file, or <code>null</code> if it
+     * was not in the table or had no value
+     */
+    public V remove(long name) {
+        int slot = find(name);
+        if (slot < 0)
+            return null;
+        V previous = valueAt(slot);
+        removeAt(slot);
+        return previous;
+    }
+
+    /**
+     * Marks a file as seen, if it's in the table.
+     * @param name fingerprint of the file name
+     */
+    public void mark(long name) {
+        int slot = find(name);
+        if (slot >= 0)
+            seen[slot] = true;
+    }
+
+    /**
+     * Removes all files which were not marked since the last
+     * call, and clears marks of the others.
+     * @param removed receiver of removed files, or <code>null</code>
+     * @return number of removed files
+     */
+    public int removeUnseen(Entries<V> removed) {
+        // the sweep starts after an empty slot, so entries are only shifted
+        // back from slots it has yet to visit, never from visited ones
+        int start = 0;
+        while (names[start] != 0)
+            start++;
+        int count = 0;
+        int step = 1;
+        while (step <= names.length) {
+            int slot = (start + step) & mask;
+            if (names[slot] != 0 && !seen[slot]) {
+                if (removed != null)
+                    removed.accept(names[slot], lengths[slot], modificationTimes[slot], valueAt(slot));
+                // an entry shifted back into this slot is checked again
+                removeAt(slot);
+                count++;
+                continue;
+            }
+            seen[slot] = false;
+            step++;
+        }
+        if (names.length > MIN_CAPACITY && size < names.length / 8)
+            resize(Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, size * 2)) * 2));
+        return count;
+    }
+
+    /**
+     * Calls <code>action</code> for every file in the table.
+     * @param action receiver of the files
+     */
+    public void forEach(Entries<V> action) {
+        for (int slot = 0; slot < names.length; slot++) {
+            if (names[slot] != 0)
+                action.accept(names[slot], lengths[slot], modificationTimes[slot], valueAt(slot));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int slot) {
+        return values != null ? (V) values[slot] : null;
+    }
+
+    private void ensureRoom() {
+        if (size + 1 > names.length * 3 / 4)
+            resize(names.length * 2);
+    }
+
+    private void allocate(int capacity, boolean withValues) {
+        names = new long[capacity];
+        lengths = new long[capacity];
+        modificationTimes = new long[capacity];
+        seen = new boolean[capacity];
+        values = withValues ? new Object[capacity] : null;
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    private void resize(int capacity) {
+        long[] oldNames = names;
+        long[] oldLengths = lengths;
+        long[] oldModificationTimes = modificationTimes;
+        boolean[] oldSeen = seen;
+        Object[] oldValues = values;
+        allocate(capacity, oldValues != null);
+        for (int i = 0; i < oldNames.length; i++) {
+            if (oldNames[i] != 0)
+                insert(oldNames[i], oldLengths[i], oldModificationTimes[i], oldSeen[i],
+                        oldValues != null ? oldValues[i] : null);
+        }
+    }
+
+    private int slotOf(long name) {
+        return (int) (name ^ (name >>> 32)) & mask;
+    }
+
+    private int find(long name) {
+        for (int slot = slotOf(name); names[slot] != 0; slot = (slot + 1) & mask) {
+            if (names[slot] == name)
+                return slot;
+        }
+        return -1;
+    }
+
+    private void insert(long name, long length, long lastModified, boolean listed, Object value) {
+        int slot = slotOf(name);
+        while (names[slot] != 0)
+            slot = (slot + 1) & mask;
+        names[slot] = name;
+        lengths[slot] = length;
+        modificationTimes[slot] = lastModified;
+        seen[slot] = listed;
+        if (values != null)
+            values[slot] = value;
+        size++;
+    }
+
+    /**
+     * Removes an entry by shifting back the entries of its probe
+     * sequence, so no tombstones are left in the table.
+     */
+    private void removeAt(int slot) {
+        int free = slot;
+        for (int next = (free + 1) & mask; names[next] != 0; next = (next + 1) & mask) {
+            int home = slotOf(names[next]);
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                names[free] = names[next];
+                lengths[free] = lengths[next];
+                modificationTimes[free] = modificationTimes[next];
+                seen[free] = seen[next];
+                if (values != null)
+                    values[free] = values[next];
+                free = next;
+            }
+        }
+        names[free] = 0;
+        seen[free] = false;
+        if (values != null)
+            values[free] = null;
+        size--;
+    }
+
+    /**
+     * Receiver of files of a table.
+     * @param <V> type of values kept with files
+     */
+    @FunctionalInterface
+    public interface Entries<V> {
+        void accept(long name, long length, long lastModified, V value);
+    }
+}
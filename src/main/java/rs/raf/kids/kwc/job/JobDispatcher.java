@@ -4,49 +4,48 @@ import rs.raf.kids.kwc.Stoppable;
 import rs.raf.kids.kwc.cli.Logger;
 import rs.raf.kids.kwc.pool.AbstractScannerPool;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
 
+/**
+ * Starts a thread for every registered scanner pool, which drains the
+ * queue of its scan type from <code>ScanningJobQueue</code>, and waits
+ * until all of them take a terminal job.
+ */
 public class JobDispatcher implements Runnable, Stoppable {
 
     private volatile boolean running;
 
-    private final ScanningJobQueue jobQueue;
-
     private final Map<ScanType, AbstractScannerPool<? super ScanningJob>> scannerPools;
 
-    public JobDispatcher(ScanningJobQueue jobQueue) {
-        this.jobQueue = jobQueue;
-        scannerPools = new HashMap<>();
+    public JobDispatcher() {
+        scannerPools = new EnumMap<>(ScanType.class);
     }
 
     @Override
     public void run() {
         signalRun();
-        while (isRunning()) {
-            initiateNextAvailableScanningJob();
-        }
-    }
-
-    /**
-     * Takes next job from <code>ScanningJobQueue</code> and delegates
-     * its execution to corresponding <code>ScannerPool</code> based on
-     * scan type. Taking a job of type <code>ScanType.TERMINATE</code>
-     * causes <code>JobDispatcher</code> to stop its execution.
-     */
-    private void initiateNextAvailableScanningJob() {
-        ScanningJob nextJob = jobQueue.next();
-        ScanType scanType = nextJob.getScanType();
-        switch (scanType) {
-            case FILE, WEB -> scannerPools.get(scanType).accept(nextJob);
-            case TERMINATE -> stop();
-        }
+        List<Thread> drainers = new ArrayList<>();
+        scannerPools.forEach((scanType, pool) -> {
+            Thread drainer = new Thread(() -> pool.drain(scanType), scanType + "JobDispatcher");
+            drainer.start();
+            drainers.add(drainer);
+        });
+        try {
+            for (Thread drainer : drainers) {
+                drainer.join();
+            }
+        } catch (InterruptedException ignored) {}
+        stop();
     }
 
     /**
      * Binds given <code>AbstractScannerPool</code> to a scan type, which
      * causes any jobs of the given scan type to be passed directly to the
-     * registered pool for execution.
+     * registered pool for execution. Pools must be registered before
+     * the dispatcher is started.
      * @param scanType job scan type to be passed to given the pool
      * @param scannerPool a pool that executes all jobs of given type
      */
@@ -1,6 +1,7 @@
 package rs.raf.kids.kwc.job;
 
-import java.util.Map;
+import rs.raf.kids.kwc.result.KeywordCounts;
+
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
@@ -10,7 +11,28 @@ public interface ScanningJob {
 
     String getQuery();
 
-    Future<Map<String, Integer>> initiate(ExecutorService executorService);
+    Future<KeywordCounts> initiate(ExecutorService executorService);
+
+    /**
+     * Source the job was created for, such as a directory or a URL added
+     * by the user. <code>ScanningJobQueue</code> shares the pool fairly
+     * between sources. By default, every job is its own source.
+     * @return source of the job
+     */
+    default String getSource() {
+        return getQuery();
+    }
+
+    /**
+     * Merges this job, while it waits in <code>ScanningJobQueue</code>,
+     * with a newer job for the same query. By default the newer job
+     * replaces this one, since it was created from more recent state.
+     * @param newer a job for the same query, submitted after this one
+     * @return a job to run in place of both
+     */
+    default ScanningJob coalesce(ScanningJob newer) {
+        return newer;
+    }
 
     /**
      * Represents a job which should be used as signal for
@@ -30,7 +52,7 @@ public interface ScanningJob {
         }
 
         @Override
-        public Future<Map<String, Integer>> initiate(ExecutorService executorService) {
+        public Future<KeywordCounts> initiate(ExecutorService executorService) {
             throw new UnsupportedOperationException("Terminal job doesn't support initiate operation");
         }
     };
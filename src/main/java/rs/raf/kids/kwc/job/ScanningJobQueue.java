@@ -1,47 +1,418 @@
 package rs.raf.kids.kwc.job;
 
-import rs.raf.kids.kwc.util.Utils;
-
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * <p>
+ *   Queues of scanning jobs, one per scan type, each drained by its own
+ *   consumer. Jobs are routed to the queue of their type on submission,
+ *   so file and web jobs never wait behind each other, or behind a single
+ *   dispatching thread.
+ * </p>
+ * <p>
+ *   Jobs are submitted into a lock-free <code>ConcurrentLinkedQueue</code>,
+ *   and size of each queue is bounded by a semaphore, which only blocks
+ *   submitters when the queue is full, and consumers when it's empty.
+ * </p>
+ * <p>
+ *   Within a type, jobs are taken by weighted fair queuing between their
+ *   sources, such as a directory added with <code>ad</code> or a URL added
+ *   with <code>aw</code>, so a deep crawl of one site doesn't hold back jobs
+ *   of other sites. A source with weight 2 gets twice as many jobs taken as
+ *   a source with weight 1, while both have jobs queued. A job which has
+ *   waited longer than the deadline of its type is taken before any other,
+ *   oldest first, which bounds latency of every source.
+ * </p>
+ * <p>
+ *   A queue holds at most one job per query. A job submitted while another
+ *   job for the same query is still queued is coalesced with it, via
+ *   <code>ScanningJob.coalesce</code>, and takes no room in the queue. The
+ *   merged job runs in place of the queued one, so a corpus which keeps
+ *   changing is scanned once per dispatch, instead of once per change.
+ * </p>
+ */
 public class ScanningJobQueue {
 
-    private final BlockingQueue<ScanningJob> scanningJobs;
+    private final Map<ScanType, Lane> lanes;
+
+    /**
+     * Jobs to run for queries which are in one of the lanes.
+     */
+    private final Map<String, ScanningJob> queuedJobs;
 
     public ScanningJobQueue() {
-        scanningJobs = new LinkedBlockingQueue<>();
+        this(Integer.MAX_VALUE);
+    }
+
+    public ScanningJobQueue(int capacity) {
+        this(capacity, Map.of());
+    }
+
+    /**
+     * Creates queues which hold at most <code>capacity</code> jobs each.
+     * Once full, submitters wait until a consumer takes a job, so
+     * backpressure from saturated pools reaches the producers of jobs.
+     * @param capacity maximum number of jobs of a single type in queue
+     * @param deadlines longest time a job of a type should wait before it's
+     *                  taken, in milliseconds, where a missing or non-positive
+     *                  deadline means jobs are only taken fairly
+     */
+    public ScanningJobQueue(int capacity, Map<ScanType, Long> deadlines) {
+        lanes = new EnumMap<>(ScanType.class);
+        for (ScanType scanType : ScanType.values()) {
+            if (scanType != ScanType.TERMINATE)
+                lanes.put(scanType, new Lane(capacity, deadlines.getOrDefault(scanType, 0L)));
+        }
+        queuedJobs = new ConcurrentHashMap<>();
     }
 
     /**
-     * Safely puts a <code>ScanningJob</code> into queue.
+     * Sets weight of a source, which is <code>1</code> by default.
+     * @param scanType type of jobs of the source
+     * @param source source of jobs, as returned by <code>ScanningJob.getSource</code>
+     * @param weight share of jobs taken from the source, relative to other
+     *               sources of the same type
+     * @throws IllegalArgumentException if weight is not positive
+     */
+    public void setWeight(ScanType scanType, String source, int weight) {
+        if (weight < 1)
+            throw new IllegalArgumentException("Weight must be positive, but was " + weight);
+        lanes.get(scanType).weights.put(source, weight);
+    }
+
+    /**
+     * Safely puts a <code>ScanningJob</code> into queue of its type, waiting
+     * for room if the queue is full. If a job for the same query is already
+     * queued, the two are coalesced instead.
      * @param job a job to be put into queue.
      */
     public void submit(ScanningJob job) {
+        if (coalesceQueued(job))
+            return;
+        Lane lane = lanes.get(job.getScanType());
         try {
-            scanningJobs.put(job);
-        } catch (InterruptedException ignored) {}
+            lane.room.acquire();
+        } catch (InterruptedException ignored) {
+            return;
+        }
+        add(lane, job);
     }
 
     /**
-     * Returns a next in line <code>ScanningJob</code> from the queue.
+     * Puts a <code>ScanningJob</code> into queue only if there is room
+     * for it. Should be used by scanning tasks themselves, since waiting
+     * on a full queue from a pool thread could deadlock with the
+     * consumer waiting on the same, saturated pool. A job for the same
+     * query as a queued one is coalesced with it even if the queue is full.
+     * @param job a job to be put into queue
+     * @return <code>true</code> if the job was put into queue
+     */
+    public boolean offer(ScanningJob job) {
+        if (coalesceQueued(job))
+            return true;
+        Lane lane = lanes.get(job.getScanType());
+        if (!lane.room.tryAcquire())
+            return false;
+        add(lane, job);
+        return true;
+    }
+
+    /**
+     * Puts a <code>ScanningJob</code> into queue of its type without waiting,
+     * even if the queue is full. For scanning tasks which must not lose a
+     * job, and can't wait for room either. Until the queue is drained below
+     * its capacity again, other submitters of that type keep waiting.
+     * @param job a job to be put into queue
+     */
+    public void force(ScanningJob job) {
+        if (coalesceQueued(job))
+            return;
+        Lane lane = lanes.get(job.getScanType());
+        if (lane.room.tryAcquire()) {
+            add(lane, job);
+        } else if (coalesce(job)) {
+            lane.overflow.incrementAndGet();
+            lane.add(job);
+        }
+    }
+
+    /**
+     * Puts a job into a lane, after room for it was acquired. A job is
+     * registered for its query only once it has room, so a job which is
+     * coalesced with it is never dropped for lack of room.
+     * @param lane lane of the job
+     * @param job a submitted job
+     */
+    private void add(Lane lane, ScanningJob job) {
+        if (coalesce(job)) {
+            lane.add(job);
+        } else {
+            // merged with a queued job, which already holds room
+            lane.room.release();
+        }
+    }
+
+    /**
+     * Merges a job with the queued job for the same query, if there is one,
+     * without waiting for room, since a coalesced job doesn't take any.
+     * @param job a submitted job
+     * @return <code>true</code> if the job was coalesced with a queued job
+     */
+    private boolean coalesceQueued(ScanningJob job) {
+        return queuedJobs.computeIfPresent(job.getQuery(), (query, queued) -> queued.coalesce(job)) != null;
+    }
+
+    /**
+     * Registers a job for its query, merging it with the
+     * queued job for the same query, if there is one.
+     * @param job a submitted job
+     * @return <code>true</code> if the job has to be put into queue,
+     * <code>false</code> if it was coalesced with a queued job
+     */
+    private boolean coalesce(ScanningJob job) {
+        boolean[] first = new boolean[1];
+        queuedJobs.compute(job.getQuery(), (query, queued) -> {
+            first[0] = queued == null;
+            return queued == null ? job : queued.coalesce(job);
+        });
+        return first[0];
+    }
+
+    /**
+     * Returns a next in line <code>ScanningJob</code> of the given type.
      * If no jobs are present, a caller <code>Thread</code> will wait
-     * until queue is not empty.
-     * @return Next <code>ScanningJob</code> from queue.
-     * @throws IllegalStateException In case that caller thread
-     * is not <code>JobDispatcherThread</code>.
-     */
-    public ScanningJob next() {
-        if (Utils.isJobDispatcherThread()) {
-            try {
-                return scanningJobs.take();
-            } catch (InterruptedException ignored) {}
+     * until there is one. Any number of threads may take jobs, but each
+     * type is meant to be drained by its own pool.
+     * @param scanType type of jobs to take
+     * @return Next <code>ScanningJob</code> of the given type, or
+     * <code>ScanningJob.TERMINAL_JOB</code> once the queue is terminated
+     * or the caller is interrupted
+     */
+    public ScanningJob next(ScanType scanType) {
+        Lane lane = lanes.get(scanType);
+        try {
+            lane.available.acquire();
+        } catch (InterruptedException ignored) {
             return ScanningJob.TERMINAL_JOB;
         }
-        else throw new IllegalStateException("Only JobDispatcherThread can read from ScanningJobQueue");
+        ScanningJob job = lane.take();
+        if (job == ScanningJob.TERMINAL_JOB)
+            return job;
+        lane.releaseRoom();
+        // jobs submitted from now on are queued anew, since
+        // this one may be started before they were submitted
+        ScanningJob merged = queuedJobs.remove(job.getQuery());
+        return merged != null ? merged : job;
     }
 
-    public void terminate() throws InterruptedException {
-        scanningJobs.put(ScanningJob.TERMINAL_JOB);
+    /**
+     * Terminates every queue, without waiting for room, so each
+     * consumer takes a terminal job once it has taken all other jobs.
+     */
+    public void terminate() {
+        lanes.values().forEach(Lane::terminate);
+    }
+
+    /**
+     * Jobs of a single scan type. Submitted jobs are collected in a
+     * lock-free inbox, and sorted into queues of their sources by
+     * consumers, which synchronize on the lane.
+     */
+    private static class Lane {
+
+        private static final Comparator<Source> BY_NEXT_TAG =
+                Comparator.comparingDouble((Source source) -> source.nextTag).thenComparingLong(source -> source.id);
+
+        private final Queue<Queued> inbox;
+
+        /**
+         * Free places in the lane, taken by submitters.
+         */
+        private final Semaphore room;
+
+        /**
+         * Jobs in the lane, and the terminal job once it's
+         * terminated, taken by consumers.
+         */
+        private final Semaphore available;
+
+        /**
+         * Number of jobs in the lane which were forced into it past its
+         * capacity, and so don't hold a place of <code>room</code>.
+         */
+        private final AtomicInteger overflow;
+
+        /**
+         * Longest time a job should wait in nanoseconds, <code>0</code> if none.
+         */
+        private final long deadline;
+
+        private final Map<String, Integer> weights;
+
+        /**
+         * Sources with queued jobs, by name.
+         */
+        private final Map<String, Source> sources;
+
+        /**
+         * Sources with queued jobs, by finish tag of their next job.
+         */
+        private final NavigableSet<Source> schedule;
+
+        /**
+         * All queued jobs in order of submission, including taken ones which
+         * are skipped lazily, used to find overdue jobs. Empty if there is
+         * no deadline.
+         */
+        private final Queue<Queued> arrivals;
+
+        /**
+         * Finish tag of the last taken job.
+         */
+        private double virtualTime;
+
+        private long nextSourceId;
+
+        private Lane(int capacity, long deadline) {
+            inbox = new ConcurrentLinkedQueue<>();
+            room = new Semaphore(capacity);
+            available = new Semaphore(0);
+            overflow = new AtomicInteger();
+            this.deadline = TimeUnit.MILLISECONDS.toNanos(Math.max(0, deadline));
+            weights = new ConcurrentHashMap<>();
+            sources = new HashMap<>();
+            schedule = new TreeSet<>(BY_NEXT_TAG);
+            arrivals = new ArrayDeque<>();
+        }
+
+        private void add(ScanningJob job) {
+            inbox.add(new Queued(job, System.nanoTime()));
+            available.release();
+        }
+
+        /**
+         * Frees a place in the lane after a job was taken. Any job taken
+         * while the lane is over capacity frees a place past it, which is
+         * never handed out, so the lane drains back to its capacity first.
+         */
+        private void releaseRoom() {
+            if (overflow.getAndUpdate(count -> count > 0 ? count - 1 : 0) == 0)
+                room.release();
+        }
+
+        private void terminate() {
+            available.release();
+        }
+
+        /**
+         * Takes a job, after a permit of <code>available</code> was acquired.
+         * @return next job, or the terminal job if the lane is terminated
+         * and has no jobs left
+         */
+        private synchronized ScanningJob take() {
+            Queued queued;
+            while ((queued = inbox.poll()) != null) {
+                enqueue(queued);
+            }
+            if (sources.isEmpty()) {
+                // every other permit belongs to a job, so
+                // only the permit of the terminal job is left
+                return ScanningJob.TERMINAL_JOB;
+            }
+
+            Queued overdue = overdueJob();
+            Source source = overdue != null ? overdue.source : schedule.first();
+            schedule.remove(source);
+            source.finish = source.nextTag;
+            virtualTime = Math.max(virtualTime, source.finish);
+            // jobs of a source are taken in order, so an overdue job is its first
+            Queued taken = source.jobs.poll();
+            taken.taken = true;
+            if (source.jobs.isEmpty()) {
+                // its finish tag equals virtual time, so it's safe to forget
+                sources.remove(source.name);
+            } else {
+                source.nextTag = source.finish + 1.0 / weightOf(source);
+                schedule.add(source);
+            }
+            return taken.job;
+        }
+
+        private void enqueue(Queued queued) {
+            String name = queued.job.getSource();
+            Source source = sources.get(name);
+            if (source == null) {
+                // an idle source can't save up its share for later
+                source = new Source(name, nextSourceId++);
+                source.finish = virtualTime;
+                source.nextTag = virtualTime + 1.0 / weightOf(source);
+                sources.put(source.name, source);
+                schedule.add(source);
+            }
+            queued.source = source;
+            source.jobs.add(queued);
+            if (deadline > 0)
+                arrivals.add(queued);
+        }
+
+        /**
+         * @return the oldest job, if it has waited longer than
+         * the deadline, otherwise <code>null</code>
+         */
+        private Queued overdueJob() {
+            if (deadline == 0)
+                return null;
+            while (arrivals.peek().taken) {
+                arrivals.poll();
+            }
+            Queued oldest = arrivals.peek();
+            return System.nanoTime() - oldest.enqueued >= deadline ? oldest : null;
+        }
+
+        private int weightOf(Source source) {
+            return weights.getOrDefault(source.name, 1);
+        }
+    }
+
+    /**
+     * Queued jobs of a single source. Finish tag of its next job
+     * advances by the inverse of its weight for every job taken.
+     */
+    private static class Source {
+        private final String name;
+        private final long id;
+        private final Queue<Queued> jobs;
+        private double finish;
+        private double nextTag;
+
+        private Source(String name, long id) {
+            this.name = name;
+            this.id = id;
+            jobs = new ArrayDeque<>();
+        }
+    }
+
+    private static class Queued {
+        private final ScanningJob job;
+        private final long enqueued;
+        private Source source;
+        private boolean taken;
+
+        private Queued(ScanningJob job, long enqueued) {
+            this.job = job;
+            this.enqueued = enqueued;
+        }
     }
 }
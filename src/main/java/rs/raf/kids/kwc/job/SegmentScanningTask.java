@@ -0,0 +1,163 @@
+package rs.raf.kids.kwc.job;
+
+import rs.raf.kids.kwc.result.KeywordCounts;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <p>
+ *   A fork/join task which counts keywords in a range of file segments.
+ *   While its range is larger than the size limit, the task splits it in
+ *   half by bytes and forks the right half, so idle workers can steal it.
+ *   The remaining range is scanned in the current worker by a single
+ *   <code>FileScanningTask</code>, and forked halves are joined afterwards.
+ * </p>
+ * <p>
+ *   Splitting is adaptive: once a worker already has enough queued tasks
+ *   that nobody has stolen, it stops splitting and scans the range itself,
+ *   so the number of tasks follows the actual load instead of the corpus size.
+ * </p>
+ */
+@SuppressWarnings("serial") // tasks are never serialized
+public class SegmentScanningTask extends RecursiveTask<KeywordCounts> {
+
+    /**
+     * Number of queued, not yet stolen, tasks of a worker above
+     * which it stops splitting.
+     */
+    private static final int MAX_SURPLUS_TASKS = 3;
+
+    private final List<FileSegment> segments;
+
+    /**
+     * Total size of segments before a given index, with one extra
+     * element at the end, so that size of any range is a difference.
+     */
+    private final long[] offsets;
+
+    /**
+     * First segment of the range.
+     */
+    private final int from;
+
+    /**
+     * First segment after the range.
+     */
+    private final int to;
+
+    /**
+     * Ranges smaller than this are never split.
+     */
+    private final long sizeLimit;
+
+    private final FileScanningMode mode;
+
+    /**
+     * Map which counts of every file are merged into, or <code>null</code>.
+     */
+    private final Map<File, KeywordCounts> fileCounts;
+
+    /**
+     * Set which files that could not be read are added to, or <code>null</code>.
+     */
+    private final Set<File> failedFiles;
+
+    /**
+     * Creates a task which counts keywords in all given segments.
+     * @param segments segments to scan
+     * @param sizeLimit size in bytes under which a range is scanned without splitting
+     * @param mode the way files are read
+     */
+    public SegmentScanningTask(List<FileSegment> segments, long sizeLimit, FileScanningMode mode) {
+        this(segments, sizeLimit, mode, null, null);
+    }
+
+    /**
+     * Creates a task which counts keywords in all given segments, and
+     * also merges counts of every file into a concurrent map.
+     * @param segments segments to scan
+     * @param sizeLimit size in bytes under which a range is scanned without splitting
+     * @param mode the way files are read
+     * @param fileCounts concurrent map to merge counts of every file into,
+     *                   or <code>null</code> if only the total is needed
+     * @param failedFiles concurrent set to add files which could not be
+     *                    read to, or <code>null</code> if they are only logged
+     */
+    public SegmentScanningTask(List<FileSegment> segments, long sizeLimit, FileScanningMode mode,
+                               Map<File, KeywordCounts> fileCounts, Set<File> failedFiles) {
+        this(segments, offsetsOf(segments), 0, segments.size(), sizeLimit, mode, fileCounts, failedFiles);
+    }
+
+    private SegmentScanningTask(List<FileSegment> segments, long[] offsets, int from, int to, long sizeLimit,
+                                FileScanningMode mode, Map<File, KeywordCounts> fileCounts, Set<File> failedFiles) {
+        this.segments = segments;
+        this.offsets = offsets;
+        this.from = from;
+        this.to = to;
+        this.sizeLimit = sizeLimit;
+        this.mode = mode;
+        this.fileCounts = fileCounts;
+        this.failedFiles = failedFiles;
+    }
+
+    private static long[] offsetsOf(List<FileSegment> segments) {
+        long[] offsets = new long[segments.size() + 1];
+        for (int i = 0; i < segments.size(); i++) {
+            offsets[i + 1] = offsets[i] + segments.get(i).length();
+        }
+        return offsets;
+    }
+
+    @Override
+    protected KeywordCounts compute() {
+        List<SegmentScanningTask> forked = new ArrayList<>();
+        int end = to;
+
+        // split off right halves while the range is large
+        // and there is no surplus of work in current worker
+        while (end - from > 1 && offsets[end] - offsets[from] > sizeLimit
+                && getSurplusQueuedTaskCount() <= MAX_SURPLUS_TASKS) {
+            int middle = middleOf(from, end);
+            SegmentScanningTask right = new SegmentScanningTask(segments, offsets, middle, end, sizeLimit, mode,
+                    fileCounts, failedFiles);
+            right.fork();
+            forked.add(right);
+            end = middle;
+        }
+
+        KeywordCounts result = from < end
+                ? new FileScanningTask(segments.subList(from, end), mode, fileCounts, failedFiles).call()
+                : KeywordCounts.create();
+
+        // join in reverse order, so the most recently forked task,
+        // which is likely still in local queue, is run by this worker
+        for (int i = forked.size() - 1; i >= 0; i--) {
+            result.addAll(forked.get(i).join());
+        }
+        return result;
+    }
+
+    /**
+     * Finds a segment which splits a range into two halves of about the
+     * same size in bytes. Both halves are guaranteed to be non-empty.
+     */
+    private int middleOf(int from, int to) {
+        long half = offsets[from] + (offsets[to] - offsets[from]) / 2;
+        int low = from + 1;
+        int high = to - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (offsets[middle] < half) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
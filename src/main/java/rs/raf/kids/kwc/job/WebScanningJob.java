@@ -1,8 +1,9 @@
 package rs.raf.kids.kwc.job;
 
 import rs.raf.kids.kwc.config.AppConfig;
+import rs.raf.kids.kwc.result.KeywordCounts;
+import rs.raf.kids.kwc.util.Utils;
 
-import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
@@ -20,13 +21,34 @@ public class WebScanningJob implements ScanningJob {
      */
     private final int urlDepth;
 
+    /**
+     * URL added by the user, which this URL was found from.
+     */
+    private final String source;
+
+    /**
+     * Query of the job, built once since the job queue looks it up.
+     */
+    private final String query;
+
     public WebScanningJob(String url) {
         this(url, AppConfig.urlDepthLimit);
     }
 
     public WebScanningJob(String url, int urlDepth) {
+        this(url, urlDepth, url);
+    }
+
+    /**
+     * @param url an URL to scan
+     * @param urlDepth remaining depth of links to follow
+     * @param source URL added by the user, which the URL was found from
+     */
+    public WebScanningJob(String url, int urlDepth, String source) {
         this.url = url;
         this.urlDepth = urlDepth;
+        this.source = source;
+        query = "web|" + url;
     }
 
     @Override
@@ -36,11 +58,52 @@ public class WebScanningJob implements ScanningJob {
 
     @Override
     public String getQuery() {
-        return "web|" + url;
+        return query;
+    }
+
+    @Override
+    public String getSource() {
+        return source;
+    }
+
+    @Override
+    public Future<KeywordCounts> initiate(ExecutorService executorService) {
+        return executorService.submit(createTask());
     }
 
+    /**
+     * Keeps the job which follows links deeper, so
+     * coalescing never shortens a crawl.
+     * @param newer a job for the same URL, submitted after this one
+     * @return the job with greater depth, or the newer one if equal
+     */
     @Override
-    public Future<Map<String, Integer>> initiate(ExecutorService executorService) {
-        return executorService.submit(new WebScanningTask(url, urlDepth));
+    public ScanningJob coalesce(ScanningJob newer) {
+        if (newer instanceof WebScanningJob web && web.urlDepth < urlDepth)
+            return this;
+        return newer;
+    }
+
+    /**
+     * Creates a task which scans the URL of this job.
+     * @return a new task for this job
+     */
+    public WebScanningTask createTask() {
+        return new WebScanningTask(url, urlDepth, source);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getUrlDepth() {
+        return urlDepth;
+    }
+
+    /**
+     * @return host of the URL, or <code>null</code> if it's malformed
+     */
+    public String getHost() {
+        return Utils.extractDomain(url);
     }
 }
@@ -0,0 +1,32 @@
+package rs.raf.kids.kwc.job;
+
+/**
+ * <p>
+ *   An enum that holds all the ways a <code>WebScanningTask</code>
+ *   can read the pages it fetches.
+ * </p>
+ * <p>
+ *   <code>WebScanningMode.DOM</code> downloads the whole page and parses it
+ *   into a Jsoup <code>Document</code>, while
+ *   <code>WebScanningMode.STREAMING</code> tokenizes the page as it arrives,
+ *   counting keywords and collecting links in the same pass.
+ * </p>
+ */
+public enum WebScanningMode {
+    DOM,
+    STREAMING;
+
+    /**
+     * Parses a mode from its name, ignoring case and surrounding whitespace.
+     * @param value name of the mode
+     * @param defaultValue mode to return if <code>value</code> is not a valid name
+     * @return parsed mode, or <code>defaultValue</code>
+     */
+    public static WebScanningMode parseOrDefault(String value, WebScanningMode defaultValue) {
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return defaultValue;
+        }
+    }
+}
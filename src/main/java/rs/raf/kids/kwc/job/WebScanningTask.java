@@ -1,11 +1,19 @@
 package rs.raf.kids.kwc.job;
 
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import rs.raf.kids.kwc.Main;
 import rs.raf.kids.kwc.cli.Logger;
 import rs.raf.kids.kwc.config.AppConfig;
+import rs.raf.kids.kwc.fetch.ContentHashCache;
+import rs.raf.kids.kwc.fetch.FetchedPage;
+import rs.raf.kids.kwc.fetch.PageCache;
+import rs.raf.kids.kwc.fetch.PageFetcher;
+import rs.raf.kids.kwc.fetch.PageResponse;
+import rs.raf.kids.kwc.fetch.PageStream;
 import rs.raf.kids.kwc.pool.WebScannerPool;
+import rs.raf.kids.kwc.result.KeywordCounts;
+import rs.raf.kids.kwc.scan.HtmlKeywordScanner;
+import rs.raf.kids.kwc.scan.KeywordAutomaton;
 import rs.raf.kids.kwc.util.Utils;
 
 import java.io.IOException;
@@ -13,13 +21,13 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.function.Consumer;
 
-public class WebScanningTask implements Callable<Map<String, Integer>> {
+public class WebScanningTask implements Callable<KeywordCounts> {
 
     /**
      * A URL to scan for keywords.
@@ -27,9 +35,9 @@ public class WebScanningTask implements Callable<Map<String, Integer>> {
     private final String urlToScan;
 
     /**
-     * A list of keywords that are being counted.
+     * Automaton that finds keywords in the document.
      */
-    private final Set<String> keywords;
+    private final KeywordAutomaton keywords;
 
     /**
      * Current depth of scan. Any value greater than <code>0</code> will cause
@@ -38,77 +46,287 @@ public class WebScanningTask implements Callable<Map<String, Integer>> {
      */
     private final int urlDepth;
 
+    /**
+     * URL added by the user, which is the source of jobs for found links.
+     */
+    private final String source;
+
+    /**
+     * Fetcher which downloads the document.
+     */
+    private final PageFetcher fetcher;
+
+    /**
+     * The way the fetched page is read.
+     */
+    private final WebScanningMode mode;
+
+    /**
+     * Cache used to revalidate the page, <code>null</code> if pages are not cached.
+     */
+    private final PageCache pageCache;
+
+    /**
+     * Cache of counts of already scanned bodies, <code>null</code> if
+     * duplicate pages are not detected.
+     */
+    private final ContentHashCache contentCache;
+
+    /**
+     * All links found in the page, collected to be cached with it.
+     */
+    private final List<String> foundLinks;
+
+    /**
+     * Set if the page couldn't be fetched, or was fetched with an error status.
+     */
+    private volatile boolean failed;
+
     public WebScanningTask(String urlToScan, int urlDepth) {
+        this(urlToScan, urlDepth, urlToScan);
+    }
+
+    public WebScanningTask(String urlToScan, int urlDepth, String source) {
+        this(urlToScan, urlDepth, source, Main.pageFetcher, AppConfig.webScanningMode, Main.pageCache,
+                Main.contentHashCache);
+    }
+
+    public WebScanningTask(String urlToScan, int urlDepth, PageFetcher fetcher, WebScanningMode mode,
+                           PageCache pageCache, ContentHashCache contentCache) {
+        this(urlToScan, urlDepth, urlToScan, fetcher, mode, pageCache, contentCache);
+    }
+
+    public WebScanningTask(String urlToScan, int urlDepth, String source, PageFetcher fetcher,
+                           WebScanningMode mode, PageCache pageCache, ContentHashCache contentCache) {
         this.urlToScan = urlToScan;
         this.urlDepth = urlDepth;
-        keywords = AppConfig.keywords;
+        this.source = source;
+        this.fetcher = fetcher;
+        this.mode = mode;
+        this.pageCache = pageCache;
+        this.contentCache = contentCache;
+        foundLinks = new ArrayList<>();
+        keywords = AppConfig.keywordAutomaton;
     }
 
     /**
-     * Fetches a HTML document from the URL and counts the occurrences
-     * of keywords in that document. If current depth is greater than
+     * Fetches a HTML document from the URL through <code>PageFetcher</code>
+     * and counts the occurrences of keywords in that document, either by
+     * parsing it with Jsoup or by tokenizing it as it arrives, depending
+     * on <code>WebScanningMode</code>. A page which is cached is only
+     * downloaded if it has changed, otherwise its cached counts and links
+     * are used. If current depth is greater than
      * <code>0</code>, new <code>WebScanningJob</code> will be created
      * and submitted to job queue for every URL found in the document.
      * @return occurrences of every keyword in HTML document
      */
     @Override
-    public Map<String, Integer> call() {
+    public KeywordCounts call() {
         Logger.debugInfo("URL depth = " + urlDepth);
         Logger.info("Started web scan for: web|" + urlToScan);
         try {
-            Document doc = Jsoup.connect(urlToScan).get();
-            if (urlDepth > 0) {
-                checkForInnerUrls(doc);
-            }
-            return scanDocument(doc);
+            return mode == WebScanningMode.STREAMING ? scanStream() : scanPage();
         } catch (IOException e) {
+            failed = true;
             Logger.error(urlToScan + "Web Scanning Error:\n" + e.getMessage());
         }
-        return Map.of();
+        return KeywordCounts.create(keywords.size());
     }
 
     /**
-     * Counts all occurrences of keywords in a document.
-     * @param doc document that is scanned for keywords
-     * @return occurrences of every keyword in given document
+     * Tells whether the page couldn't be fetched. Only meaningful
+     * once the task has finished.
+     * @return <code>true</code> if the fetch failed or got an error status
+     */
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    /**
+     * Fetches the whole page, parses it into a <code>Document</code>
+     * and counts keywords in it. If a page with the same body has already
+     * been scanned, its counts are used instead, and the page is only
+     * parsed if its links have not been followed from this depth yet.
+     * @return occurrences of every keyword in the page
+     * @throws IOException if the page can't be fetched or parsed
      */
-    private Map<String, Integer> scanDocument(Document doc) {
-        Map<String, Integer> result = Utils.initKeywordsMap();
-        List<String> words = keywordsInDocument(doc);
-        for (String word : words) {
-            result.compute(word, (k,v) -> v + 1);
+    private KeywordCounts scanPage() throws IOException {
+        PageCache.Entry cached = cachedPage();
+        FetchedPage page = fetcher.fetch(urlToScan, validatorsOf(cached));
+        if (page.isNotModified() && cached != null)
+            return reuse(cached);
+        if (!isScannable(page))
+            return KeywordCounts.create(keywords.size());
+
+        ContentHashCache.ContentHash hash = contentCache != null ? ContentHashCache.hash(page.body()) : null;
+        ContentHashCache.Entry duplicate = hash != null ? contentCache.get(hash) : null;
+        if (duplicate != null && urlDepth <= duplicate.linkDepth()) {
+            Logger.debugInfo("Duplicate content, using counts of an identical page for: web|" + urlToScan);
+            KeywordCounts counts = duplicate.counts().copy();
+            cache(page, counts, null);
+            return counts;
         }
-        Logger.debugInfo("Finished web scan for: web|" + urlToScan);
-        return result;
+
+        Document doc = page.parse();
+        if (urlDepth > 0) {
+            checkForInnerUrls(doc);
+        }
+        KeywordCounts counts = duplicate != null ? duplicate.counts().copy() : scanDocument(doc);
+        cache(page, counts, urlDepth > 0 ? foundLinks : null);
+        if (hash != null)
+            contentCache.put(hash, counts, urlDepth);
+        return counts;
     }
 
     /**
-     * Splits a document body into words, and cleans and filters them
-     * based on the specified keywords.
-     * @param doc document that is being split into words
-     * @return a list of filtered words in document
+     * Counts keywords in the page while it's being received, without
+     * building a <code>Document</code>. Links are discovered in the
+     * same pass, as soon as they are read. If duplicate pages are
+     * detected, the body is hashed in the same pass too, and links
+     * are only followed once the whole body is read, and only if a page
+     * with the same body has not had its links followed from this depth.
+     * @return occurrences of every keyword in the page
+     * @throws IOException if the page can't be fetched or read
      */
-    private List<String> keywordsInDocument(Document doc) {
-//        Logger.debugWarn(urlToScan + " :: " + Arrays.toString(doc.text().split(" ")));
-        return Arrays.stream(doc.body().text().split(" "))
-                .map(Utils::removePunctuation)
-                .map(String::trim)
-                .filter(keywords::contains)
-                .toList();
+    private KeywordCounts scanStream() throws IOException {
+        PageCache.Entry cached = cachedPage();
+        try (PageStream page = fetcher.open(urlToScan, validatorsOf(cached))) {
+            if (page.isNotModified() && cached != null)
+                return reuse(cached);
+            if (!isScannable(page))
+                return KeywordCounts.create(keywords.size());
+
+            ContentHashCache.HashingInputStream body = contentCache != null
+                    ? ContentHashCache.hashing(page.body())
+                    : null;
+            Consumer<String> linkConsumer = urlDepth == 0 ? link -> {}
+                    : body != null ? foundLinks::add
+                    : this::discoverLink;
+            KeywordCounts counts = KeywordCounts.create(keywords.size());
+            HtmlKeywordScanner scanner = new HtmlKeywordScanner(keywords.matcher(counts), page.url(), linkConsumer);
+            scanner.scan((body != null ? page.withBody(body) : page).reader());
+            Logger.debugInfo("Finished web scan for: web|" + urlToScan);
+            if (body != null)
+                followLinksUnlessDuplicate(body.hash(), counts);
+            cache(page, counts, urlDepth > 0 ? foundLinks : null);
+            return counts;
+        }
+    }
+
+    /**
+     * Follows links collected from a streamed page, unless a page with the
+     * same body has had its links followed from this depth already, and
+     * caches counts of the body.
+     * @param hash hash of the body of the page
+     * @param counts occurrences of every keyword in the page
+     */
+    private void followLinksUnlessDuplicate(ContentHashCache.ContentHash hash, KeywordCounts counts) {
+        ContentHashCache.Entry duplicate = contentCache.get(hash);
+        if (duplicate != null && urlDepth <= duplicate.linkDepth()) {
+            Logger.debugInfo("Duplicate content, links were followed from an identical page for: web|" + urlToScan);
+        } else if (urlDepth > 0) {
+            foundLinks.forEach(this::followLink);
+        }
+        contentCache.put(hash, counts, urlDepth);
+    }
+
+    /**
+     * Looks up the page in the cache. A page cached without links can't be
+     * reused when links need to be followed, so it's treated as not cached.
+     * @return cached page, or <code>null</code> if it's not usable
+     */
+    private PageCache.Entry cachedPage() {
+        if (pageCache == null)
+            return null;
+        PageCache.Entry cached = pageCache.get(urlToScan);
+        return cached != null && (urlDepth == 0 || cached.links() != null) ? cached : null;
+    }
+
+    private static Map<String, String> validatorsOf(PageCache.Entry cached) {
+        return cached != null ? cached.validators() : Map.of();
+    }
+
+    /**
+     * Uses cached counts and links of a page which has not been modified.
+     * @param cached cached page
+     * @return cached counts of the page
+     */
+    private KeywordCounts reuse(PageCache.Entry cached) {
+        Logger.debugInfo("Not modified, using cached counts for: web|" + urlToScan);
+        if (urlDepth > 0)
+            cached.links().forEach(this::discoverLink);
+        return cached.counts();
+    }
+
+    private void cache(PageResponse page, KeywordCounts counts, List<String> links) {
+        if (pageCache != null)
+            pageCache.put(urlToScan, page, counts, links);
+    }
+
+    /**
+     * Checks that a response is a HTML page, reporting it otherwise.
+     * @param page response to check
+     * @return <code>true</code> if the page should be scanned
+     */
+    private boolean isScannable(PageResponse page) {
+        if (!page.isSuccessful()) {
+            failed = true;
+            Logger.error(urlToScan + " Web Scanning Error: HTTP status " + page.statusCode());
+            return false;
+        }
+        if (!page.isHtml()) {
+            Logger.debugWarn(urlToScan + " is not a HTML document: " + page.mediaType());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Counts all occurrences of keywords in a document. Text of document
+     * body is fed to the keyword automaton in a single pass.
+     * @param doc document that is scanned for keywords
+     * @return occurrences of every keyword in given document
+     */
+    private KeywordCounts scanDocument(Document doc) {
+        KeywordCounts counts = KeywordCounts.create(keywords.size());
+        KeywordAutomaton.Matcher matcher = keywords.matcher(counts);
+        matcher.feed(doc.body().text());
+        matcher.finish();
+        Logger.debugInfo("Finished web scan for: web|" + urlToScan);
+        return counts;
     }
 
     /**
      * Scans document for any URL and creates a <code>WebScanningJob</code>
-     * for every URL.
+     * for every URL. Links are only checked to be well formed and not
+     * known to be broken, without connecting to them, since every job
+     * fetches its URL anyway.
      * @param doc document that is being scanned for URLs
      */
     private void checkForInnerUrls(Document doc) {
         doc.select("a[href]")
                 .stream()
                 .map(link -> link.attr("abs:href"))
-                .filter(Utils::isValidUrl)
-                .filter(this::isLinkReadyToScan)
-                .forEach(this::submitUrlScanningJob);
+                .forEach(this::discoverLink);
+    }
+
+    /**
+     * Collects a link found in the document and follows it.
+     * @param link absolute URL of the link
+     */
+    private void discoverLink(String link) {
+        foundLinks.add(link);
+        followLink(link);
+    }
+
+    /**
+     * Submits a new <code>WebScanningJob</code> for a link, if it's well
+     * formed, not known to be broken and ready to be scanned.
+     * @param link absolute URL of the link
+     */
+    private void followLink(String link) {
+        if (Utils.isWellFormedUrl(link) && !Main.urlValidityCache.isKnownInvalid(link) && isLinkReadyToScan(link))
+            submitUrlScanningJob(link);
     }
 
     /**
@@ -129,12 +347,28 @@ public class WebScanningTask implements Callable<Map<String, Integer>> {
     }
 
     /**
-     * Creates a new <code>WebScanningJob</code> for a given URL
-     * and submits it to job queue.
+     * Creates a new <code>WebScanningJob</code> for a given URL and adds
+     * it to the crawl frontier, or submits it to job queue if there is no
+     * frontier, past its capacity if it's full. If
+     * <code>web_drop_links_when_full</code> is set, a URL which doesn't fit
+     * in the queue is dropped instead, as is a URL the frontier can't spill,
+     * and it's forgotten, so it can be scanned once it's discovered again.
      * @param url an URL to create a job for
      */
     private void submitUrlScanningJob(String url) {
-        ScanningJob scanningJob = new WebScanningJob(url, urlDepth - 1);
-        Main.scanningJobQueue.submit(scanningJob);
+        WebScanningJob scanningJob = new WebScanningJob(url, urlDepth - 1, source);
+        boolean added;
+        if (Main.crawlFrontier != null) {
+            added = Main.crawlFrontier.add(scanningJob);
+        } else if (!AppConfig.webDropLinksWhenFull) {
+            WebScannerPool.force(scanningJob);
+            added = true;
+        } else {
+            added = WebScannerPool.offer(scanningJob);
+        }
+        if (!added) {
+            Logger.debugWarn("Job queue is full, dropping url: " + url);
+            WebScannerPool.forgetUrl(url);
+        }
     }
 }
@@ -1,14 +1,17 @@
 package rs.raf.kids.kwc.pool;
 
 import rs.raf.kids.kwc.cli.Logger;
+import rs.raf.kids.kwc.job.ScanType;
 import rs.raf.kids.kwc.job.ScanningJob;
 import rs.raf.kids.kwc.job.ScanningJobQueue;
+import rs.raf.kids.kwc.result.KeywordCounts;
 import rs.raf.kids.kwc.result.ResultRetriever;
 
-import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public abstract class AbstractScannerPool<T extends ScanningJob> implements ScannerPool<T> {
 
@@ -23,9 +26,51 @@ public abstract class AbstractScannerPool<T extends ScanningJob> implements Scan
      */
     protected final ResultRetriever resultRetriever;
 
+    /**
+     * Queue that jobs of this pool are taken from.
+     */
+    protected final ScanningJobQueue jobQueue;
+
+    /**
+     * Runs <code>PoolSizeController</code> of a bounded pool,
+     * <code>null</code> if the pool is not resized.
+     */
+    private ScheduledExecutorService sizeControllerService;
+
     public AbstractScannerPool(ScanningJobQueue jobQueue, ResultRetriever resultRetriever) {
+        this(jobQueue, resultRetriever, Executors.newCachedThreadPool());
+    }
+
+    /**
+     * Creates a pool which runs its jobs on a given executor.
+     * @param jobQueue queue that jobs are taken from
+     * @param resultRetriever retriever to put results of jobs into
+     * @param executorService executor for scanning jobs
+     */
+    protected AbstractScannerPool(ScanningJobQueue jobQueue, ResultRetriever resultRetriever, ExecutorService executorService) {
+        this.jobQueue = jobQueue;
         this.resultRetriever = resultRetriever;
-        executorService = Executors.newCachedThreadPool();
+        this.executorService = executorService;
+    }
+
+    /**
+     * Takes jobs of a given scan type from <code>jobQueue</code> and
+     * accepts them, until a job of type <code>ScanType.TERMINATE</code> is
+     * taken. If the pool is saturated, the caller waits inside of
+     * <code>accept</code> until the pool has room, and meanwhile the queue
+     * of the scan type fills up and holds back its producers.
+     * @param scanType type of jobs this pool executes
+     */
+    @SuppressWarnings("unchecked")
+    public void drain(ScanType scanType) {
+        while (true) {
+            ScanningJob job = jobQueue.next(scanType);
+            if (job.getScanType() == ScanType.TERMINATE)
+                return;
+            if (isSaturated())
+                Logger.debugWarn(scanType + " pool is saturated, waiting for room...");
+            accept((T) job);
+        }
     }
 
     /**
@@ -35,15 +80,50 @@ public abstract class AbstractScannerPool<T extends ScanningJob> implements Scan
      */
     @Override
     public void accept(T job) {
-        Future<Map<String, Integer>> futureResult = job.initiate(executorService);
+        Future<KeywordCounts> futureResult = job.initiate(executorService);
         Logger.debugWarn("Adding query to retriever: " + job.getQuery());
         resultRetriever.addCorpusResult(job.getQuery(), futureResult);
     }
 
+    /**
+     * Starts a <code>PoolSizeController</code> for the executor of this pool,
+     * on a separate daemon thread. Does nothing if the executor is not a
+     * <code>BoundedExecutor</code>, or the interval is not positive.
+     * @param minSize minimum core size of the executor
+     * @param maxSize maximum core size of the executor
+     * @param resizeInterval interval in milliseconds in which core size is adjusted
+     */
+    protected void startSizeController(int minSize, int maxSize, long resizeInterval) {
+        if (!(executorService instanceof BoundedExecutor) || resizeInterval <= 0)
+            return;
+
+        PoolSizeController controller = new PoolSizeController((BoundedExecutor) executorService, minSize, maxSize);
+        if (!controller.isSupported()) {
+            Logger.debugWarn("Thread CPU time is not supported, pool will not be resized");
+            return;
+        }
+        sizeControllerService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, getClass().getSimpleName() + "SizeController");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sizeControllerService.scheduleAtFixedRate(controller, resizeInterval, resizeInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Tells whether a job handed to this pool now would have to wait.
+     * @return <code>true</code> if pool is bounded and saturated
+     */
+    public boolean isSaturated() {
+        return executorService instanceof BoundedExecutor bounded && bounded.isSaturated();
+    }
+
     /**
      * Shuts down executor service.
      */
     public void terminate() {
+        if (sizeControllerService != null)
+            sizeControllerService.shutdown();
         executorService.shutdown();
     }
 }
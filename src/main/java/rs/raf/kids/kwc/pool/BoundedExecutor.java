@@ -0,0 +1,99 @@
+package rs.raf.kids.kwc.pool;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ *   A <code>ThreadPoolExecutor</code> with a bounded number of threads
+ *   and a bounded queue. When both are full, a thread which submits a
+ *   task waits until there is room in the queue, instead of the task
+ *   being rejected, which propagates backpressure to the submitter.
+ * </p>
+ * <p>
+ *   Threads of the executor are tracked, so their CPU time can be
+ *   measured by <code>PoolSizeController</code>.
+ * </p>
+ */
+public class BoundedExecutor extends ThreadPoolExecutor {
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * All live threads of this executor, by thread id.
+     */
+    private final Map<Long, Thread> threads;
+
+    /**
+     * Creates a bounded executor.
+     * @param name prefix of thread names
+     * @param coreSize number of threads kept alive when idle
+     * @param maxSize maximum number of threads
+     * @param queueCapacity maximum number of tasks waiting for a thread
+     */
+    public BoundedExecutor(String name, int coreSize, int maxSize, int queueCapacity) {
+        this(name, coreSize, maxSize, queueCapacity, new ConcurrentHashMap<>());
+    }
+
+    private BoundedExecutor(String name, int coreSize, int maxSize, int queueCapacity, Map<Long, Thread> threads) {
+        super(coreSize, maxSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), trackingFactory(name, threads), new WaitPolicy());
+        this.threads = threads;
+    }
+
+    private static ThreadFactory trackingFactory(String name, Map<Long, Thread> threads) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(() -> {
+                try {
+                    runnable.run();
+                } finally {
+                    threads.remove(Thread.currentThread().getId());
+                }
+            });
+            thread.setName(name + "-" + counter.incrementAndGet());
+            threads.put(thread.getId(), thread);
+            return thread;
+        };
+    }
+
+    /**
+     * @return all live threads of this executor
+     */
+    public Iterable<Thread> threads() {
+        return threads.values();
+    }
+
+    /**
+     * Tells whether a task submitted now would have to wait for room.
+     * @return <code>true</code> if all threads are busy and queue is full
+     */
+    public boolean isSaturated() {
+        return getQueue().remainingCapacity() == 0 && getPoolSize() >= getMaximumPoolSize();
+    }
+
+    /**
+     * A rejection handler which puts a task into queue, waiting for
+     * room if needed, unless the executor is shut down.
+     */
+    private static class WaitPolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown())
+                throw new RejectedExecutionException("Executor has been shut down");
+            try {
+                executor.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for room in queue", e);
+            }
+        }
+    }
+}
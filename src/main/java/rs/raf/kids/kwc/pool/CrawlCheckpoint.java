@@ -0,0 +1,551 @@
+package rs.raf.kids.kwc.pool;
+
+import rs.raf.kids.kwc.Stoppable;
+import rs.raf.kids.kwc.cli.Logger;
+import rs.raf.kids.kwc.job.ScanningJobQueue;
+import rs.raf.kids.kwc.job.WebScanningJob;
+import rs.raf.kids.kwc.result.KeywordCounts;
+import rs.raf.kids.kwc.result.ResultRetriever;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ *   Checkpoints of a web crawl, so a crawl interrupted by a restart resumes
+ *   where it stopped. Counts of every scanned page are appended to a log as
+ *   soon as the page completes, and URLs still waiting to be scanned, which
+ *   are jobs in the <code>CrawlFrontier</code>, and jobs which were submitted
+ *   to the job queue but have not completed yet, are periodically written
+ *   to a snapshot. Neither is kept in memory beyond the jobs themselves.
+ * </p>
+ * <p>
+ *   On startup, counts of scanned pages are put into the result retriever
+ *   without fetching the pages again, and waiting URLs are submitted anew.
+ *   Every URL of the checkpoint is marked as visited, so links to it are not
+ *   followed again.
+ * </p>
+ * <p>
+ *   A snapshot is written to a temporary file which then replaces the
+ *   previous one, so a crash while writing leaves the previous snapshot
+ *   intact. The log is flushed before, so every page missing from the new
+ *   snapshot is in the log, and a record cut short by a crash ends the log.
+ *   Counts are stored against the keywords in the header of the log, and a
+ *   checkpoint written for other keywords is discarded.
+ * </p>
+ */
+public class CrawlCheckpoint implements Stoppable {
+
+    private static final int MAGIC = 0x6b776363;
+
+    private static final int LOG_MAGIC = 0x6b77636c;
+
+    private static final int VERSION = 2;
+
+    private static final byte PENDING = 2;
+
+    private static final byte END = 0;
+
+    /**
+     * The log is rewritten on resume if it holds more than this many
+     * records per scanned page, and more than <code>MIN_COMPACTED_RECORDS</code>.
+     */
+    private static final int MAX_RECORDS_PER_URL = 2;
+
+    private static final int MIN_COMPACTED_RECORDS = 4096;
+
+    private static final int LOG_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Snapshot of waiting URLs.
+     */
+    private final File file;
+
+    /**
+     * Log of scanned pages.
+     */
+    private final File logFile;
+
+    private final List<String> keywords;
+
+    private final long interval;
+
+    /**
+     * Jobs which were submitted to the job queue and have not completed, by URL.
+     */
+    private final Map<String, WebScanningJob> submitted;
+
+    /**
+     * Incremented on every change, so unchanged crawls are not written again.
+     */
+    private final AtomicLong version;
+
+    /**
+     * Number of records appended to the log since it was opened.
+     */
+    private final AtomicLong logged;
+
+    private final ScheduledExecutorService checkpointService;
+
+    private CrawlFrontier frontier;
+
+    /**
+     * Appends records to the log, <code>null</code> while it's not open.
+     * Guarded by itself once it's open.
+     */
+    private volatile DataOutputStream log;
+
+    private long writtenVersion;
+
+    /**
+     * @param file file of the snapshot, next to which the log is kept,
+     *             with the <code>.log</code> suffix
+     * @param keywords keywords that counts are kept for, in ordinal order
+     * @param interval time between snapshots, in milliseconds
+     */
+    public CrawlCheckpoint(File file, List<String> keywords, long interval) {
+        this.file = file;
+        this.keywords = keywords;
+        this.interval = Math.max(1, interval);
+        logFile = new File(file.getPath() + ".log");
+        submitted = new ConcurrentHashMap<>();
+        version = new AtomicLong();
+        logged = new AtomicLong();
+        writtenVersion = -1;
+        checkpointService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "CrawlCheckpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Records a job which is about to be submitted to the job queue.
+     * Must be called before the job is submitted, so it's never seen
+     * to complete before it's tracked.
+     * @param job a web scanning job
+     */
+    public void track(WebScanningJob job) {
+        submitted.put(job.getUrl(), job);
+        version.incrementAndGet();
+    }
+
+    /**
+     * Forgets a job which could not be submitted after all.
+     * @param job a tracked job
+     */
+    public void untrack(WebScanningJob job) {
+        submitted.remove(job.getUrl(), job);
+    }
+
+    /**
+     * Records result of a job. Counts are appended to the log before the
+     * job stops being tracked, so a snapshot being written sees at least one.
+     * @param job a completed job
+     * @param counts counts of the page, or <code>null</code> if
+     *               it could not be scanned
+     */
+    public void complete(WebScanningJob job, KeywordCounts counts) {
+        if (counts != null)
+            append(job.getUrl(), counts);
+        submitted.remove(job.getUrl());
+        version.incrementAndGet();
+    }
+
+    /**
+     * Resumes the crawl from the last checkpoint, if there is one, opens
+     * the log, and starts writing snapshots periodically.
+     * @param resultRetriever retriever to put counts of scanned pages into
+     * @param frontier frontier to add waiting URLs to and take snapshots
+     *                 of, or <code>null</code> to submit them to the queue
+     * @param jobQueue queue to submit waiting URLs to if there is no frontier
+     */
+    public void start(ResultRetriever resultRetriever, CrawlFrontier frontier, ScanningJobQueue jobQueue) {
+        this.frontier = frontier;
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null)
+                Files.createDirectories(parent.toPath());
+            resume(resultRetriever, frontier, jobQueue);
+        } catch (IOException e) {
+            Logger.error("Crawl checkpoint is disabled, can't use " + logFile + ": " + e.getMessage());
+            return;
+        }
+        checkpointService.scheduleWithFixedDelay(this::checkpoint, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops periodic snapshots, writes the last one and closes the
+     * log. Must be called before the frontier is stopped.
+     */
+    @Override
+    public void stop() {
+        checkpointService.shutdown();
+        try {
+            checkpointService.awaitTermination(interval, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ignored) {}
+        DataOutputStream current = log;
+        if (current == null)
+            return;
+        checkpoint();
+        synchronized (current) {
+            log = null;
+            try {
+                current.close();
+            } catch (IOException e) {
+                Logger.debugWarn("Failed to close crawl log " + logFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return number of scanned pages logged since the crawl was resumed
+     */
+    public long loggedUrls() {
+        return logged.get();
+    }
+
+    /**
+     * Appends counts of a scanned page to the log. The log is flushed with
+     * every snapshot, so pages logged after the last one may be fetched
+     * again after a crash, but never lost from a snapshot.
+     */
+    private void append(String url, KeywordCounts counts) {
+        DataOutputStream out = log;
+        if (out == null)
+            return;
+        synchronized (out) {
+            if (log != out)
+                return;
+            try {
+                writeCompleted(out, url, counts);
+                logged.incrementAndGet();
+            } catch (IOException e) {
+                Logger.debugWarn("Failed to append to crawl log " + logFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot of waiting URLs, if the crawl has changed since the
+     * last one. Waiting jobs are read from the frontier before the submitted
+     * ones, and the log is flushed after both, since jobs only move in that
+     * order, so a job moving while the snapshot is written is not missed.
+     */
+    private synchronized void checkpoint() {
+        long current = version.get();
+        if (current == writtenVersion)
+            return;
+        long start = System.currentTimeMillis();
+        File temporary = new File(file.getPath() + ".tmp");
+        try {
+            long pending = 0;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                if (frontier != null) {
+                    // jobs are written as they are read, since spilled ones may not fit in memory
+                    long[] spilled = new long[1];
+                    frontier.forEach(job -> {
+                        try {
+                            writePending(out, job);
+                            spilled[0]++;
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    pending += spilled[0];
+                }
+                for (WebScanningJob job : submitted.values()) {
+                    writePending(out, job);
+                    pending++;
+                }
+                out.writeByte(END);
+            }
+            flushLog();
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            writtenVersion = current;
+            Logger.debugInfo("Checkpointed " + pending + " waiting urls in " + (System.currentTimeMillis() - start) + "ms");
+        } catch (IOException | UncheckedIOException e) {
+            Logger.debugError("Can't write crawl checkpoint " + file + ": " + e.getMessage());
+            temporary.delete();
+        }
+    }
+
+    private void flushLog() throws IOException {
+        DataOutputStream out = log;
+        if (out == null)
+            return;
+        synchronized (out) {
+            if (log == out)
+                out.flush();
+        }
+    }
+
+    private static void writePending(DataOutputStream out, WebScanningJob job) throws IOException {
+        out.writeByte(PENDING);
+        writeString(out, job.getUrl());
+        out.writeInt(job.getUrlDepth());
+        writeString(out, job.getSource());
+    }
+
+    /**
+     * Writes a record of a scanned page, which starts with its length,
+     * so a record cut short is recognized.
+     */
+    private static void writeCompleted(DataOutputStream out, String url, KeywordCounts counts) throws IOException {
+        byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+        int[] nonZero = new int[1];
+        counts.forEachNonZero((ordinal, count) -> nonZero[0]++);
+        out.writeInt(Integer.BYTES * 2 + bytes.length + nonZero[0] * (Integer.BYTES + Long.BYTES));
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.writeInt(nonZero[0]);
+        try {
+            counts.forEachNonZero((ordinal, count) -> {
+                try {
+                    out.writeInt(ordinal);
+                    out.writeLong(count);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Restores counts of scanned pages and resubmits waiting URLs, and
+     * opens the log for appending. A log which can't be read, or was
+     * written for other keywords, is discarded along with the snapshot,
+     * so the crawl starts from scratch.
+     */
+    private void resume(ResultRetriever resultRetriever, CrawlFrontier frontier, ScanningJobQueue jobQueue)
+            throws IOException {
+        long start = System.currentTimeMillis();
+        Map<String, KeywordCounts> scanned = new HashMap<>();
+        if (!readLog(scanned)) {
+            resetLog();
+            openLog();
+            return;
+        }
+        Map<String, WebScanningJob> waiting = readSnapshot();
+        // opened before jobs are resubmitted, so their pages are logged
+        openLog();
+
+        scanned.forEach((url, counts) -> {
+            WebScannerPool.isUrlReadyToScan(url);
+            resultRetriever.addCorpusResult("web|" + url, CompletableFuture.completedFuture(counts));
+        });
+        int resubmitted = 0;
+        for (WebScanningJob job : waiting.values()) {
+            // a page may have completed while its job was being snapshotted
+            if (scanned.containsKey(job.getUrl()))
+                continue;
+            WebScannerPool.isUrlReadyToScan(job.getUrl());
+            if (frontier != null) {
+                if (!frontier.add(job))
+                    continue;
+            } else {
+                track(job);
+                jobQueue.submit(job);
+            }
+            resubmitted++;
+        }
+        if (!scanned.isEmpty() || resubmitted > 0)
+            Logger.info("Resumed crawl with " + scanned.size() + " scanned and " + resubmitted + " waiting urls in "
+                    + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Reads all complete records of the log, cuts off an incomplete one,
+     * and compacts the log if it holds many records per page.
+     * @param scanned receiver of the last counts of every logged page
+     * @return <code>false</code> if there is no usable log
+     */
+    private boolean readLog(Map<String, KeywordCounts> scanned) throws IOException {
+        if (!logFile.isFile())
+            return false;
+        long end;
+        long records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+            if (in.readInt() != LOG_MAGIC || in.readInt() != VERSION || !readKeywords(in)) {
+                Logger.debugWarn("Discarding crawl checkpoint " + logFile + ", it was written for other keywords");
+                return false;
+            }
+            end = headerSize();
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] record = in.readNBytes(Math.max(0, length));
+                if (length <= 0 || record.length < length)
+                    break;
+                try {
+                    readCompleted(new DataInputStream(new ByteArrayInputStream(record)), scanned);
+                } catch (IOException e) {
+                    // a corrupt record ends the log, like an incomplete one
+                    break;
+                }
+                end += Integer.BYTES + length;
+                records++;
+            }
+        } catch (EOFException e) {
+            return false;
+        } catch (IOException | IllegalArgumentException e) {
+            Logger.error("Can't read crawl checkpoint " + logFile + ", the crawl starts from scratch: " + e.getMessage());
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE)) {
+            // an incomplete record is dropped, so appended records follow complete ones
+            if (channel.size() > end)
+                channel.truncate(end);
+        }
+        if (records > MIN_COMPACTED_RECORDS && records > (long) scanned.size() * MAX_RECORDS_PER_URL)
+            rewriteLog(scanned);
+        return true;
+    }
+
+    private Map<String, WebScanningJob> readSnapshot() {
+        Map<String, WebScanningJob> waiting = new HashMap<>();
+        if (!file.isFile())
+            return waiting;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("not a crawl checkpoint");
+            byte type;
+            while ((type = in.readByte()) != END) {
+                if (type != PENDING)
+                    throw new IOException("unknown record type " + type);
+                String url = readString(in);
+                int depth = in.readInt();
+                // a job submitted again keeps the greater depth
+                WebScanningJob job = new WebScanningJob(url, depth, readString(in));
+                waiting.merge(url, job, (queued, newer) -> queued.getUrlDepth() >= newer.getUrlDepth() ? queued : newer);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            Logger.error("Can't read crawl checkpoint " + file + ", waiting urls are dropped: " + e.getMessage());
+            waiting.clear();
+        }
+        return waiting;
+    }
+
+    private void openLog() throws IOException {
+        log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true), LOG_BUFFER_SIZE));
+    }
+
+    /**
+     * Starts an empty log, and drops the snapshot, whose
+     * waiting URLs are useless without their scanned pages.
+     */
+    private void resetLog() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile)))) {
+            writeLogHeader(out);
+        }
+        Files.deleteIfExists(file.toPath());
+    }
+
+    /**
+     * Replaces the log with one that holds a single record per page.
+     */
+    private void rewriteLog(Map<String, KeywordCounts> scanned) throws IOException {
+        File temporary = new File(logFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            writeLogHeader(out);
+            for (Map.Entry<String, KeywordCounts> entry : scanned.entrySet()) {
+                writeCompleted(out, entry.getKey(), entry.getValue());
+            }
+        }
+        Files.move(temporary.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeLogHeader(DataOutputStream out) throws IOException {
+        out.writeInt(LOG_MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(keywords.size());
+        for (String keyword : keywords) {
+            writeString(out, keyword);
+        }
+    }
+
+    private long headerSize() {
+        long size = Integer.BYTES * 3;
+        for (String keyword : keywords) {
+            size += Integer.BYTES + keyword.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return size;
+    }
+
+    /**
+     * Reads keywords of the log header and checks that they are current.
+     * @return <code>true</code> if counts of the log can be used
+     */
+    private boolean readKeywords(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count != keywords.size())
+            return false;
+        for (int i = 0; i < count; i++) {
+            if (!keywords.get(i).equals(readString(in)))
+                return false;
+        }
+        return true;
+    }
+
+    private void readCompleted(DataInputStream in, Map<String, KeywordCounts> scanned) throws IOException {
+        String url = readString(in);
+        KeywordCounts counts = KeywordCounts.create(keywords.size());
+        int nonZero = in.readInt();
+        for (int i = 0; i < nonZero; i++) {
+            int ordinal = in.readInt();
+            if (ordinal < 0 || ordinal >= keywords.size())
+                throw new IOException("keyword ordinal " + ordinal + " out of range");
+            counts.add(ordinal, in.readLong());
+        }
+        scanned.put(url, counts);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            throw new IOException("negative string length " + length);
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length < length)
+            throw new EOFException();
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,455 @@
+package rs.raf.kids.kwc.pool;
+
+import rs.raf.kids.kwc.Stoppable;
+import rs.raf.kids.kwc.cli.Logger;
+import rs.raf.kids.kwc.job.ScanningJobQueue;
+import rs.raf.kids.kwc.job.WebScanningJob;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ *   Web scanning jobs for links found by scanning tasks, waiting to be
+ *   submitted to <code>ScanningJobQueue</code>. A single feeder thread
+ *   submits them, waiting whenever the queue of web jobs is full, so the
+ *   frontier absorbs however many links a crawl discovers.
+ * </p>
+ * <p>
+ *   At most <code>capacity</code> jobs are kept in memory. They are taken
+ *   by remaining depth, lowest first, since pages which don't follow their
+ *   links complete a branch of the crawl without growing the frontier. Jobs
+ *   of the same depth are taken from their hosts in round-robin order, so
+ *   a host with many links doesn't starve the others.
+ * </p>
+ * <p>
+ *   Jobs which don't fit in memory are appended to a spill file, and read
+ *   back in order of addition as room is freed. The file is truncated once
+ *   all of its jobs have been read, so it only grows while the crawl is
+ *   wider than memory allows.
+ * </p>
+ */
+public class CrawlFrontier implements Stoppable {
+
+    private static final int SPILL_BUFFER_SIZE = 1 << 16;
+
+    private final ScanningJobQueue jobQueue;
+
+    private final int capacity;
+
+    private final File spillFile;
+
+    private final FileChannel spill;
+
+    /**
+     * Spilled jobs not yet written to the file.
+     */
+    private final ByteBuffer spillBuffer;
+
+    private final ReentrantLock lock;
+
+    /**
+     * Signalled when a job is added or the frontier stops.
+     */
+    private final Condition notEmpty;
+
+    /**
+     * Jobs in memory by remaining depth.
+     */
+    private final TreeMap<Integer, Level> levels;
+
+    /**
+     * Called with every job taken for submission, while holding the lock.
+     */
+    private final Consumer<WebScanningJob> takeListener;
+
+    private final Thread feeder;
+
+    private int size;
+
+    /**
+     * Position in the spill file of the first job not yet read back.
+     */
+    private long readPosition;
+
+    /**
+     * Number of spilled jobs not yet read back.
+     */
+    private long spilled;
+
+    private boolean running;
+
+    /**
+     * @param jobQueue queue to submit jobs to
+     * @param capacity maximum number of jobs kept in memory
+     * @param spillFile file which holds jobs that don't fit in memory,
+     *                  truncated when the frontier is created
+     * @throws IOException if the spill file can't be created
+     */
+    public CrawlFrontier(ScanningJobQueue jobQueue, int capacity, File spillFile) throws IOException {
+        this(jobQueue, capacity, spillFile, job -> {});
+    }
+
+    /**
+     * @param jobQueue queue to submit jobs to
+     * @param capacity maximum number of jobs kept in memory
+     * @param spillFile file which holds jobs that don't fit in memory,
+     *                  truncated when the frontier is created
+     * @param takeListener called with every job taken for submission, before
+     *                     it leaves the frontier, so together with
+     *                     <code>forEach</code> no job is missed
+     * @throws IOException if the spill file can't be created
+     */
+    public CrawlFrontier(ScanningJobQueue jobQueue, int capacity, File spillFile,
+                         Consumer<WebScanningJob> takeListener) throws IOException {
+        this.jobQueue = jobQueue;
+        this.takeListener = takeListener;
+        this.capacity = Math.max(1, capacity);
+        this.spillFile = spillFile;
+        File parent = spillFile.getAbsoluteFile().getParentFile();
+        if (parent != null)
+            parent.mkdirs();
+        spill = FileChannel.open(spillFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        spillBuffer = ByteBuffer.allocate(SPILL_BUFFER_SIZE);
+        lock = new ReentrantLock();
+        notEmpty = lock.newCondition();
+        levels = new TreeMap<>();
+        running = true;
+        feeder = new Thread(this::feed, "CrawlFrontierFeeder");
+        feeder.setDaemon(true);
+        feeder.start();
+    }
+
+    /**
+     * Adds a job to the frontier, without waiting. The job is kept in
+     * memory if there is room, otherwise it's spilled to the file.
+     * @param job a job for a found link
+     * @return <code>false</code> if the job could not be spilled, or
+     * the frontier has stopped
+     */
+    public boolean add(WebScanningJob job) {
+        lock.lock();
+        try {
+            if (!running)
+                return false;
+            if (size < capacity && spilled == 0) {
+                // spilled jobs were found earlier, so they go first
+                enqueue(job);
+            } else if (!spill(job)) {
+                return false;
+            }
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of jobs in memory and in the spill file
+     */
+    public long size() {
+        lock.lock();
+        try {
+            return size + spilled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Calls <code>action</code> for every job in memory and in the spill
+     * file, while holding the lock, so no job is taken in the meantime.
+     * @param action receiver of the jobs
+     * @throws IOException if the spill file can't be read
+     */
+    public void forEach(Consumer<WebScanningJob> action) throws IOException {
+        lock.lock();
+        try {
+            for (Level level : levels.values()) {
+                for (Host host : level.ring) {
+                    host.jobs.forEach(action);
+                }
+            }
+            if (spilled == 0)
+                return;
+            flush();
+            ByteBuffer chunk = ByteBuffer.allocate(SPILL_BUFFER_SIZE);
+            long position = readPosition;
+            long remaining = spilled;
+            while (remaining > 0) {
+                chunk.clear();
+                if (spill.read(chunk, position) <= 0)
+                    throw new IOException("spill file ends before " + remaining + " urls");
+                chunk.flip();
+                int start = chunk.position();
+                WebScanningJob job;
+                while (remaining > 0 && (job = readJob(chunk)) != null) {
+                    action.accept(job);
+                    remaining--;
+                }
+                if (chunk.position() == start) {
+                    if (chunk.limit() < chunk.capacity())
+                        throw new IOException("spill file ends within a record");
+                    chunk = ByteBuffer.allocate(chunk.capacity() * 2);
+                }
+                position += chunk.position() - start;
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("spill file is corrupt", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the feeder and deletes the spill file. Jobs which
+     * were not submitted yet are dropped.
+     */
+    @Override
+    public void stop() {
+        lock.lock();
+        try {
+            running = false;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        feeder.interrupt();
+        try {
+            spill.close();
+        } catch (IOException ignored) {}
+        if (!spillFile.delete())
+            Logger.debugWarn("Can't delete spill file " + spillFile);
+    }
+
+    /**
+     * Main loop of the feeder thread.
+     */
+    private void feed() {
+        while (true) {
+            WebScanningJob job;
+            lock.lock();
+            try {
+                while (running && size == 0 && spilled == 0)
+                    notEmpty.await();
+                if (!running)
+                    return;
+                refill();
+                job = take();
+                if (job != null)
+                    takeListener.accept(job);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            // submitted without holding the lock, since it waits
+            // while the queue of web jobs is full
+            if (job != null)
+                jobQueue.submit(job);
+        }
+    }
+
+    private void enqueue(WebScanningJob job) {
+        levels.computeIfAbsent(job.getUrlDepth(), depth -> new Level()).add(job);
+        size++;
+    }
+
+    /**
+     * Takes a job of the lowest depth, from the next host in turn.
+     * Must be called while holding the lock.
+     */
+    private WebScanningJob take() {
+        Map.Entry<Integer, Level> lowest = levels.firstEntry();
+        if (lowest == null)
+            return null;
+        WebScanningJob job = lowest.getValue().poll();
+        if (lowest.getValue().isEmpty())
+            levels.remove(lowest.getKey());
+        size--;
+        return job;
+    }
+
+    /**
+     * Appends a job to the spill file. Must be called while holding the lock.
+     * @return <code>false</code> if the job could not be written
+     */
+    private boolean spill(WebScanningJob job) {
+        byte[] url = job.getUrl().getBytes(StandardCharsets.UTF_8);
+        byte[] source = job.getSource().getBytes(StandardCharsets.UTF_8);
+        int length = Integer.BYTES * 3 + url.length + source.length;
+        try {
+            if (spillBuffer.remaining() < Integer.BYTES + length)
+                flush();
+            ByteBuffer record = length + Integer.BYTES <= spillBuffer.remaining()
+                    ? spillBuffer : ByteBuffer.allocate(Integer.BYTES + length);
+            record.putInt(length).putInt(job.getUrlDepth())
+                    .putInt(url.length).put(url)
+                    .putInt(source.length).put(source);
+            if (record != spillBuffer)
+                write(record.flip());
+            spilled++;
+            return true;
+        } catch (IOException e) {
+            Logger.debugError("Can't spill url " + job.getUrl() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Reads spilled jobs back into memory while there is room,
+     * in order they were spilled. Must be called while holding the lock.
+     */
+    private void refill() {
+        // read in batches, once half of memory is free
+        if (spilled == 0 || size > capacity / 2)
+            return;
+        try {
+            flush();
+            ByteBuffer chunk = ByteBuffer.allocate(SPILL_BUFFER_SIZE);
+            while (spilled > 0 && size < capacity) {
+                chunk.clear();
+                if (spill.read(chunk, readPosition) <= 0)
+                    throw new IOException("spill file ends before " + spilled + " urls");
+                chunk.flip();
+                if (readRecords(chunk) == 0) {
+                    if (chunk.limit() < chunk.capacity())
+                        throw new IOException("spill file ends within a record");
+                    // a record larger than the chunk
+                    chunk = ByteBuffer.allocate(chunk.capacity() * 2);
+                }
+            }
+            if (spilled == 0) {
+                spill.truncate(0);
+                readPosition = 0;
+            }
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            Logger.error("Can't read spilled urls, " + spilled + " urls are dropped: " + e.getMessage());
+            spilled = 0;
+            readPosition = 0;
+            try {
+                spill.truncate(0);
+            } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * Reads complete records from a chunk of the spill file.
+     * @return number of bytes read
+     * @throws BufferUnderflowException if a record is corrupt
+     */
+    private int readRecords(ByteBuffer chunk) {
+        int start = chunk.position();
+        WebScanningJob job;
+        while (spilled > 0 && size < capacity && (job = readJob(chunk)) != null) {
+            enqueue(job);
+            spilled--;
+        }
+        int read = chunk.position() - start;
+        readPosition += read;
+        return read;
+    }
+
+    /**
+     * Reads a job from a chunk of the spill file.
+     * @return the job, or <code>null</code> if the chunk
+     * doesn't hold a complete record
+     * @throws BufferUnderflowException if the record is corrupt
+     */
+    private static WebScanningJob readJob(ByteBuffer chunk) {
+        if (chunk.remaining() < Integer.BYTES)
+            return null;
+        int recordStart = chunk.position();
+        int length = chunk.getInt();
+        if (chunk.remaining() < length) {
+            chunk.position(recordStart);
+            return null;
+        }
+        int depth = chunk.getInt();
+        String url = readString(chunk);
+        String source = readString(chunk);
+        return new WebScanningJob(url, depth, source);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes buffered spilled jobs to the end of the file.
+     */
+    private void flush() throws IOException {
+        spillBuffer.flip();
+        write(spillBuffer);
+        spillBuffer.clear();
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        long position = spill.size();
+        while (buffer.hasRemaining())
+            position += spill.write(buffer, position);
+    }
+
+    /**
+     * Jobs of a single depth, in queues of their hosts.
+     */
+    private static class Level {
+
+        private final Map<String, Host> hosts = new HashMap<>();
+
+        /**
+         * Hosts which have jobs, in round-robin order.
+         */
+        private final Queue<Host> ring = new ArrayDeque<>();
+
+        void add(WebScanningJob job) {
+            String name = job.getHost() != null ? job.getHost() : "";
+            Host host = hosts.computeIfAbsent(name, Host::new);
+            if (host.jobs.isEmpty())
+                ring.add(host);
+            host.jobs.add(job);
+        }
+
+        WebScanningJob poll() {
+            Host host = ring.poll();
+            WebScanningJob job = host.jobs.poll();
+            if (host.jobs.isEmpty()) {
+                hosts.remove(host.name);
+            } else {
+                ring.add(host);
+            }
+            return job;
+        }
+
+        boolean isEmpty() {
+            return ring.isEmpty();
+        }
+    }
+
+    private static class Host {
+        private final String name;
+        private final Queue<WebScanningJob> jobs;
+
+        private Host(String name) {
+            this.name = name;
+            jobs = new ArrayDeque<>();
+        }
+    }
+}
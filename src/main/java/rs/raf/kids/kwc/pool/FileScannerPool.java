@@ -1,13 +1,22 @@
 package rs.raf.kids.kwc.pool;
 
+import rs.raf.kids.kwc.config.AppConfig;
 import rs.raf.kids.kwc.job.FileScanningJob;
 import rs.raf.kids.kwc.job.ScanningJobQueue;
 import rs.raf.kids.kwc.result.ResultRetriever;
 
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A pool for file scanning jobs. Jobs run as fork/join tasks on a
+ * <code>ForkJoinPool</code> with a fixed number of workers, so the
+ * number of threads stays the same however many corpora are scanned,
+ * and workers join subtasks by stealing work instead of blocking.
+ */
 public class FileScannerPool extends AbstractScannerPool<FileScanningJob> {
 
     public FileScannerPool(ScanningJobQueue jobQueue, ResultRetriever resultRetriever) {
-        super(jobQueue, resultRetriever);
+        super(jobQueue, resultRetriever, new ForkJoinPool(AppConfig.fileScannerParallelism));
     }
 
 }
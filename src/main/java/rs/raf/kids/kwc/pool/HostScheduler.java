@@ -0,0 +1,396 @@
+package rs.raf.kids.kwc.pool;
+
+import rs.raf.kids.kwc.cli.Logger;
+import rs.raf.kids.kwc.job.WebScanningJob;
+import rs.raf.kids.kwc.job.WebScanningTask;
+import rs.raf.kids.kwc.result.KeywordCounts;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ *   Schedules web scanning jobs politely towards the hosts they scan.
+ *   Every host gets its own queue of jobs, and a single scheduler thread
+ *   takes jobs from host queues in round-robin order, so a host with many
+ *   discovered links doesn't starve the others, and hands them to an
+ *   executor.
+ * </p>
+ * <p>
+ *   A job of a host is only started if the host is under its concurrency
+ *   limit and enough time has passed since its previous request, which
+ *   bounds the request rate of every host. The concurrency limit of a host
+ *   adapts to its responses (AIMD): it grows by about one request per round
+ *   trip while requests succeed within the latency target, and is halved,
+ *   at most once per round trip, when a request fails or is too slow.
+ * </p>
+ * <p>
+ *   Jobs waiting in host queues are bounded, and a thread which hands a job
+ *   to a full scheduler waits until there is room. A host with no queued
+ *   or running jobs is forgotten once it may be requested again, so the
+ *   scheduler only keeps state of hosts which are being crawled.
+ * </p>
+ */
+public class HostScheduler {
+
+    private static final double INITIAL_LIMIT = 2.0;
+
+    private static final double MIN_LIMIT = 1.0;
+
+    private final ExecutorService executorService;
+
+    private final double maxLimit;
+
+    /**
+     * Minimum time between two requests to the same host, in nanoseconds.
+     */
+    private final long requestInterval;
+
+    /**
+     * Requests slower than this reduce concurrency, in nanoseconds.
+     */
+    private final long latencyTarget;
+
+    private final int capacity;
+
+    private final ReentrantLock lock;
+
+    /**
+     * Signalled when a job is added, a job completes or the scheduler stops.
+     */
+    private final Condition changed;
+
+    /**
+     * Signalled when a job leaves a host queue.
+     */
+    private final Condition notFull;
+
+    private final Map<String, Host> hosts;
+
+    /**
+     * Hosts which have queued jobs, in round-robin order.
+     */
+    private final Queue<Host> ring;
+
+    /**
+     * Hosts which had no queued or running jobs, in the order they became
+     * idle. They are removed from <code>hosts</code> by the scheduler thread
+     * once their request interval has passed, unless they got a job since.
+     */
+    private final Queue<Host> idle;
+
+    private final Thread thread;
+
+    private int queued;
+
+    private boolean running;
+
+    /**
+     * @param executorService executor which runs scheduled jobs
+     * @param maxConcurrency maximum concurrency limit of a single host
+     * @param requestRate maximum requests per second to a single host,
+     *                    or <code>0</code> for no limit
+     * @param latencyTarget latency in milliseconds above which a request
+     *                      counts as congestion
+     * @param capacity maximum number of jobs waiting in host queues
+     */
+    public HostScheduler(ExecutorService executorService, int maxConcurrency, double requestRate,
+                         long latencyTarget, int capacity) {
+        this.executorService = executorService;
+        this.maxLimit = Math.max(MIN_LIMIT, maxConcurrency);
+        this.requestInterval = requestRate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / requestRate) : 0;
+        this.latencyTarget = TimeUnit.MILLISECONDS.toNanos(latencyTarget);
+        this.capacity = capacity;
+        lock = new ReentrantLock();
+        changed = lock.newCondition();
+        notFull = lock.newCondition();
+        hosts = new HashMap<>();
+        ring = new ArrayDeque<>();
+        idle = new ArrayDeque<>();
+        running = true;
+        thread = new Thread(this::schedule, "WebHostScheduler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Adds a job to the queue of its host, waiting for room if the
+     * scheduler is full.
+     * @param job job to schedule
+     * @return a future result of the job
+     * @throws RejectedExecutionException if the scheduler has been stopped,
+     * or the thread is interrupted while waiting
+     */
+    public CompletableFuture<KeywordCounts> schedule(WebScanningJob job) {
+        CompletableFuture<KeywordCounts> result = new CompletableFuture<>();
+        String hostName = job.getHost() != null ? job.getHost() : "";
+        lock.lock();
+        try {
+            while (running && queued >= capacity)
+                notFull.await();
+            if (!running)
+                throw new RejectedExecutionException("Host scheduler has been stopped");
+
+            Host host = hosts.computeIfAbsent(hostName, Host::new);
+            host.jobs.add(new Pending(job, result));
+            if (!host.inRing) {
+                host.inRing = true;
+                ring.add(host);
+            }
+            queued++;
+            changed.signal();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for room in host queues", e);
+        } finally {
+            lock.unlock();
+        }
+        return result;
+    }
+
+    /**
+     * @return <code>true</code> if host queues are full
+     */
+    public boolean isSaturated() {
+        lock.lock();
+        try {
+            return queued >= capacity;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the scheduler. Jobs which haven't been started are cancelled.
+     */
+    public void stop() {
+        List<Pending> cancelled = new ArrayList<>();
+        lock.lock();
+        try {
+            running = false;
+            for (Host host : hosts.values()) {
+                cancelled.addAll(host.jobs);
+                host.jobs.clear();
+            }
+            ring.clear();
+            queued = 0;
+            changed.signal();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        cancelled.forEach(pending -> pending.result.cancel(false));
+    }
+
+    /**
+     * Main loop of the scheduler thread.
+     */
+    private void schedule() {
+        while (true) {
+            List<Pending> ready;
+            lock.lock();
+            try {
+                ready = takeReadyJobs();
+                if (!running)
+                    return;
+                if (ready.isEmpty()) {
+                    awaitChange();
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            // submitted without holding the lock, since a bounded
+            // executor may block until it has room
+            ready.forEach(this::start);
+        }
+    }
+
+    /**
+     * Takes at most one job from every host which may be requested now,
+     * in round-robin order. Must be called while holding the lock.
+     */
+    private List<Pending> takeReadyJobs() {
+        List<Pending> ready = new ArrayList<>();
+        long now = System.nanoTime();
+        removeIdleHosts(now);
+        for (int i = ring.size(); i > 0; i--) {
+            Host host = ring.poll();
+            if (host.isReady(now)) {
+                ready.add(host.jobs.poll());
+                host.inFlight++;
+                host.nextRequestAt = now + requestInterval;
+                queued--;
+            }
+            if (host.jobs.isEmpty()) {
+                host.inRing = false;
+            } else {
+                ring.add(host);
+            }
+        }
+        if (!ready.isEmpty())
+            notFull.signalAll();
+        return ready;
+    }
+
+    /**
+     * Removes hosts which are still idle, and which may already be
+     * requested again, so a new job for them is not started sooner than
+     * their rate allows. Must be called while holding the lock.
+     */
+    private void removeIdleHosts(long now) {
+        for (int i = idle.size(); i > 0; i--) {
+            Host host = idle.poll();
+            if (!host.isIdle()) {
+                host.inIdle = false;
+            } else if (now - host.nextRequestAt >= 0) {
+                host.inIdle = false;
+                hosts.remove(host.name);
+            } else {
+                idle.add(host);
+            }
+        }
+    }
+
+    /**
+     * Waits until a job is added or completes, or until the earliest
+     * time a rate limited host may be requested again, or an idle host
+     * may be removed. Must be called while holding the lock.
+     */
+    private void awaitChange() throws InterruptedException {
+        long now = System.nanoTime();
+        long wait = Long.MAX_VALUE;
+        for (Host host : ring) {
+            if (host.inFlight < host.limit)
+                wait = Math.min(wait, Math.max(0, host.nextRequestAt - now));
+        }
+        for (Host host : idle) {
+            wait = Math.min(wait, Math.max(0, host.nextRequestAt - now));
+        }
+        if (wait == Long.MAX_VALUE) {
+            changed.await();
+        } else if (wait > 0) {
+            changed.awaitNanos(wait);
+        }
+    }
+
+    private void start(Pending pending) {
+        String hostName = pending.job.getHost() != null ? pending.job.getHost() : "";
+        if (pending.result.isCancelled()) {
+            // superseded by a newer job for the same url while it was queued
+            release(hostName);
+            return;
+        }
+        WebScanningTask task = pending.job.createTask();
+        try {
+            executorService.execute(() -> {
+                long startedAt = System.nanoTime();
+                try {
+                    pending.result.complete(task.call());
+                } catch (Throwable t) {
+                    pending.result.completeExceptionally(t);
+                } finally {
+                    complete(hostName, System.nanoTime() - startedAt, task.hasFailed());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.result.completeExceptionally(e);
+            complete(hostName, 0, false);
+        }
+    }
+
+    /**
+     * Releases a request of a host and adjusts its concurrency limit.
+     * @param hostName host that was requested
+     * @param latency duration of the request in nanoseconds
+     * @param failed whether the request failed
+     */
+    private void complete(String hostName, long latency, boolean failed) {
+        lock.lock();
+        try {
+            Host host = hosts.get(hostName);
+            host.inFlight--;
+            long now = System.nanoTime();
+            if (failed || latency > latencyTarget) {
+                if (now - host.lastDecreaseAt > latency) {
+                    host.limit = Math.max(MIN_LIMIT, host.limit / 2);
+                    host.lastDecreaseAt = now;
+                    Logger.debugWarn("Reducing concurrency of %s to %.1f".formatted(host.name, host.limit));
+                }
+            } else {
+                host.limit = Math.min(maxLimit, host.limit + 1 / host.limit);
+            }
+            markIfIdle(host);
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases a request of a host which was not made.
+     * @param hostName host that was not requested
+     */
+    private void release(String hostName) {
+        lock.lock();
+        try {
+            Host host = hosts.get(hostName);
+            host.inFlight--;
+            markIfIdle(host);
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a host for removal if it has no jobs left. Must be
+     * called while holding the lock.
+     */
+    private void markIfIdle(Host host) {
+        if (host.isIdle() && !host.inIdle) {
+            host.inIdle = true;
+            idle.add(host);
+        }
+    }
+
+    /**
+     * Scheduling state of a single host.
+     */
+    private class Host {
+        private final String name;
+        private final Queue<Pending> jobs = new ArrayDeque<>();
+        private int inFlight;
+        private double limit = Math.min(INITIAL_LIMIT, maxLimit);
+        private long nextRequestAt = System.nanoTime();
+        private long lastDecreaseAt = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+        private boolean inRing;
+        private boolean inIdle;
+
+        private Host(String name) {
+            this.name = name;
+        }
+
+        private boolean isReady(long now) {
+            return inFlight < limit && now - nextRequestAt >= 0;
+        }
+
+        private boolean isIdle() {
+            return inFlight == 0 && jobs.isEmpty();
+        }
+    }
+
+    private record Pending(WebScanningJob job, CompletableFuture<KeywordCounts> result) {}
+}
@@ -0,0 +1,110 @@
+package rs.raf.kids.kwc.pool;
+
+import rs.raf.kids.kwc.cli.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ *   Periodically resizes a <code>BoundedExecutor</code> based on how much of
+ *   their time its busy threads spend on CPU, as opposed to waiting on I/O.
+ * </p>
+ * <p>
+ *   On every tick, CPU time consumed by the threads of the executor is
+ *   compared to the wall time of its busy threads, which gives the CPU
+ *   utilization <code>u</code> of a busy thread. Keeping every core busy
+ *   then takes about <code>cores / u</code> threads, so the core size of
+ *   the executor is moved towards that value, within configured bounds.
+ *   CPU bound work keeps the pool at about one thread per core, while
+ *   I/O bound work lets it grow up to its maximum size.
+ * </p>
+ */
+public class PoolSizeController implements Runnable {
+
+    /**
+     * Utilization below this is treated as this, so a pool which only
+     * waits doesn't ask for an unbounded number of threads.
+     */
+    private static final double MIN_UTILIZATION = 0.01;
+
+    private final BoundedExecutor executor;
+
+    private final int minSize;
+
+    private final int maxSize;
+
+    private final int cores;
+
+    private final ThreadMXBean threadBean;
+
+    /**
+     * CPU time of every thread measured at the previous tick, in nanoseconds.
+     */
+    private final Map<Long, Long> lastCpuTimes;
+
+    private long lastTick;
+
+    public PoolSizeController(BoundedExecutor executor, int minSize, int maxSize) {
+        this.executor = executor;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        cores = Runtime.getRuntime().availableProcessors();
+        threadBean = ManagementFactory.getThreadMXBean();
+        lastCpuTimes = new HashMap<>();
+        lastTick = System.nanoTime();
+    }
+
+    /**
+     * @return whether thread CPU time can be measured in this JVM
+     */
+    public boolean isSupported() {
+        return threadBean.isThreadCpuTimeSupported();
+    }
+
+    @Override
+    public void run() {
+        long now = System.nanoTime();
+        long elapsed = now - lastTick;
+        lastTick = now;
+
+        long cpuTime = consumedCpuTime();
+        int busyThreads = executor.getActiveCount();
+        if (busyThreads == 0 || elapsed <= 0 || cpuTime < 0)
+            return;
+
+        double utilization = Math.max(MIN_UTILIZATION, Math.min(1.0, (double) cpuTime / (elapsed * busyThreads)));
+        int target = (int) Math.round(cores / utilization);
+        target = Math.max(minSize, Math.min(maxSize, target));
+        if (target != executor.getCorePoolSize()) {
+            Logger.debugInfo("Resizing pool to %d threads (utilization %.2f)".formatted(target, utilization));
+            executor.setCorePoolSize(target);
+        }
+    }
+
+    /**
+     * Sums the CPU time consumed by executor threads since the previous tick.
+     * @return consumed CPU time in nanoseconds, or <code>-1</code> if it
+     * can't be measured
+     */
+    private long consumedCpuTime() {
+        if (!isSupported())
+            return -1;
+
+        Map<Long, Long> cpuTimes = new HashMap<>();
+        long consumed = 0;
+        for (Thread thread : executor.threads()) {
+            long id = thread.getId();
+            long cpuTime = threadBean.getThreadCpuTime(id);
+            if (cpuTime < 0)
+                continue;
+            cpuTimes.put(id, cpuTime);
+            consumed += cpuTime - lastCpuTimes.getOrDefault(id, 0L);
+        }
+        lastCpuTimes.clear();
+        lastCpuTimes.putAll(cpuTimes);
+        return consumed;
+    }
+}
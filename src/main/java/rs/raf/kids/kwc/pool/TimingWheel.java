@@ -0,0 +1,168 @@
+package rs.raf.kids.kwc.pool;
+
+/**
+ * <p>
+ *   A hierarchical timing wheel, which holds items until they are due.
+ *   Time is divided into ticks, and every level of the wheel has 64 slots,
+ *   each covering 64 times more ticks than a slot of the level below. An
+ *   item is put into the slot of the lowest level which reaches its due
+ *   tick, so both scheduling an item and taking it once it's due take
+ *   constant time, regardless of the number of items.
+ * </p>
+ * <p>
+ *   Whenever the lowest level wraps around, the next slot of the level
+ *   above is emptied into levels below, and so on up the wheel. With four
+ *   levels, the wheel spans <code>64^4</code> ticks, which is more than
+ *   six months for one second ticks. Items due even later are kept in the
+ *   top level and carried over until they come in range.
+ * </p>
+ * <p>
+ *   The wheel doesn't run by itself, it's advanced by calling
+ *   {@link #advance(long, Due)}, which passes on all items that became due.
+ *   Every item is kept with a primitive <code>long</code> key, so a caller
+ *   which only needs a number per item, such as a fingerprint, can schedule
+ *   it without an item object.
+ * </p>
+ * @param <T> type of scheduled items
+ */
+public class TimingWheel<T> {
+
+    private static final int LEVELS = 4;
+
+    private static final int SLOT_BITS = 6;
+
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    /**
+     * Duration of a tick in milliseconds.
+     */
+    private final long tickDuration;
+
+    private final Entry<T>[][] slots;
+
+    /**
+     * Last tick whose items have been taken.
+     */
+    private long currentTick;
+
+    private int size;
+
+    /**
+     * @param tickDuration duration of a tick in milliseconds
+     * @param now current time in milliseconds
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tickDuration, long now) {
+        this.tickDuration = tickDuration;
+        slots = new Entry[LEVELS][SLOTS];
+        currentTick = now / tickDuration;
+    }
+
+    /**
+     * Schedules an item. An item which is already due is passed
+     * on by the next advance.
+     * @param key a number kept with the item
+     * @param item an item to schedule, may be <code>null</code>
+     *             if the key is all that's needed
+     * @param dueTime time in milliseconds when the item is due
+     */
+    public synchronized void schedule(long key, T item, long dueTime) {
+        long dueTick = Math.max(currentTick + 1, (dueTime + tickDuration - 1) / tickDuration);
+        insert(new Entry<>(key, item, dueTick));
+        size++;
+    }
+
+    /**
+     * Advances the wheel to given time, taking all items due until then.
+     * @param now current time in milliseconds
+     * @param due receiver of due items, in order of their due ticks,
+     *            called while holding the lock of the wheel
+     * @return number of due items
+     */
+    public synchronized int advance(long now, Due<T> due) {
+        int count = 0;
+        long targetTick = now / tickDuration;
+        while (currentTick < targetTick) {
+            currentTick++;
+            cascade(1);
+            int slot = (int) (currentTick & SLOT_MASK);
+            Entry<T> entry = slots[0][slot];
+            slots[0][slot] = null;
+            for (; entry != null; entry = entry.next) {
+                due.accept(entry.key, entry.item);
+                count++;
+            }
+        }
+        size -= count;
+        return count;
+    }
+
+    /**
+     * @return number of scheduled items
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Empties the current slot of a level into lower levels, if the
+     * level below has just wrapped around, and recursively so for
+     * levels above first.
+     */
+    private void cascade(int level) {
+        if (level >= LEVELS || ((currentTick >>> (SLOT_BITS * (level - 1))) & SLOT_MASK) != 0)
+            return;
+        cascade(level + 1);
+        int slot = (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        Entry<T> entry = slots[level][slot];
+        slots[level][slot] = null;
+        while (entry != null) {
+            Entry<T> next = entry.next;
+            insert(entry);
+            entry = next;
+        }
+    }
+
+    private void insert(Entry<T> entry) {
+        long delta = entry.dueTick - currentTick;
+        for (int level = 0; level < LEVELS; level++) {
+            if (delta < 1L << (SLOT_BITS * (level + 1))) {
+                push(level, (int) ((entry.dueTick >>> (SLOT_BITS * level)) & SLOT_MASK), entry);
+                return;
+            }
+        }
+        // beyond the span of the wheel, wait in the last slot of the top
+        // level, from which the entry is inserted again once it's reached
+        int top = LEVELS - 1;
+        push(top, (int) (((currentTick >>> (SLOT_BITS * top)) - 1) & SLOT_MASK), entry);
+    }
+
+    private void push(int level, int slot, Entry<T> entry) {
+        entry.next = slots[level][slot];
+        slots[level][slot] = entry;
+    }
+
+    private static class Entry<T> {
+        private final long key;
+        private final T item;
+        private final long dueTick;
+        private Entry<T> next;
+
+        private Entry(long key, T item, long dueTick) {
+            this.key = key;
+            this.item = item;
+            this.dueTick = dueTick;
+        }
+    }
+
+    /**
+     * Receiver of due items.
+     * @param <T> type of scheduled items
+     */
+    @FunctionalInterface
+    public interface Due<T> {
+        void accept(long key, T item);
+    }
+}
@@ -0,0 +1,266 @@
+package rs.raf.kids.kwc.pool;
+
+import rs.raf.kids.kwc.util.Murmur3;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ *   A compact set of visited URLs, each with a time at which it may be
+ *   scanned again. Instead of URLs themselves, only their 64-bit Murmur3
+ *   fingerprints are kept, in an open addressing table of primitive arrays,
+ *   next to expiry times packed into <code>int</code> seconds since the
+ *   store was created.
+ * </p>
+ * <p>
+ *   Every slot takes 12 bytes, and the table grows once it's three quarters
+ *   full, so a URL takes 16 to 32 bytes, instead of several hundred for a
+ *   <code>URI</code> with its strings in a <code>ConcurrentHashMap</code>.
+ *   Expired entries are dropped whenever the table would grow, so it only
+ *   grows if most of its URLs are still fresh.
+ * </p>
+ * <p>
+ *   Two different URLs are taken for the same one only if their fingerprints
+ *   collide, which, with <code>n</code> stored URLs, happens to a new URL
+ *   with probability of about <code>n / 2^64</code>, or less than
+ *   <code>10^-12</code> for ten million URLs.
+ * </p>
+ * <p>
+ *   Optionally, a Bloom filter with 8 bits per slot and 5 hash functions is
+ *   kept in front of the table, which takes another 1 to 2 bytes per URL. A
+ *   URL which is not in the filter has never been seen, and is added without
+ *   probing the table. The filter has a false positive rate of at most about
+ *   1%, which only costs a table probe and never gives a wrong answer.
+ * </p>
+ */
+public class VisitedUrlStore {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final int BLOOM_BITS_PER_SLOT = 8;
+
+    private static final int BLOOM_HASHES = 5;
+
+    /**
+     * Fingerprints of URLs, <code>0</code> for an empty slot.
+     */
+    private long[] fingerprints;
+
+    /**
+     * Expiry time of every slot, in seconds since <code>epoch</code>.
+     */
+    private int[] expiries;
+
+    private int mask;
+
+    private int size;
+
+    private long[] bloom;
+
+    private final boolean useBloom;
+
+    /**
+     * Time of creation, in milliseconds, that expiry times are relative to.
+     */
+    private final long epoch;
+
+    /**
+     * @param expectedUrls number of URLs the table has room for without growing
+     * @param useBloom whether to keep a Bloom filter in front of the table
+     */
+    public VisitedUrlStore(int expectedUrls, boolean useBloom) {
+        this.useBloom = useBloom;
+        epoch = System.currentTimeMillis();
+        allocate(capacityFor(expectedUrls));
+    }
+
+    /**
+     * @param url an URL, in a canonical form
+     * @return fingerprint of the URL, which is never <code>0</code>
+     */
+    public static long fingerprint(String url) {
+        long fingerprint = Murmur3.hash64(url);
+        return fingerprint != 0 ? fingerprint : 1;
+    }
+
+    /**
+     * Checks whether an URL may be scanned now, and marks it as visited if so.
+     * An URL may be scanned if it has not been visited, or its previous visit
+     * has expired.
+     * @param fingerprint fingerprint of the URL
+     * @param now current time in milliseconds
+     * @param refreshTime time in milliseconds after which the URL may
+     *                    be scanned again
+     * @return <code>true</code> if the URL may be scanned now
+     */
+    public synchronized boolean visitIfReady(long fingerprint, long now, long refreshTime) {
+        int nowSeconds = toSeconds(now);
+        int expiry = toSeconds(now + refreshTime);
+        if (!useBloom || mightContain(fingerprint)) {
+            int slot = find(fingerprint);
+            if (slot >= 0) {
+                if (nowSeconds < expiries[slot])
+                    return false;
+                expiries[slot] = expiry;
+                return true;
+            }
+        }
+        insert(fingerprint, expiry, nowSeconds);
+        return true;
+    }
+
+    /**
+     * Removes an URL, so it may be scanned as soon as it's seen again.
+     * @param fingerprint fingerprint of the URL
+     */
+    public synchronized void forget(long fingerprint) {
+        int slot = find(fingerprint);
+        if (slot >= 0)
+            removeAt(slot);
+    }
+
+    /**
+     * Removes an URL if its visit has expired.
+     * @param fingerprint fingerprint of the URL
+     * @param now current time in milliseconds
+     * @return <code>true</code> if the URL was removed
+     */
+    public synchronized boolean forgetIfExpired(long fingerprint, long now) {
+        int slot = find(fingerprint);
+        if (slot < 0 || toSeconds(now) < expiries[slot])
+            return false;
+        removeAt(slot);
+        return true;
+    }
+
+    /**
+     * @return number of stored URLs, including expired ones
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return approximate memory taken by the table and filter, in bytes
+     */
+    public synchronized long memoryUsage() {
+        long bytes = (long) fingerprints.length * (Long.BYTES + Integer.BYTES);
+        return bloom != null ? bytes + (long) bloom.length * Long.BYTES : bytes;
+    }
+
+    private int toSeconds(long millis) {
+        long seconds = TimeUnit.MILLISECONDS.toSeconds(millis - epoch + 999);
+        return (int) Math.min(Integer.MAX_VALUE, seconds);
+    }
+
+    private static int capacityFor(int urls) {
+        long capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < urls)
+            capacity <<= 1;
+        return (int) Math.min(capacity, 1 << 30);
+    }
+
+    private void allocate(int capacity) {
+        fingerprints = new long[capacity];
+        expiries = new int[capacity];
+        mask = capacity - 1;
+        size = 0;
+        if (useBloom)
+            bloom = new long[capacity * BLOOM_BITS_PER_SLOT / Long.SIZE];
+    }
+
+    private int slotOf(long fingerprint) {
+        return (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+    }
+
+    private int find(long fingerprint) {
+        for (int slot = slotOf(fingerprint); fingerprints[slot] != 0; slot = (slot + 1) & mask) {
+            if (fingerprints[slot] == fingerprint)
+                return slot;
+        }
+        return -1;
+    }
+
+    private void insert(long fingerprint, int expiry, int nowSeconds) {
+        if (size + 1 > fingerprints.length * 3 / 4)
+            rehash(nowSeconds);
+        put(fingerprint, expiry);
+    }
+
+    private void put(long fingerprint, int expiry) {
+        int slot = slotOf(fingerprint);
+        while (fingerprints[slot] != 0)
+            slot = (slot + 1) & mask;
+        fingerprints[slot] = fingerprint;
+        expiries[slot] = expiry;
+        size++;
+        if (useBloom)
+            addToBloom(fingerprint);
+    }
+
+    /**
+     * Rebuilds the table without expired entries, doubling its capacity
+     * if more than half of it would still be taken by fresh entries.
+     */
+    private void rehash(int nowSeconds) {
+        long[] oldFingerprints = fingerprints;
+        int[] oldExpiries = expiries;
+        int fresh = 0;
+        for (int i = 0; i < oldFingerprints.length; i++) {
+            if (oldFingerprints[i] != 0 && nowSeconds < oldExpiries[i])
+                fresh++;
+        }
+        int capacity = oldFingerprints.length;
+        if (fresh + 1 > capacity / 2 && capacity < 1 << 30)
+            capacity <<= 1;
+
+        allocate(capacity);
+        for (int i = 0; i < oldFingerprints.length; i++) {
+            if (oldFingerprints[i] != 0 && nowSeconds < oldExpiries[i])
+                put(oldFingerprints[i], oldExpiries[i]);
+        }
+    }
+
+    /**
+     * Removes an entry by shifting back the entries of its probe
+     * sequence, so no tombstones are needed.
+     */
+    private void removeAt(int slot) {
+        int free = slot;
+        for (int next = (free + 1) & mask; fingerprints[next] != 0; next = (next + 1) & mask) {
+            int home = slotOf(fingerprints[next]);
+            // an entry may move back to the free slot only if
+            // its home slot is not between the two
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                fingerprints[free] = fingerprints[next];
+                expiries[free] = expiries[next];
+                free = next;
+            }
+        }
+        fingerprints[free] = 0;
+        expiries[free] = 0;
+        size--;
+    }
+
+    private void addToBloom(long fingerprint) {
+        int h1 = (int) fingerprint;
+        int h2 = (int) Long.rotateLeft(fingerprint, 21);
+        long bits = (long) bloom.length * Long.SIZE;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bits;
+            bloom[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private boolean mightContain(long fingerprint) {
+        int h1 = (int) fingerprint;
+        int h2 = (int) Long.rotateLeft(fingerprint, 21);
+        long bits = (long) bloom.length * Long.SIZE;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bits;
+            if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+}
@@ -1,27 +1,210 @@
 package rs.raf.kids.kwc.pool;
 
+import rs.raf.kids.kwc.Main;
+import rs.raf.kids.kwc.cli.Logger;
 import rs.raf.kids.kwc.config.AppConfig;
 import rs.raf.kids.kwc.job.ScanningJobQueue;
 import rs.raf.kids.kwc.job.WebScanningJob;
+import rs.raf.kids.kwc.result.KeywordCounts;
 import rs.raf.kids.kwc.result.ResultRetriever;
 
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.Map;
-import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class WebScannerPool extends AbstractScannerPool<WebScanningJob> {
 
     /**
-     * A map which holds information about visited URLs.
+     * Fingerprints of visited URLs, with times at which they may be scanned again.
      */
-    private static final Map<URI, UrlInfo> visitedUrlInfoMap = new ConcurrentHashMap<>();
+    private static final VisitedUrlStore visitedUrls =
+            new VisitedUrlStore(AppConfig.visitedUrlCapacity, AppConfig.visitedUrlBloomFilter);
 
+    /**
+     * Queues jobs per host and starts them politely.
+     */
+    private final HostScheduler hostScheduler;
+
+    /**
+     * Holds every accepted URL until it expires, <code>null</code> if URLs
+     * never expire. When recrawling, the job is kept, to be submitted again,
+     * otherwise only the fingerprint of its URL, to be forgotten.
+     */
+    private final TimingWheel<WebScanningJob> refreshWheel;
+
+    /**
+     * Advances <code>refreshWheel</code> every tick.
+     */
+    private final ScheduledExecutorService refreshService;
+
+    /**
+     * Creates a pool for web scanning jobs. By default, jobs run on a
+     * bounded pool of platform threads. If virtual threads are enabled
+     * in <code>AppConfig</code> and supported by the JVM, every job runs
+     * on its own virtual thread instead. In both cases, jobs are started
+     * by a <code>HostScheduler</code>, which limits request rate and
+     * concurrency of every host.
+     * @param jobQueue queue that jobs are taken from
+     * @param resultRetriever retriever to put results of jobs into
+     */
     public WebScannerPool(ScanningJobQueue jobQueue, ResultRetriever resultRetriever) {
-        super(jobQueue, resultRetriever);
+        super(jobQueue, resultRetriever, createExecutor());
+        startSizeController(AppConfig.webPoolCoreSize, AppConfig.webPoolMaxSize, AppConfig.poolResizeInterval);
+        hostScheduler = new HostScheduler(executorService, AppConfig.webHostConcurrencyLimit,
+                AppConfig.webHostRequestRate, AppConfig.webHostLatencyTarget, AppConfig.webPoolQueueCapacity);
+        if (AppConfig.urlRefreshTime > 0) {
+            refreshWheel = new TimingWheel<>(AppConfig.urlRecrawlTick, System.currentTimeMillis());
+            refreshService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "WebRefreshScheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            refreshService.scheduleAtFixedRate(this::refreshExpiredUrls,
+                    AppConfig.urlRecrawlTick, AppConfig.urlRecrawlTick, TimeUnit.MILLISECONDS);
+        } else {
+            refreshWheel = null;
+            refreshService = null;
+        }
+    }
+
+    private static ExecutorService createExecutor() {
+        if (AppConfig.webVirtualThreads) {
+            ExecutorService virtualThreadExecutor = newVirtualThreadExecutor();
+            if (virtualThreadExecutor != null)
+                return virtualThreadExecutor;
+            Logger.warn("Virtual threads are not supported by this JVM, web scanning uses platform threads");
+        }
+        return new BoundedExecutor("WebScanner", AppConfig.webPoolCoreSize, AppConfig.webPoolMaxSize,
+                AppConfig.webPoolQueueCapacity);
+    }
+
+    /**
+     * Creates an executor which starts a new virtual thread for each task.
+     * The executor is looked up reflectively, so the project still builds
+     * for older Java versions, and simply runs without it there.
+     * @return a virtual thread executor, or <code>null</code> if the JVM
+     * doesn't support virtual threads
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Accepts a web scanning job into the queue of its host. If host
+     * queues are full, the calling thread waits until there is room.
+     * Once the job completes, its result is recorded by the crawl
+     * checkpoint, unless it was cancelled by a newer job for its URL.
+     * @param job task to submit for execution
+     */
+    @Override
+    public void accept(WebScanningJob job) {
+        CompletableFuture<KeywordCounts> futureResult = hostScheduler.schedule(job);
+        resultRetriever.addCorpusResult(job.getQuery(), futureResult);
+        CrawlCheckpoint checkpoint = Main.crawlCheckpoint;
+        if (checkpoint != null) {
+            futureResult.whenComplete((counts, error) -> {
+                if (!(error instanceof CancellationException))
+                    checkpoint.complete(job, counts);
+            });
+        }
+        if (refreshWheel != null)
+            scheduleRefresh(job);
+    }
+
+    private void scheduleRefresh(WebScanningJob job) {
+        long dueTime = System.currentTimeMillis() + AppConfig.urlRefreshTime;
+        if (AppConfig.urlRecrawl) {
+            refreshWheel.schedule(0, job, dueTime);
+            return;
+        }
+        try {
+            refreshWheel.schedule(fingerprintOf(job.getUrl()), null, dueTime);
+        } catch (URISyntaxException | MalformedURLException ignored) {
+            // never marked as visited either
+        }
+    }
+
+    /**
+     * Takes URLs which have expired from <code>refreshWheel</code>.
+     * If recrawling is enabled, every such URL is scanned again, unless it
+     * has been scanned again in the meantime, in which case a newer entry
+     * is already in the wheel. Otherwise, expired URLs are removed from
+     * visited URLs, so the store only holds fresh ones.
+     */
+    private void refreshExpiredUrls() {
+        long now = System.currentTimeMillis();
+        try {
+            refreshWheel.advance(now, (fingerprint, job) -> {
+                if (job == null) {
+                    visitedUrls.forgetIfExpired(fingerprint, now);
+                    return;
+                }
+                String url = job.getUrl();
+                if (isUrlReadyToScan(url) && !offer(new WebScanningJob(url, job.getUrlDepth(), job.getSource()))) {
+                    Logger.debugWarn("Job queue is full, dropping recrawl of url: " + url);
+                    forgetUrl(url);
+                }
+            });
+        } catch (Exception e) {
+            Logger.debugError("Refreshing urls failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Puts a web scanning job into job queue if there is room for it,
+     * tracking it with the crawl checkpoint, if there is one.
+     * @param job a job to be put into queue
+     * @return <code>true</code> if the job was put into queue
+     */
+    public static boolean offer(WebScanningJob job) {
+        CrawlCheckpoint checkpoint = Main.crawlCheckpoint;
+        if (checkpoint != null)
+            checkpoint.track(job);
+        if (Main.scanningJobQueue.offer(job))
+            return true;
+        if (checkpoint != null)
+            checkpoint.untrack(job);
+        return false;
+    }
+
+    /**
+     * Puts a web scanning job into job queue without waiting, even if it's
+     * full, tracking it with the crawl checkpoint, if there is one.
+     * @param job a job to be put into queue
+     */
+    public static void force(WebScanningJob job) {
+        CrawlCheckpoint checkpoint = Main.crawlCheckpoint;
+        if (checkpoint != null)
+            checkpoint.track(job);
+        Main.scanningJobQueue.force(job);
+    }
+
+    @Override
+    public boolean isSaturated() {
+        return hostScheduler.isSaturated();
+    }
+
+    /**
+     * Stops scheduling, cancels jobs which haven't started
+     * and shuts down executor service.
+     */
+    @Override
+    public void terminate() {
+        if (refreshService != null)
+            refreshService.shutdown();
+        hostScheduler.stop();
+        super.terminate();
     }
 
     /**
@@ -53,49 +236,30 @@ public class WebScannerPool extends AbstractScannerPool<WebScanningJob> {
      * on whether the <code>URI</code> is ready or not
      */
     public static boolean checkIfReadyToScan(URI uri) {
-        long now = System.currentTimeMillis();
-        if (visitedUrlInfoMap.containsKey(uri)) {
-            long exp = visitedUrlInfoMap.get(uri).expirationTime;
-            if (now >= exp) {
-                visitedUrlInfoMap.get(uri).expirationTime = now + AppConfig.urlRefreshTime;
-                return true;
-            }
-            return false;
-        }
-        UrlInfo info = new UrlInfo(uri, now);
-        visitedUrlInfoMap.put(uri, info);
-        return true;
+        long fingerprint = VisitedUrlStore.fingerprint(uri.toString());
+        return visitedUrls.visitIfReady(fingerprint, System.currentTimeMillis(), AppConfig.urlRefreshTime);
     }
 
     /**
-     * A simple class that holds information about <code>URI</code>,
-     * more precisely its expiration time.
+     * Removes given URL from visited URLs, so it's ready to be scanned
+     * again as soon as it's discovered. Used when a job for the URL could
+     * not be submitted.
+     * @param url an URL to forget
      */
-    private static class UrlInfo implements Comparable<UrlInfo> {
-        private final URI uri;
-        private long expirationTime;
-
-        public UrlInfo(URI uri, long expirationTime) {
-            this.uri = uri;
-            this.expirationTime = expirationTime;
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            UrlInfo urlInfo = (UrlInfo) o;
-            return uri.equals(urlInfo.uri);
-        }
+    public static void forgetUrl(String url) {
+        try {
+            visitedUrls.forget(fingerprintOf(url));
+        } catch (URISyntaxException | MalformedURLException ignored) {}
+    }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(uri);
-        }
+    /**
+     * @return store of visited URLs, shared by all web scans
+     */
+    public static VisitedUrlStore getVisitedUrls() {
+        return visitedUrls;
+    }
 
-        @Override
-        public int compareTo(UrlInfo that) {
-            return this.uri.compareTo(that.uri);
-        }
+    private static long fingerprintOf(String url) throws MalformedURLException, URISyntaxException {
+        return VisitedUrlStore.fingerprint(new URL(url).toURI().toString());
     }
 }
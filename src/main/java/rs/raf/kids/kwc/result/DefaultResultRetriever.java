@@ -1,6 +1,7 @@
 package rs.raf.kids.kwc.result;
 
 import rs.raf.kids.kwc.cli.Logger;
+import rs.raf.kids.kwc.job.FileCountCache;
 import rs.raf.kids.kwc.job.ScanType;
 import rs.raf.kids.kwc.util.Utils;
 
@@ -16,21 +17,57 @@ public class DefaultResultRetriever implements ResultRetriever {
      * Holds all the <code>Future</code> result objects for submitted
      * scanning jobs.
      */
-    private final Map<String, Future<Map<String, Integer>>> scanResults;
+    private final Map<String, Future<KeywordCounts>> scanResults;
 
     /**
      * A cache for scan summaries.
      */
-    private final Map<ScanType, Future<Map<String, Map<String, Integer>>>> scanSummaries;
+    private final Map<ScanType, Future<Map<String, KeywordCounts>>> scanSummaries;
 
     private final ExecutorService executorService;
 
+    /**
+     * Counts of corpora restored from a previous run, which are used
+     * until corpora are scanned again, or <code>null</code>.
+     */
+    private final FileCountCache restoredFiles;
+
+    private volatile boolean filesRestored;
+
     public DefaultResultRetriever() {
+        this(null);
+    }
+
+    /**
+     * @param restoredFiles counts of corpora restored from a previous run,
+     *                      which are used as results of corpora which have
+     *                      not been scanned yet, or <code>null</code>
+     */
+    public DefaultResultRetriever(FileCountCache restoredFiles) {
+        this.restoredFiles = restoredFiles;
+        filesRestored = restoredFiles == null;
         scanResults = new ConcurrentHashMap<>();
         scanSummaries = new ConcurrentHashMap<>();
         executorService = Executors.newCachedThreadPool();
     }
 
+    /**
+     * Adds restored counts of every corpus which has no result yet, the
+     * first time a file result is needed, so they are loaded lazily.
+     * @param query a query which needs results
+     */
+    private void restoreFileResults(String query) {
+        if (filesRestored || !query.startsWith("file|"))
+            return;
+        synchronized (this) {
+            if (filesRestored)
+                return;
+            restoredFiles.totals().forEach((corpus, counts) ->
+                    scanResults.putIfAbsent("file|" + corpus.getName(), CompletableFuture.completedFuture(counts)));
+            filesRestored = true;
+        }
+    }
+
     /**
      * Gets scan result for given query. Caller thread is blocked
      * until computation has finished.
@@ -40,16 +77,27 @@ public class DefaultResultRetriever implements ResultRetriever {
      * is not found in result map
      */
     @Override
-    public Map<String, Integer> getResult(String query) {
+    public KeywordCounts getResult(String query) {
+        restoreFileResults(query);
         if (!scanResults.containsKey(query))
             throw new IllegalArgumentException("No corpus result found for query: " + query);
 
-        try {
-            return scanResults.get(query).get();
-        } catch (InterruptedException | ExecutionException e) {
-            Logger.error(query + ": " + e.getMessage());
+        Future<KeywordCounts> result = scanResults.get(query);
+        while (true) {
+            try {
+                return result.get();
+            } catch (CancellationException e) {
+                // superseded by a newer job, whose result is awaited instead
+                Future<KeywordCounts> newer = scanResults.get(query);
+                if (newer == result)
+                    break;
+                result = newer;
+            } catch (InterruptedException | ExecutionException e) {
+                Logger.error(query + ": " + e.getMessage());
+                break;
+            }
         }
-        return Map.of();
+        return KeywordCounts.create();
     }
 
     /**
@@ -63,20 +111,24 @@ public class DefaultResultRetriever implements ResultRetriever {
      * @throws IllegalStateException if the computation is not yet finished
      */
     @Override
-    public Map<String, Integer> queryResult(String query) {
+    public KeywordCounts queryResult(String query) {
+        restoreFileResults(query);
         if (!scanResults.containsKey(query))
             throw new IllegalArgumentException("No corpus result found for query: " + query);
 
-        Future<Map<String, Integer>> result = scanResults.get(query);
+        Future<KeywordCounts> result = scanResults.get(query);
         if (!result.isDone())
             throw new IllegalStateException("Result is still being calculated for query: " + query);
 
         try {
             return result.get();
+        } catch (CancellationException e) {
+            // superseded after it was looked up, by a job which has just started
+            throw new IllegalStateException("Result is still being calculated for query: " + query);
         } catch (InterruptedException | ExecutionException e) {
             Logger.error(query + ": " + e.getMessage());
         }
-        return Map.of();
+        return KeywordCounts.create();
     }
 
     /**
@@ -102,7 +154,7 @@ public class DefaultResultRetriever implements ResultRetriever {
      * @return keyword count in corpus directories / domains
      */
     @Override
-    public Map<String, Map<String, Integer>> getSummary(ScanType scanType) {
+    public Map<String, KeywordCounts> getSummary(ScanType scanType) {
         if (scanSummaries.containsKey(scanType)) {
             Logger.debugWarn("summary already calculated for: " + scanType);
             return getSummaryFor(scanType);
@@ -123,8 +175,8 @@ public class DefaultResultRetriever implements ResultRetriever {
      * @param summaryTask a task that will be executed
      * @return a <code>Future</code> for passed task
      */
-    private Future<Map<String, Map<String, Integer>>> submitSummaryTask(ScanType scanType, Callable<Map<String, Map<String, Integer>>> summaryTask) {
-        Future<Map<String, Map<String, Integer>>> future = executorService.submit(summaryTask);
+    private Future<Map<String, KeywordCounts>> submitSummaryTask(ScanType scanType, Callable<Map<String, KeywordCounts>> summaryTask) {
+        Future<Map<String, KeywordCounts>> future = executorService.submit(summaryTask);
         scanSummaries.put(scanType, future);
         return future;
     }
@@ -135,7 +187,7 @@ public class DefaultResultRetriever implements ResultRetriever {
      * @param scanType a scan type to get summary for
      * @return a summary for passed scan type
      */
-    private Map<String, Map<String, Integer>> getSummaryFor(ScanType scanType) {
+    private Map<String, KeywordCounts> getSummaryFor(ScanType scanType) {
         try {
             return scanSummaries.get(scanType).get();
         } catch (InterruptedException | ExecutionException e) {
@@ -147,9 +199,9 @@ public class DefaultResultRetriever implements ResultRetriever {
      * Calculates summary result for all <code>FileScanningJob</code> jobs.
      * @return a summary for all jobs of type <code>ScanType.FILE</code>
      */
-    private Map<String, Map<String, Integer>> getFileScansSummary() {
+    private Map<String, KeywordCounts> getFileScansSummary() {
         Set<String> fileResultKeys = getFileScanKeys();
-        Map<String, Map<String, Integer>> result = new HashMap<>();
+        Map<String, KeywordCounts> result = new HashMap<>();
         for (String key : fileResultKeys) {
             result.put(key, getResult(key));
         }
@@ -161,6 +213,7 @@ public class DefaultResultRetriever implements ResultRetriever {
      * @return queries for jobs of scan type <code>ScanType.FILE</code>
      */
     private Set<String> getFileScanKeys() {
+        restoreFileResults("file|");
         return scanResults.keySet()
                 .stream()
                 .filter(q -> q.startsWith("file|"))
@@ -171,18 +224,17 @@ public class DefaultResultRetriever implements ResultRetriever {
      * Calculates summary result for all <code>WebScanningJob</code> jobs.
      * @return a summary for all jobs of type <code>ScanType.WEB</code>
      */
-    private Map<String, Map<String, Integer>> getWebScansSummary() {
+    private Map<String, KeywordCounts> getWebScansSummary() {
         Set<String> webResultKeys = getWebScanKeys();
         Set<String> urls = webResultKeys.stream()
                 .map(k -> k.substring(4))
                 .collect(Collectors.toSet());
         Set<String> domains = Utils.extractDomains(urls);
-        Map<String, Map<String, Integer>> result = Utils.initMap(domains, Utils::initKeywordsMap);
+        Map<String, KeywordCounts> result = Utils.initMap(domains, KeywordCounts::create);
         for (String key : webResultKeys) {
-            Map<String, Integer> webResult = getResult(key);
+            KeywordCounts webResult = getResult(key);
             String domain = Utils.extractDomain(key.substring(4));
-            Map<String, Integer> domainResult = result.get(domain);
-            webResult.forEach((wk, wv) -> domainResult.merge(wk, wv, Integer::sum));
+            result.get(domain).addAll(webResult);
         }
         Utils.sleepThread(12000);
         return result;
@@ -209,7 +261,7 @@ public class DefaultResultRetriever implements ResultRetriever {
      * is not yet finished
      */
     @Override
-    public Map<String, Map<String, Integer>> querySummary(ScanType scanType) {
+    public Map<String, KeywordCounts> querySummary(ScanType scanType) {
         if (!scanSummaries.containsKey(scanType)) {
             switch (scanType) {
                 case FILE -> submitSummaryTask(scanType, this::getFileScansSummary);
@@ -218,7 +270,7 @@ public class DefaultResultRetriever implements ResultRetriever {
             }
         }
 
-        Future<Map<String, Map<String, Integer>>> future = scanSummaries.get(scanType);
+        Future<Map<String, KeywordCounts>> future = scanSummaries.get(scanType);
         if (!future.isDone())
             throw new IllegalStateException("Summary is still being calculated for: " + scanType);
 
@@ -231,13 +283,17 @@ public class DefaultResultRetriever implements ResultRetriever {
     }
 
     /**
-     * Adds a <code>Future</code> result object for a given query.
+     * Adds a <code>Future</code> result object for a given query. If a
+     * previous job for the query is still running, its result would be
+     * stale, so it is superseded and its <code>Future</code> is cancelled.
      * @param query a key for result
      * @param corpusResult result of computation for given query
      */
     @Override
-    public void addCorpusResult(String query, Future<Map<String, Integer>> corpusResult) {
-        scanResults.put(query, corpusResult);
+    public void addCorpusResult(String query, Future<KeywordCounts> corpusResult) {
+        Future<KeywordCounts> previous = scanResults.put(query, corpusResult);
+        if (previous != null && previous != corpusResult && previous.cancel(true))
+            Logger.debugWarn("Cancelled superseded job for query: " + query);
     }
 
     @Override
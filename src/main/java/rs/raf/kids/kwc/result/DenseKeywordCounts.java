@@ -0,0 +1,71 @@
+package rs.raf.kids.kwc.result;
+
+import java.util.Arrays;
+
+/**
+ * <code>KeywordCounts</code> backed by a <code>long[]</code> with one
+ * counter per keyword.
+ */
+public class DenseKeywordCounts implements KeywordCounts {
+
+    private final long[] counts;
+
+    public DenseKeywordCounts(int size) {
+        counts = new long[size];
+    }
+
+    private DenseKeywordCounts(long[] counts) {
+        this.counts = counts;
+    }
+
+    @Override
+    public int size() {
+        return counts.length;
+    }
+
+    @Override
+    public long get(int ordinal) {
+        return counts[ordinal];
+    }
+
+    @Override
+    public void increment(int ordinal) {
+        counts[ordinal]++;
+    }
+
+    @Override
+    public void add(int ordinal, long delta) {
+        counts[ordinal] += delta;
+    }
+
+    @Override
+    public void forEachNonZero(OrdinalConsumer consumer) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0)
+                consumer.accept(i, counts[i]);
+        }
+    }
+
+    @Override
+    public KeywordCounts addAll(KeywordCounts other) {
+        // avoids a call per keyword when both sides are dense
+        if (other instanceof DenseKeywordCounts dense) {
+            long[] otherCounts = dense.counts;
+            for (int i = 0; i < otherCounts.length; i++) {
+                counts[i] += otherCounts[i];
+            }
+            return this;
+        }
+        return KeywordCounts.super.addAll(other);
+    }
+
+    @Override
+    public KeywordCounts copy() {
+        return new DenseKeywordCounts(counts.clone());
+    }
+
+    @Override
+    public String toString() {
+        return "DenseKeywordCounts" + Arrays.toString(counts);
+    }
+}
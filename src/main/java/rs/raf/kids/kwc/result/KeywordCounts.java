@@ -0,0 +1,125 @@
+package rs.raf.kids.kwc.result;
+
+import rs.raf.kids.kwc.config.AppConfig;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ *   Occurrences of keywords, indexed by keyword ordinal in
+ *   <code>AppConfig.keywordAutomaton</code>. Counts are primitive
+ *   <code>long</code> values, so counting and merging don't allocate,
+ *   and counts are not limited to <code>Integer.MAX_VALUE</code>.
+ * </p>
+ * <p>
+ *   Counts are converted to a <code>Map</code> only when they are shown
+ *   to the user. Implementations are not thread safe, counts are meant
+ *   to be owned by a single task until they are returned as its result.
+ * </p>
+ */
+public interface KeywordCounts {
+
+    /**
+     * Dictionaries with at least this many keywords are counted by
+     * <code>SparseKeywordCounts</code>, since most of their keywords
+     * are usually not found in a single text.
+     */
+    int SPARSE_THRESHOLD = 65536;
+
+    /**
+     * Creates empty counts for all keywords in <code>AppConfig</code>.
+     * @return empty counts
+     */
+    static KeywordCounts create() {
+        return create(AppConfig.keywordAutomaton.size());
+    }
+
+    /**
+     * Creates empty counts for a dictionary of a given size, picking
+     * a sparse representation for very large dictionaries.
+     * @param size number of keywords in dictionary
+     * @return empty counts
+     */
+    static KeywordCounts create(int size) {
+        return size >= SPARSE_THRESHOLD ? new SparseKeywordCounts(size) : new DenseKeywordCounts(size);
+    }
+
+    /**
+     * @return number of keywords in dictionary
+     */
+    int size();
+
+    /**
+     * @param ordinal keyword ordinal
+     * @return number of occurrences of keyword
+     */
+    long get(int ordinal);
+
+    /**
+     * Adds one occurrence of a keyword.
+     * @param ordinal keyword ordinal
+     */
+    void increment(int ordinal);
+
+    /**
+     * Adds a number of occurrences of a keyword.
+     * @param ordinal keyword ordinal
+     * @param delta number of occurrences to add, may be negative
+     */
+    void add(int ordinal, long delta);
+
+    /**
+     * Calls <code>consumer</code> for every keyword with a non-zero count.
+     * @param consumer consumer of keyword ordinals and counts
+     */
+    void forEachNonZero(OrdinalConsumer consumer);
+
+    /**
+     * @return a copy of these counts, of the same kind
+     */
+    KeywordCounts copy();
+
+    /**
+     * Adds all counts of <code>other</code> to these counts.
+     * @param other counts to add
+     * @return these counts
+     */
+    default KeywordCounts addAll(KeywordCounts other) {
+        other.forEachNonZero(this::add);
+        return this;
+    }
+
+    /**
+     * Subtracts all counts of <code>other</code> from these counts.
+     * @param other counts to subtract
+     * @return these counts
+     */
+    default KeywordCounts subtractAll(KeywordCounts other) {
+        other.forEachNonZero((ordinal, count) -> add(ordinal, -count));
+        return this;
+    }
+
+    /**
+     * Converts counts to a map from keyword to its count, with every
+     * keyword from <code>AppConfig</code> present, in ordinal order.
+     * @return counts of every keyword
+     */
+    default Map<String, Long> toMap() {
+        List<String> keywords = AppConfig.keywordAutomaton.keywords();
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (int i = 0; i < keywords.size(); i++) {
+            map.put(keywords.get(i), i < size() ? get(i) : 0L);
+        }
+        return map;
+    }
+
+    /**
+     * A consumer of a keyword ordinal and its count.
+     */
+    @FunctionalInterface
+    interface OrdinalConsumer {
+        void accept(int ordinal, long count);
+    }
+}
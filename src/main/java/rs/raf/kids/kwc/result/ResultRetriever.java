@@ -8,15 +8,15 @@ import java.util.concurrent.Future;
 
 public interface ResultRetriever extends Stoppable {
 
-    Map<String, Integer> getResult(String query);
+    KeywordCounts getResult(String query);
 
-    Map<String, Integer> queryResult(String query);
+    KeywordCounts queryResult(String query);
 
     void clearSummary(ScanType scanType);
 
-    Map<String, Map<String, Integer>> getSummary(ScanType scanType);
+    Map<String, KeywordCounts> getSummary(ScanType scanType);
 
-    Map<String, Map<String, Integer>> querySummary(ScanType scanType);
+    Map<String, KeywordCounts> querySummary(ScanType scanType);
 
-    void addCorpusResult(String corpus, Future<Map<String, Integer>> corpusResult);
+    void addCorpusResult(String corpus, Future<KeywordCounts> corpusResult);
 }
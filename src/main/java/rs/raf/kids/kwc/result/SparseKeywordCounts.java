@@ -0,0 +1,141 @@
+package rs.raf.kids.kwc.result;
+
+import java.util.StringJoiner;
+
+/**
+ * <p>
+ *   <code>KeywordCounts</code> for very large dictionaries, which keeps
+ *   only keywords that were actually found. Counters live in an
+ *   open-addressing table of primitive ordinals and counts, so memory
+ *   grows with the number of distinct keywords found, not with the size
+ *   of dictionary.
+ * </p>
+ * <p>
+ *   A keyword whose count drops back to zero keeps its slot, which is
+ *   harmless, since it's skipped by <code>forEachNonZero</code>.
+ * </p>
+ */
+public class SparseKeywordCounts implements KeywordCounts {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Number of keywords in dictionary.
+     */
+    private final int size;
+
+    /**
+     * Keyword ordinals shifted by one, so that <code>0</code> marks
+     * an empty slot.
+     */
+    private int[] keys;
+
+    private long[] values;
+
+    /**
+     * Number of used slots.
+     */
+    private int used;
+
+    public SparseKeywordCounts(int size) {
+        this(size, INITIAL_CAPACITY);
+    }
+
+    private SparseKeywordCounts(int size, int capacity) {
+        this.size = size;
+        keys = new int[capacity];
+        values = new long[capacity];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long get(int ordinal) {
+        checkOrdinal(ordinal);
+        int slot = find(ordinal + 1);
+        return keys[slot] == 0 ? 0 : values[slot];
+    }
+
+    @Override
+    public void increment(int ordinal) {
+        add(ordinal, 1);
+    }
+
+    @Override
+    public void add(int ordinal, long delta) {
+        checkOrdinal(ordinal);
+        if (delta == 0)
+            return;
+
+        int key = ordinal + 1;
+        int slot = find(key);
+        if (keys[slot] == 0) {
+            keys[slot] = key;
+            if (++used * 2 > keys.length) {
+                values[slot] = delta;
+                grow();
+                return;
+            }
+        }
+        values[slot] += delta;
+    }
+
+    @Override
+    public void forEachNonZero(OrdinalConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0 && values[i] != 0)
+                consumer.accept(keys[i] - 1, values[i]);
+        }
+    }
+
+    @Override
+    public KeywordCounts copy() {
+        SparseKeywordCounts copy = new SparseKeywordCounts(size, keys.length);
+        System.arraycopy(keys, 0, copy.keys, 0, keys.length);
+        System.arraycopy(values, 0, copy.values, 0, values.length);
+        copy.used = used;
+        return copy;
+    }
+
+    /**
+     * Finds a slot which holds given key, or an empty slot where it should be put.
+     */
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int hash = key * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new long[oldValues.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void checkOrdinal(int ordinal) {
+        if (ordinal < 0 || ordinal >= size)
+            throw new IndexOutOfBoundsException("Keyword ordinal " + ordinal + " out of bounds for size " + size);
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner joiner = new StringJoiner(", ", "SparseKeywordCounts{", "}");
+        forEachNonZero((ordinal, count) -> joiner.add(ordinal + "=" + count));
+        return joiner.toString();
+    }
+}
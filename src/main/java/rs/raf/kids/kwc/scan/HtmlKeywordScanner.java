@@ -0,0 +1,390 @@
+package rs.raf.kids.kwc.scan;
+
+import org.jsoup.internal.StringUtil;
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.Tag;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ *   Counts keywords in a HTML document while it's being read, without
+ *   building a DOM. The document is tokenized in a single pass: text is fed
+ *   to a keyword matcher as it's found, and <code>href</code> attributes of
+ *   links are resolved and handed to a consumer.
+ * </p>
+ * <p>
+ *   Contents of <code>script</code>, <code>style</code> and
+ *   <code>title</code> elements, comments and declarations are skipped, so
+ *   the counted text is the body text of the document. Both start and end
+ *   tags of block elements separate words, while inline tags like
+ *   <code>b</code> or <code>span</code> don't. Character references are
+ *   decoded.
+ * </p>
+ * <p>
+ *   Memory used is bounded regardless of document size: text is buffered in
+ *   small chunks, and attribute values other than <code>href</code> are
+ *   never stored.
+ * </p>
+ */
+public class HtmlKeywordScanner {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int MAX_TAG_NAME_LENGTH = 16;
+
+    private static final int MAX_HREF_LENGTH = 4096;
+
+    private static final int MAX_REFERENCE_LENGTH = 32;
+
+    /**
+     * Elements whose content is not text of the document.
+     */
+    private static final Set<String> SKIPPED_ELEMENTS = Set.of("script", "style", "title");
+
+    private enum State {
+        TEXT, CHARACTER_REFERENCE, TAG_OPEN, TAG_NAME, BEFORE_ATTRIBUTE, ATTRIBUTE_NAME, AFTER_ATTRIBUTE_NAME,
+        BEFORE_VALUE, QUOTED_VALUE, UNQUOTED_VALUE, MARKUP_DECLARATION, COMMENT, BOGUS_COMMENT, SKIPPED_CONTENT
+    }
+
+    private final KeywordAutomaton.Matcher matcher;
+
+    private final Consumer<String> linkConsumer;
+
+    /**
+     * URL that relative links are resolved against.
+     */
+    private String baseUrl;
+
+    private boolean baseUrlSet;
+
+    private State state;
+
+    private final StringBuilder text;
+
+    private final StringBuilder reference;
+
+    private final StringBuilder tagName;
+
+    private boolean endTag;
+
+    private final StringBuilder attributeName;
+
+    private final StringBuilder href;
+
+    private boolean readingHref;
+
+    private boolean hasHref;
+
+    private char quote;
+
+    /**
+     * Number of consecutive dashes seen in a comment or declaration.
+     */
+    private int dashes;
+
+    /**
+     * End tag that ends skipped content, such as <code>&lt;/script</code>.
+     */
+    private String skippedEnd;
+
+    /**
+     * Number of characters of <code>skippedEnd</code> matched so far.
+     */
+    private int skippedEndMatched;
+
+    /**
+     * @param matcher matcher that counts keywords in text of the document
+     * @param baseUrl URL of the document, which links are resolved against
+     * @param linkConsumer consumer of absolute URLs of links in the document
+     */
+    public HtmlKeywordScanner(KeywordAutomaton.Matcher matcher, String baseUrl, Consumer<String> linkConsumer) {
+        this.matcher = matcher;
+        this.baseUrl = baseUrl;
+        this.linkConsumer = linkConsumer;
+        state = State.TEXT;
+        text = new StringBuilder(BUFFER_SIZE);
+        reference = new StringBuilder();
+        tagName = new StringBuilder();
+        attributeName = new StringBuilder();
+        href = new StringBuilder();
+    }
+
+    /**
+     * Reads and scans a whole document, then finishes the scan.
+     * @param reader reader of the document
+     * @throws IOException if the document can't be read
+     */
+    public void scan(Reader reader) throws IOException {
+        char[] buffer = new char[BUFFER_SIZE];
+        int read;
+        while ((read = reader.read(buffer)) >= 0) {
+            for (int i = 0; i < read; i++) {
+                feed(buffer[i]);
+            }
+        }
+        finish();
+    }
+
+    /**
+     * Scans next character of the document.
+     * @param c a character
+     */
+    public void feed(char c) {
+        switch (state) {
+            case TEXT -> {
+                if (c == '<') {
+                    state = State.TAG_OPEN;
+                } else if (c == '&') {
+                    reference.setLength(0);
+                    reference.append(c);
+                    state = State.CHARACTER_REFERENCE;
+                } else {
+                    appendText(c);
+                }
+            }
+            case CHARACTER_REFERENCE -> {
+                if (c == ';' || (c == '#' || Character.isLetterOrDigit(c)) && reference.length() < MAX_REFERENCE_LENGTH) {
+                    reference.append(c);
+                    if (c == ';')
+                        endReference();
+                } else {
+                    endReference();
+                    feed(c);
+                }
+            }
+            case TAG_OPEN -> {
+                if (c == '/' || isAsciiLetter(c)) {
+                    endTag = c == '/';
+                    tagName.setLength(0);
+                    if (!endTag)
+                        tagName.append(Character.toLowerCase(c));
+                    hasHref = false;
+                    state = State.TAG_NAME;
+                } else if (c == '!') {
+                    dashes = 0;
+                    state = State.MARKUP_DECLARATION;
+                } else if (c == '?') {
+                    state = State.BOGUS_COMMENT;
+                } else {
+                    appendText('<');
+                    state = State.TEXT;
+                    feed(c);
+                }
+            }
+            case TAG_NAME -> {
+                if (c == '>') {
+                    endOfTag();
+                } else if (isWhitespace(c) || c == '/') {
+                    state = State.BEFORE_ATTRIBUTE;
+                } else if (tagName.length() < MAX_TAG_NAME_LENGTH) {
+                    tagName.append(Character.toLowerCase(c));
+                }
+            }
+            case BEFORE_ATTRIBUTE -> {
+                if (c == '>') {
+                    endOfTag();
+                } else if (!isWhitespace(c) && c != '/') {
+                    startAttribute(c);
+                }
+            }
+            case ATTRIBUTE_NAME -> {
+                if (c == '>') {
+                    endOfTag();
+                } else if (c == '=') {
+                    state = State.BEFORE_VALUE;
+                } else if (isWhitespace(c)) {
+                    state = State.AFTER_ATTRIBUTE_NAME;
+                } else if (c == '/') {
+                    state = State.BEFORE_ATTRIBUTE;
+                } else if (attributeName.length() < MAX_TAG_NAME_LENGTH) {
+                    attributeName.append(Character.toLowerCase(c));
+                }
+            }
+            case AFTER_ATTRIBUTE_NAME -> {
+                if (c == '>') {
+                    endOfTag();
+                } else if (c == '=') {
+                    state = State.BEFORE_VALUE;
+                } else if (c == '/') {
+                    state = State.BEFORE_ATTRIBUTE;
+                } else if (!isWhitespace(c)) {
+                    startAttribute(c);
+                }
+            }
+            case BEFORE_VALUE -> {
+                if (isWhitespace(c))
+                    return;
+                readingHref = !endTag && !hasHref && attributeName.toString().equals("href");
+                if (readingHref)
+                    href.setLength(0);
+                if (c == '"' || c == '\'') {
+                    quote = c;
+                    state = State.QUOTED_VALUE;
+                } else if (c == '>') {
+                    endAttribute();
+                    endOfTag();
+                } else {
+                    appendValue(c);
+                    state = State.UNQUOTED_VALUE;
+                }
+            }
+            case QUOTED_VALUE -> {
+                if (c == quote) {
+                    endAttribute();
+                    state = State.BEFORE_ATTRIBUTE;
+                } else {
+                    appendValue(c);
+                }
+            }
+            case UNQUOTED_VALUE -> {
+                if (c == '>') {
+                    endAttribute();
+                    endOfTag();
+                } else if (isWhitespace(c)) {
+                    endAttribute();
+                    state = State.BEFORE_ATTRIBUTE;
+                } else {
+                    appendValue(c);
+                }
+            }
+            case MARKUP_DECLARATION -> {
+                if (c == '-' && ++dashes == 2) {
+                    dashes = 0;
+                    state = State.COMMENT;
+                } else if (c == '>') {
+                    state = State.TEXT;
+                } else if (c != '-') {
+                    state = State.BOGUS_COMMENT;
+                }
+            }
+            case COMMENT -> {
+                if (c == '>' && dashes >= 2) {
+                    state = State.TEXT;
+                } else {
+                    dashes = c == '-' ? dashes + 1 : 0;
+                }
+            }
+            case BOGUS_COMMENT -> {
+                if (c == '>')
+                    state = State.TEXT;
+            }
+            case SKIPPED_CONTENT -> {
+                if (skippedEndMatched == skippedEnd.length() && (isWhitespace(c) || c == '/' || c == '>')) {
+                    // the name is complete only if it ends here, so </scripts is still content
+                    endTag = true;
+                    tagName.setLength(0);
+                    tagName.append(skippedEnd, 2, skippedEnd.length());
+                    hasHref = false;
+                    state = State.TAG_NAME;
+                    feed(c);
+                } else if (skippedEndMatched < skippedEnd.length()
+                        && Character.toLowerCase(c) == skippedEnd.charAt(skippedEndMatched)) {
+                    skippedEndMatched++;
+                } else {
+                    skippedEndMatched = c == '<' ? 1 : 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finishes the scan, feeding any remaining text to the matcher
+     * and finishing the matcher.
+     */
+    public void finish() {
+        if (state == State.CHARACTER_REFERENCE)
+            endReference();
+        flushText();
+        matcher.finish();
+        state = State.TEXT;
+    }
+
+    private void startAttribute(char c) {
+        attributeName.setLength(0);
+        attributeName.append(Character.toLowerCase(c));
+        readingHref = false;
+        state = State.ATTRIBUTE_NAME;
+    }
+
+    private void appendValue(char c) {
+        if (readingHref && href.length() < MAX_HREF_LENGTH)
+            href.append(c);
+    }
+
+    private void endAttribute() {
+        if (readingHref) {
+            hasHref = true;
+            readingHref = false;
+        }
+    }
+
+    private void endOfTag() {
+        String name = tagName.toString();
+        state = State.TEXT;
+        if (separatesWords(name))
+            appendText(' ');
+        if (endTag)
+            return;
+
+        if (hasHref) {
+            String link = Parser.unescapeEntities(href.toString(), true).trim();
+            if (name.equals("a")) {
+                String absolute = StringUtil.resolve(baseUrl, link);
+                if (!absolute.isEmpty())
+                    linkConsumer.accept(absolute);
+            } else if (name.equals("base") && !baseUrlSet) {
+                String absolute = StringUtil.resolve(baseUrl, link);
+                if (!absolute.isEmpty())
+                    baseUrl = absolute;
+                baseUrlSet = true;
+            }
+        }
+        if (SKIPPED_ELEMENTS.contains(name)) {
+            skippedEnd = "</" + name;
+            skippedEndMatched = 0;
+            state = State.SKIPPED_CONTENT;
+        }
+    }
+
+    /**
+     * Tells whether start and end tags of an element separate words. Block
+     * elements and line breaks do, inline elements like <code>b</code> or
+     * <code>span</code> don't, as classified by Jsoup. Unknown elements
+     * are treated as blocks, same as Jsoup does.
+     */
+    private static boolean separatesWords(String name) {
+        return name.equals("br") || !Tag.isKnownTag(name) || Tag.valueOf(name).isBlock();
+    }
+
+    private void endReference() {
+        String decoded = Parser.unescapeEntities(reference.toString(), false);
+        for (int i = 0; i < decoded.length(); i++) {
+            appendText(decoded.charAt(i));
+        }
+        state = State.TEXT;
+    }
+
+    private void appendText(char c) {
+        text.append(isWhitespace(c) || c == '\u00a0' ? ' ' : c);
+        // a surrogate pair is never split between two chunks
+        if (text.length() >= BUFFER_SIZE && !Character.isHighSurrogate(c))
+            flushText();
+    }
+
+    private void flushText() {
+        matcher.feed(text);
+        text.setLength(0);
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f';
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+    }
+}
@@ -0,0 +1,545 @@
+package rs.raf.kids.kwc.scan;
+
+import rs.raf.kids.kwc.result.KeywordCounts;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ *   An Aho-Corasick automaton compiled from a set of keywords, which finds
+ *   all keywords in a text in a single pass. Cost of a step does not depend
+ *   on the number of keywords, and keywords may be phrases of several words.
+ * </p>
+ * <p>
+ *   Text is not matched as is, but as a stream of cleaned words. Spaces and
+ *   line terminators separate words, ASCII punctuation (<code>\p{Punct}</code>)
+ *   is dropped, and every word is surrounded by a single separator. Keywords
+ *   are normalized the same way and wrapped in separators, so a keyword only
+ *   matches whole words, exactly like comparing cleaned words one by one.
+ *   Since separators and punctuation are single byte characters, multi-byte
+ *   UTF-8 sequences are passed through to the automaton unchanged.
+ * </p>
+ * <p>
+ *   Every keyword gets an ordinal, which is its position in <code>keywords()</code>,
+ *   so matches are counted in <code>KeywordCounts</code> instead of a <code>Map</code>.
+ *   Keywords which are the same once cleaned, such as <code>e-mail</code>
+ *   and <code>email</code>, end at the same state, and a match there is
+ *   counted for every one of them.
+ * </p>
+ */
+public class KeywordAutomaton {
+
+    /**
+     * State at which every automaton starts.
+     */
+    private static final int ROOT = 0;
+
+    private static final int NONE = -1;
+
+    private static final int[] NO_ALIASES = new int[0];
+
+    /**
+     * Byte which separates words inside the automaton. It's a space,
+     * since spaces never reach the automaton as a part of a word.
+     */
+    private static final int SEPARATOR = ' ';
+
+    private static final byte REGULAR = 0;
+    private static final byte DELIMITER = 1;
+    private static final byte PUNCTUATION = 2;
+
+    /**
+     * Class of every byte value, indexed by unsigned byte.
+     */
+    private static final byte[] BYTE_CLASSES = new byte[256];
+
+    static {
+        for (char c : "!\"#$%&'()*+,-./:;<=>?@[\\]^_`{|}~".toCharArray()) {
+            BYTE_CLASSES[c] = PUNCTUATION;
+        }
+        BYTE_CLASSES[' '] = DELIMITER;
+        BYTE_CLASSES['\n'] = DELIMITER;
+        BYTE_CLASSES['\r'] = DELIMITER;
+    }
+
+    /**
+     * Keywords in order of their ordinals.
+     */
+    private final List<String> keywords;
+
+    /**
+     * Transitions of the root state, indexed by unsigned byte.
+     */
+    private final int[] rootTransitions;
+
+    /**
+     * Keys of transition table for all other states, <code>-1</code>
+     * marks an empty slot.
+     */
+    private final long[] transitionKeys;
+
+    /**
+     * Target states of transition table.
+     */
+    private final int[] transitionTargets;
+
+    private final int mask;
+
+    /**
+     * Failure link of every state.
+     */
+    private final int[] failures;
+
+    /**
+     * Ordinal of keyword which ends at a given state, or <code>-1</code>.
+     */
+    private final int[] outputs;
+
+    /**
+     * Ordinals of other keywords which end at the same state as
+     * a keyword, indexed by ordinal of the first one of them.
+     */
+    private final int[][] aliases;
+
+    /**
+     * Closest state on the failure chain which has an output,
+     * or <code>-1</code>.
+     */
+    private final int[] outputLinks;
+
+    /**
+     * Number of words in every keyword, indexed by ordinal.
+     */
+    private final int[] keywordWords;
+
+    /**
+     * Number of words in the longest keyword.
+     */
+    private final int maxWords;
+
+    /**
+     * State after the leading separator, where every text starts.
+     */
+    private final int startState;
+
+    private KeywordAutomaton(List<String> keywords, int[] keywordWords, int[] rootTransitions, long[] transitionKeys,
+                             int[] transitionTargets, int[] failures, int[] outputs, int[][] aliases,
+                             int[] outputLinks) {
+        this.keywords = keywords;
+        this.keywordWords = keywordWords;
+        maxWords = Math.max(1, Arrays.stream(keywordWords).max().orElse(1));
+        this.rootTransitions = rootTransitions;
+        this.transitionKeys = transitionKeys;
+        this.transitionTargets = transitionTargets;
+        this.failures = failures;
+        this.outputs = outputs;
+        this.aliases = aliases;
+        this.outputLinks = outputLinks;
+        mask = transitionKeys.length - 1;
+        startState = rootTransitions[SEPARATOR];
+    }
+
+    /**
+     * Compiles an automaton from given keywords. Keywords that are empty
+     * once cleaned are never matched, but they still keep their ordinal.
+     * @param keywords keywords and phrases to search for
+     * @return a compiled automaton
+     */
+    public static KeywordAutomaton compile(Collection<String> keywords) {
+        List<String> ordered = new ArrayList<>(keywords);
+
+        // goto function is first built with boxed collections,
+        // since this is done only once, and packed afterwards
+        Map<Long, Integer> edges = new HashMap<>();
+        List<List<int[]>> children = new ArrayList<>();
+        List<Integer> outputList = new ArrayList<>();
+        int[][] aliases = new int[ordered.size()][];
+        Arrays.fill(aliases, NO_ALIASES);
+        children.add(new ArrayList<>());
+        outputList.add(NONE);
+
+        // separator transition always exists, so that every text
+        // can start from the state after the leading separator
+        addEdge(edges, children, outputList, ROOT, SEPARATOR);
+
+        int[] keywordWords = new int[ordered.size()];
+        for (int ordinal = 0; ordinal < ordered.size(); ordinal++) {
+            byte[] pattern = pattern(ordered.get(ordinal));
+            if (pattern == null)
+                continue;
+
+            for (byte b : pattern) {
+                if (b == SEPARATOR)
+                    keywordWords[ordinal]++;
+            }
+            keywordWords[ordinal]--;
+
+            int state = ROOT;
+            for (byte b : pattern) {
+                Integer next = edges.get(key(state, b & 0xff));
+                state = next != null ? next : addEdge(edges, children, outputList, state, b & 0xff);
+            }
+            int first = outputList.get(state);
+            if (first == NONE) {
+                outputList.set(state, ordinal);
+            } else {
+                aliases[first] = Arrays.copyOf(aliases[first], aliases[first].length + 1);
+                aliases[first][aliases[first].length - 1] = ordinal;
+            }
+        }
+
+        int stateCount = children.size();
+        int[] outputs = outputList.stream().mapToInt(Integer::intValue).toArray();
+        int[] failures = new int[stateCount];
+        int[] outputLinks = new int[stateCount];
+        int[] rootTransitions = new int[256];
+        Arrays.fill(outputLinks, NONE);
+
+        // failure links are computed in breadth first order, so
+        // the failure of a state is always known before its children
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int[] child : children.get(ROOT)) {
+            rootTransitions[child[0]] = child[1];
+            failures[child[1]] = ROOT;
+            queue.add(child[1]);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int[] child : children.get(state)) {
+                int b = child[0];
+                int target = child[1];
+                int failure = failures[state];
+                Integer next;
+                while ((next = edges.get(key(failure, b))) == null && failure != ROOT) {
+                    failure = failures[failure];
+                }
+                failures[target] = next != null && next != target ? next : ROOT;
+                int fallback = failures[target];
+                outputLinks[target] = outputs[fallback] != NONE ? fallback : outputLinks[fallback];
+                queue.add(target);
+            }
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(edges.size(), 1) * 2) * 2;
+        long[] keys = new long[capacity];
+        int[] targets = new int[capacity];
+        Arrays.fill(keys, -1L);
+        for (Map.Entry<Long, Integer> edge : edges.entrySet()) {
+            long key = edge.getKey();
+            if (key >>> 8 == ROOT)
+                continue;
+            int slot = slot(key, capacity - 1);
+            while (keys[slot] != -1L) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            keys[slot] = key;
+            targets[slot] = edge.getValue();
+        }
+
+        return new KeywordAutomaton(Collections.unmodifiableList(ordered), keywordWords, rootTransitions,
+                keys, targets, failures, outputs, aliases, outputLinks);
+    }
+
+    private static int addEdge(Map<Long, Integer> edges, List<List<int[]>> children,
+                               List<Integer> outputs, int state, int b) {
+        int next = children.size();
+        children.add(new ArrayList<>());
+        outputs.add(NONE);
+        children.get(state).add(new int[] { b, next });
+        edges.put(key(state, b), next);
+        return next;
+    }
+
+    /**
+     * Cleans a keyword and wraps its words in separators.
+     * @param keyword keyword or phrase
+     * @return bytes to put into the automaton, or <code>null</code>
+     * if keyword has no words
+     */
+    private static byte[] pattern(String keyword) {
+        String normalized = normalize(keyword);
+        if (normalized.isEmpty())
+            return null;
+        return (' ' + normalized + ' ').getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Cleans a keyword the same way the text is cleaned, that is, punctuation
+     * is dropped and words are joined by a single space.
+     * @param keyword keyword or phrase
+     * @return cleaned keyword, possibly empty
+     */
+    public static String normalize(String keyword) {
+        StringBuilder builder = new StringBuilder();
+        boolean inWord = false;
+        for (int i = 0; i < keyword.length(); i++) {
+            char c = keyword.charAt(i);
+            if (Character.isWhitespace(c)) {
+                inWord = false;
+            } else if (c >= 128 || BYTE_CLASSES[c] != PUNCTUATION) {
+                if (!inWord && builder.length() > 0)
+                    builder.append(' ');
+                builder.append(c);
+                inWord = true;
+            }
+        }
+        return builder.toString();
+    }
+
+    private static long key(int state, int b) {
+        return ((long) state << 8) | b;
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+
+    /**
+     * Follows a goto transition, without falling back on failure.
+     * @return next state, or <code>-1</code> if there is no transition
+     */
+    private int transition(int state, int b) {
+        if (state == ROOT)
+            return rootTransitions[b];
+
+        long key = key(state, b);
+        int slot = slot(key, mask);
+        long current;
+        while ((current = transitionKeys[slot]) != -1L) {
+            if (current == key)
+                return transitionTargets[slot];
+            slot = (slot + 1) & mask;
+        }
+        return NONE;
+    }
+
+    /**
+     * Moves the automaton by one byte, following failure links as needed.
+     */
+    private int step(int state, int b) {
+        int next;
+        while ((next = transition(state, b)) == NONE) {
+            state = failures[state];
+        }
+        return next;
+    }
+
+    /**
+     * @return all keywords, in order of their ordinals
+     */
+    public List<String> keywords() {
+        return keywords;
+    }
+
+    /**
+     * Checks whether a byte separates words in a text.
+     * @param b byte to check
+     * @return <code>true</code> for spaces and line terminators
+     */
+    public static boolean isDelimiter(byte b) {
+        return BYTE_CLASSES[b & 0xff] == DELIMITER;
+    }
+
+    /**
+     * @return number of words in the longest keyword
+     */
+    public int maxWords() {
+        return maxWords;
+    }
+
+    /**
+     * @return number of keywords, including the ones that are never matched
+     */
+    public int size() {
+        return keywords.size();
+    }
+
+    /**
+     * Creates a new matcher which adds keyword occurrences to <code>counts</code>.
+     * @param counts counters indexed by keyword ordinal
+     * @return a new matcher, positioned at the start of a text
+     */
+    public Matcher matcher(KeywordCounts counts) {
+        return new Matcher(counts);
+    }
+
+    /**
+     * <p>
+     *   Holds the position of a single pass over a text. Text can be fed in
+     *   any number of pieces, either as raw UTF-8 bytes or as characters,
+     *   and the matcher never allocates while doing so.
+     * </p>
+     * <p>
+     *   When only a part of a text is scanned, <code>limitOwnedWords</code>
+     *   marks the end of the part. Words fed after that are used only to
+     *   complete phrases which started inside of the part, and are never
+     *   counted on their own.
+     * </p>
+     * <p>
+     *   Matchers are not thread safe, every thread should use its own.
+     * </p>
+     */
+    public class Matcher {
+
+        private final KeywordCounts counts;
+
+        private int state;
+
+        /**
+         * Whether at least one byte of current word reached the automaton.
+         */
+        private boolean inWord;
+
+        /**
+         * Number of words started since the start of the text.
+         */
+        private long words;
+
+        /**
+         * Only matches which start with one of the first <code>ownedWords</code>
+         * words are counted.
+         */
+        private long ownedWords;
+
+        /**
+         * Number of words completed after <code>ownedWords</code> was limited.
+         */
+        private long wordsAfterLimit;
+
+        private Matcher(KeywordCounts counts) {
+            this.counts = counts;
+            reset();
+        }
+
+        /**
+         * Feeds a single byte of UTF-8 encoded text.
+         * @param b byte to feed
+         */
+        public void feed(byte b) {
+            int value = b & 0xff;
+            switch (BYTE_CLASSES[value]) {
+                case DELIMITER -> endWord();
+                case REGULAR -> advance(value);
+                default -> {}
+            }
+        }
+
+        /**
+         * Feeds all remaining bytes of a buffer of UTF-8 encoded text,
+         * without changing its position.
+         * @param buffer bytes to feed
+         */
+        public void feed(ByteBuffer buffer) {
+            for (int i = buffer.position(), limit = buffer.limit(); i < limit; i++) {
+                feed(buffer.get(i));
+            }
+        }
+
+        /**
+         * Feeds characters of a text. Characters are encoded as UTF-8 on the
+         * fly, so matching is the same as if encoded bytes were fed.
+         * @param text characters to feed
+         */
+        public void feed(CharSequence text) {
+            for (int i = 0, length = text.length(); i < length; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    feed((byte) c);
+                } else if (c < 0x800) {
+                    advance(0xc0 | (c >> 6));
+                    advance(0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    advance(0xf0 | (codePoint >> 18));
+                    advance(0x80 | ((codePoint >> 12) & 0x3f));
+                    advance(0x80 | ((codePoint >> 6) & 0x3f));
+                    advance(0x80 | (codePoint & 0x3f));
+                } else {
+                    advance(0xe0 | (c >> 12));
+                    advance(0x80 | ((c >> 6) & 0x3f));
+                    advance(0x80 | (c & 0x3f));
+                }
+            }
+        }
+
+        /**
+         * Marks the end of a text, so its last word gets counted. After that,
+         * matcher can be used for another text, and no phrase will be
+         * matched across the two.
+         */
+        public void finish() {
+            endWord();
+            reset();
+        }
+
+        /**
+         * Marks that all words started so far belong to the scanned part of
+         * a text, and none of the following do. Should be called between
+         * two words.
+         */
+        public void limitOwnedWords() {
+            ownedWords = words;
+        }
+
+        /**
+         * Tells whether more words should be fed after the limit, because
+         * a phrase which started inside of the scanned part could still
+         * be matched.
+         * @return <code>true</code> if more words are needed
+         */
+        public boolean needsMoreWords() {
+            return wordsAfterLimit < maxWords - 1;
+        }
+
+        private void reset() {
+            state = startState;
+            inWord = false;
+            words = 0;
+            ownedWords = Long.MAX_VALUE;
+            wordsAfterLimit = 0;
+        }
+
+        private void advance(int b) {
+            if (!inWord) {
+                inWord = true;
+                words++;
+            }
+            state = step(state, b);
+            // words never contain a separator, so nothing can end here
+        }
+
+        private void endWord() {
+            if (!inWord)
+                return;
+
+            inWord = false;
+            if (words > ownedWords)
+                wordsAfterLimit++;
+
+            state = step(state, SEPARATOR);
+            for (int s = outputs[state] != NONE ? state : outputLinks[state]; s != NONE; s = outputLinks[s]) {
+                int ordinal = outputs[s];
+                long firstWord = words - keywordWords[ordinal];
+                if (firstWord < ownedWords) {
+                    // aliases are the same phrase, so they start at the same word
+                    counts.increment(ordinal);
+                    for (int alias : aliases[ordinal]) {
+                        counts.increment(alias);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package rs.raf.kids.kwc.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>
+ *   Counts keywords in a file by mapping it into memory and feeding its
+ *   bytes straight into a <code>KeywordAutomaton.Matcher</code>. No
+ *   <code>String</code> is created for the words in a file, so scanning
+ *   does not allocate per word.
+ * </p>
+ * <p>
+ *   A file can also be scanned by byte ranges. A range owns every word
+ *   whose first byte lies inside of it, so a word cut by the start of a
+ *   range is skipped, and a word cut by its end is read to the end. After
+ *   that, just enough words are read to complete phrases which started
+ *   inside of the range. Word delimiters are single byte characters, and
+ *   bytes of multi-byte UTF-8 sequences are never delimiters, so a range
+ *   boundary in the middle of such a sequence is resolved the same way.
+ *   Counts of all ranges of a file add up to the counts of the whole file.
+ * </p>
+ * <p>
+ *   Every file is matched as a separate text, so phrases are never
+ *   matched across two files.
+ * </p>
+ */
+public class MappedFileScanner {
+
+    /**
+     * Maximum number of bytes that are mapped at once. Files larger than
+     * this are mapped window by window.
+     */
+    private static final long WINDOW_SIZE = 64L << 20;
+
+    private final KeywordAutomaton.Matcher matcher;
+
+    public MappedFileScanner(KeywordAutomaton.Matcher matcher) {
+        this.matcher = matcher;
+    }
+
+    /**
+     * Scans a whole file and adds occurrences of every keyword to
+     * the counts of the matcher.
+     * @param file file to scan
+     * @throws IOException if file could not be opened or mapped
+     */
+    public void scan(File file) throws IOException {
+        scan(file, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Scans words owned by a byte range of a file and adds occurrences of
+     * every keyword to the counts of the matcher.
+     * @param file file to scan
+     * @param start first byte of the range
+     * @param end first byte after the range, values past the end
+     *            of file are treated as the end of file
+     * @throws IOException if file could not be opened or mapped
+     */
+    public void scan(File file, long start, long end) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Window window = new Window(channel);
+            long size = window.size;
+            end = Math.min(end, size);
+            long position = start;
+
+            // a word cut by the start of range belongs to the previous range
+            if (position > 0 && position < end && !KeywordAutomaton.isDelimiter(window.get(position - 1))) {
+                while (position < end && !KeywordAutomaton.isDelimiter(window.get(position))) {
+                    position++;
+                }
+            }
+            if (position >= end)
+                return;
+
+            // bulk of the range is fed window by window
+            while (position < end) {
+                MappedByteBuffer buffer = window.map(position);
+                int length = (int) Math.min(buffer.limit(), end - position);
+                matcher.feed(buffer.limit(length));
+                position += length;
+            }
+
+            // a word cut by the end of range belongs to this range
+            while (position < size && !KeywordAutomaton.isDelimiter(window.get(position - 1))
+                    && !KeywordAutomaton.isDelimiter(window.get(position))) {
+                matcher.feed(window.get(position++));
+            }
+
+            // words after the range can only complete phrases
+            matcher.limitOwnedWords();
+            while (position < size && matcher.needsMoreWords()) {
+                matcher.feed(window.get(position++));
+            }
+        } finally {
+            // last word is not necessarily followed by a delimiter
+            matcher.finish();
+        }
+    }
+
+    /**
+     * A single mapped window of a file, which is moved when a byte
+     * outside of it is requested.
+     */
+    private static class Window {
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer buffer;
+        private long offset;
+
+        private Window(FileChannel channel) throws IOException {
+            this.channel = channel;
+            size = channel.size();
+            offset = -1;
+        }
+
+        /**
+         * Maps a window which starts at given position.
+         */
+        private MappedByteBuffer map(long position) throws IOException {
+            long length = Math.min(WINDOW_SIZE, size - position);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            offset = position;
+            return buffer;
+        }
+
+        private byte get(long position) throws IOException {
+            if (offset < 0 || position < offset || position >= offset + buffer.limit())
+                map(position);
+            return buffer.get((int) (position - offset));
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package rs.raf.kids.kwc.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * MurmurHash3, x64 128-bit variant. A fast, well distributed
+ * non-cryptographic hash, used for fingerprints of URLs and contents.
+ */
+public class Murmur3 {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    /**
+     * Hashes a string encoded as UTF-8 into 64 bits, which are the
+     * first half of its 128-bit hash.
+     * @param text a string to hash
+     * @return 64-bit hash of the string
+     */
+    public static long hash64(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return hash128(bytes, 0, bytes.length, 0)[0];
+    }
+
+    /**
+     * Hashes a range of bytes into 128 bits.
+     * @param data bytes to hash
+     * @param offset start of the range
+     * @param length length of the range
+     * @param seed seed of the hash
+     * @return two halves of the hash, <code>h1</code> and <code>h2</code>
+     */
+    public static long[] hash128(byte[] data, int offset, int length, long seed) {
+        return new Hasher(seed).update(data, offset, length).finish();
+    }
+
+    /**
+     * Computes a 128-bit hash of bytes which are given in any number of
+     * pieces, such as a body read from a stream. The hash is the same as
+     * <code>hash128</code> of all the bytes at once.
+     */
+    public static class Hasher {
+
+        private long h1;
+
+        private long h2;
+
+        /**
+         * Bytes of the last, incomplete block.
+         */
+        private final byte[] tail;
+
+        private int tailLength;
+
+        private long length;
+
+        /**
+         * @param seed seed of the hash
+         */
+        public Hasher(long seed) {
+            h1 = seed;
+            h2 = seed;
+            tail = new byte[16];
+        }
+
+        /**
+         * Adds a range of bytes to the hash.
+         * @param data bytes to add
+         * @param offset start of the range
+         * @param count length of the range
+         * @return this hasher
+         */
+        public Hasher update(byte[] data, int offset, int count) {
+            length += count;
+            if (tailLength > 0) {
+                int taken = Math.min(count, 16 - tailLength);
+                System.arraycopy(data, offset, tail, tailLength, taken);
+                tailLength += taken;
+                offset += taken;
+                count -= taken;
+                if (tailLength < 16)
+                    return this;
+                mixBlock(tail, 0);
+                tailLength = 0;
+            }
+            int end = offset + count - count % 16;
+            for (; offset < end; offset += 16) {
+                mixBlock(data, offset);
+            }
+            tailLength = count % 16;
+            System.arraycopy(data, offset, tail, 0, tailLength);
+            return this;
+        }
+
+        private void mixBlock(byte[] data, int index) {
+            long k1 = getLong(data, index);
+            long k2 = getLong(data, index + 8);
+
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        /**
+         * Finishes the hash. The hasher must not be used afterwards.
+         * @return two halves of the hash, <code>h1</code> and <code>h2</code>
+         */
+        // the tail switch falls through on purpose, every case adds one byte
+        // and all the bytes below it, as in the reference implementation
+        @SuppressWarnings("fallthrough")
+        public long[] finish() {
+            long k1 = 0;
+            long k2 = 0;
+            switch (tailLength) {
+                case 15: k2 ^= (long) (tail[14] & 0xff) << 48;
+                case 14: k2 ^= (long) (tail[13] & 0xff) << 40;
+                case 13: k2 ^= (long) (tail[12] & 0xff) << 32;
+                case 12: k2 ^= (long) (tail[11] & 0xff) << 24;
+                case 11: k2 ^= (long) (tail[10] & 0xff) << 16;
+                case 10: k2 ^= (long) (tail[9] & 0xff) << 8;
+                case 9:  k2 ^= tail[8] & 0xff;
+                         h2 ^= mixK2(k2);
+                case 8:  k1 ^= (long) (tail[7] & 0xff) << 56;
+                case 7:  k1 ^= (long) (tail[6] & 0xff) << 48;
+                case 6:  k1 ^= (long) (tail[5] & 0xff) << 40;
+                case 5:  k1 ^= (long) (tail[4] & 0xff) << 32;
+                case 4:  k1 ^= (long) (tail[3] & 0xff) << 24;
+                case 3:  k1 ^= (long) (tail[2] & 0xff) << 16;
+                case 2:  k1 ^= (long) (tail[1] & 0xff) << 8;
+                case 1:  k1 ^= tail[0] & 0xff;
+                         h1 ^= mixK1(k1);
+            }
+
+            h1 ^= length;
+            h2 ^= length;
+            h1 += h2;
+            h2 += h1;
+            h1 = fmix(h1);
+            h2 = fmix(h2);
+            h1 += h2;
+            h2 += h1;
+            return new long[] {h1, h2};
+        }
+    }
+
+    private static long getLong(byte[] data, int index) {
+        return (data[index] & 0xffL)
+                | (data[index + 1] & 0xffL) << 8
+                | (data[index + 2] & 0xffL) << 16
+                | (data[index + 3] & 0xffL) << 24
+                | (data[index + 4] & 0xffL) << 32
+                | (data[index + 5] & 0xffL) << 40
+                | (data[index + 6] & 0xffL) << 48
+                | (data[index + 7] & 0xffL) << 56;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private Murmur3() {}
+}
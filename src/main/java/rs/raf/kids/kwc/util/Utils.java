@@ -2,10 +2,9 @@ package rs.raf.kids.kwc.util;
 
 import org.jsoup.helper.HttpConnection;
 import rs.raf.kids.kwc.cli.Logger;
-import rs.raf.kids.kwc.config.AppConfig;
 import rs.raf.kids.kwc.job.ScanType;
+import rs.raf.kids.kwc.result.KeywordCounts;
 
-import java.io.IOException;
 import java.net.*;
 import java.util.*;
 import java.util.function.Supplier;
@@ -40,16 +39,16 @@ public class Utils {
 
     public static long parseLongOrDefault(String value, long defaultValue, Runnable onFail) {
         try {
-            return Integer.parseInt(value);
+            return Long.parseLong(value);
         } catch (NumberFormatException e) {
             onFail.run();
             return defaultValue;
         }
     }
 
-    public static void prettyPrintSummaryResult(ScanType scanType, Map<String, Map<String, Integer>> summary) {
+    public static void prettyPrintSummaryResult(ScanType scanType, Map<String, KeywordCounts> summary) {
         Logger.success("\n-- " + scanType + " Scan Summary --");
-        summary.forEach(Utils::prettyPrintResult);
+        summary.forEach((title, result) -> prettyPrintResult(title, result.toMap()));
         Logger.success("----------");
     }
 
@@ -57,10 +56,6 @@ public class Utils {
         Logger.success("%-25s: %s".formatted(title, result));
     }
 
-    public static Map<String, Integer> initKeywordsMap() {
-        return initMap(AppConfig.keywords, () -> 0);
-    }
-
     public static <K, V> Map<K, V> initMap(Collection<K> keys, Supplier<V> defaultValueFactory) {
         Map<K, V> map = new HashMap<>();
         for (K key : keys) {
@@ -73,25 +68,6 @@ public class Utils {
         return domainExpirationTime - System.currentTimeMillis() < 0;
     }
 
-    public static String removePunctuation(String word) {
-        return word.replaceAll("\\p{Punct}", "");
-    }
-
-    public static Map<String, Integer> combineKeywordMaps(List<Map<String, Integer>> maps) {
-        Map<String, Integer> result = initKeywordsMap();
-        for (Map<String, Integer> map : maps) {
-            for (Map.Entry<String, Integer> entry : map.entrySet()) {
-                result.compute(entry.getKey(), (k,v) -> v + entry.getValue());
-            }
-        }
-        return result;
-    }
-
-    public static boolean isJobDispatcherThread() {
-        String id = Thread.currentThread().getName();
-        return id.equals("JobDispatcherThread");
-    }
-
     public static boolean shareSameDomain(String url1, String url2) {
         try {
             URL u1 = new URL(url1);
@@ -126,14 +102,20 @@ public class Utils {
                 .collect(Collectors.toSet());
     }
 
-    public static boolean isValidUrl(String url) {
+    /**
+     * Checks whether an URL is a well formed HTTP or HTTPS URL with a host.
+     * The URL is not connected to, so this is cheap enough to call for
+     * every link found in a document.
+     * @param url an URL to check
+     * @return <code>true</code> if the URL can be fetched as a web page
+     */
+    public static boolean isWellFormedUrl(String url) {
         try {
             URL u = new URL(url);
             u.toURI();
-            HttpURLConnection connection = (HttpURLConnection) u.openConnection();
-            int code = connection.getResponseCode();
-            return code == HttpURLConnection.HTTP_OK;
-        } catch (URISyntaxException | IOException e) {
+            String protocol = u.getProtocol();
+            return (protocol.equals("http") || protocol.equals("https")) && !u.getHost().isEmpty();
+        } catch (URISyntaxException | MalformedURLException e) {
             return false;
         }
     }
@@ -0,0 +1,104 @@
+package rs.raf.kids.kwc.fetch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HttpPageFetcherTest {
+
+    private static final long REQUEST_TIMEOUT = 500;
+
+    private HttpServer server;
+
+    private ExecutorService handlers;
+
+    private String baseUrl;
+
+    private final PageFetcher fetcher = new HttpPageFetcher(5000, REQUEST_TIMEOUT);
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/page", this::servePage);
+        server.createContext("/trickle", this::trickle);
+        handlers = Executors.newCachedThreadPool();
+        server.setExecutor(handlers);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    private void servePage(HttpExchange exchange) throws IOException {
+        byte[] body = "<html><body>page</body></html>".getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Sends headers at once, and then a byte of body every 100 ms, for
+     * much longer than the request timeout.
+     */
+    private void trickle(HttpExchange exchange) throws IOException {
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int i = 0; i < 100; i++) {
+                out.write('a');
+                out.flush();
+                Thread.sleep(100);
+            }
+        } catch (InterruptedException | IOException ignored) {
+            // the client gave up on the response
+        }
+    }
+
+    @Test
+    void pageIsFetched() throws IOException {
+        FetchedPage page = fetcher.fetch(baseUrl + "/page");
+
+        assertEquals(200, page.statusCode());
+        assertEquals("<html><body>page</body></html>", new String(page.body(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void tricklingBodyIsBoundedByRequestTimeout() {
+        long start = System.nanoTime();
+        assertThrows(HttpTimeoutException.class, () -> fetcher.fetch(baseUrl + "/trickle"));
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+        // the whole body would take 10 s
+        assertTrue(elapsed < 5000, "timed out after " + elapsed + " ms");
+    }
+
+    @Test
+    void tricklingStreamIsBoundedByRequestTimeout() throws IOException {
+        long start = System.nanoTime();
+        try (PageStream page = fetcher.open(baseUrl + "/trickle")) {
+            assertEquals(200, page.statusCode());
+            assertThrows(HttpTimeoutException.class, () -> page.body().readAllBytes());
+        }
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsed < 5000, "timed out after " + elapsed + " ms");
+    }
+}
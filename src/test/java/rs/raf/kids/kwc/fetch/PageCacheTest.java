@@ -0,0 +1,91 @@
+package rs.raf.kids.kwc.fetch;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import rs.raf.kids.kwc.result.KeywordCounts;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PageCacheTest {
+
+    private static final List<String> KEYWORDS = List.of("one", "two", "three");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void leastRecentlyUsedPageIsEvictedOnceCacheIsFull() throws IOException {
+        // pages of equal size, so the limit is measured with the first one
+        long pageSize = sizeOfPage();
+        PageCache cache = new PageCache(directory.toFile(), pageSize * 2 + pageSize / 2, KEYWORDS);
+
+        cache.put(urlOf(1), responseOf(1), countsOf(1), List.of(urlOf(10)));
+        cache.put(urlOf(2), responseOf(2), countsOf(2), List.of(urlOf(20)));
+        assertNotNull(cache.get(urlOf(1)));
+        cache.put(urlOf(3), responseOf(3), countsOf(3), List.of(urlOf(30)));
+
+        assertNull(cache.get(urlOf(2)));
+        assertNotNull(cache.get(urlOf(1)));
+        assertNotNull(cache.get(urlOf(3)));
+        assertEquals(pageSize * 2, cache.size());
+        assertEquals(2, directory.toFile().listFiles().length);
+    }
+
+    @Test
+    void pageIsReadBackWithItsValidatorsCountsAndLinks() throws IOException {
+        PageCache cache = new PageCache(directory.toFile(), 1 << 20, KEYWORDS);
+        cache.put(urlOf(1), responseOf(1), countsOf(1), List.of(urlOf(10)));
+
+        PageCache.Entry entry = new PageCache(directory.toFile(), 1 << 20, KEYWORDS).get(urlOf(1));
+        assertNotNull(entry);
+        assertEquals("\"1\"", entry.etag());
+        assertEquals(Map.of("If-None-Match", "\"1\""), entry.validators());
+        assertEquals(1, entry.counts().get(1));
+        assertEquals(List.of(urlOf(10)), entry.links());
+    }
+
+    @Test
+    void pageWithoutValidatorsIsNotCached() throws IOException {
+        PageCache cache = new PageCache(directory.toFile(), 1 << 20, KEYWORDS);
+        FetchedPage page = new FetchedPage(urlOf(1), 200, Map.of(), new byte[0]);
+        cache.put(urlOf(1), page, countsOf(1), List.of());
+
+        assertNull(cache.get(urlOf(1)));
+        assertEquals(0, cache.size());
+    }
+
+    private long sizeOfPage() throws IOException {
+        File scratch = directory.resolve("scratch").toFile();
+        PageCache cache = new PageCache(scratch, Long.MAX_VALUE, KEYWORDS);
+        cache.put(urlOf(9), responseOf(9), countsOf(9), List.of(urlOf(90)));
+        long size = cache.size();
+        for (File file : scratch.listFiles()) {
+            assertTrue(file.delete());
+        }
+        assertTrue(scratch.delete());
+        return size;
+    }
+
+    private static String urlOf(int page) {
+        return "http://example.com/" + page;
+    }
+
+    private static PageResponse responseOf(int page) {
+        return new FetchedPage(urlOf(page), 200, Map.of("etag", List.of("\"" + page + "\"")), new byte[0]);
+    }
+
+    private static KeywordCounts countsOf(int page) {
+        KeywordCounts counts = KeywordCounts.create(KEYWORDS.size());
+        counts.add(1, page);
+        return counts;
+    }
+}
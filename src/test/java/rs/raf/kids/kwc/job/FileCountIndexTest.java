@@ -0,0 +1,147 @@
+package rs.raf.kids.kwc.job;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import rs.raf.kids.kwc.result.KeywordCounts;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileCountIndexTest {
+
+    private static final List<String> KEYWORDS = List.of("one", "two", "three");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void filesPutAndRemovedAreReplayedAfterReopening() throws IOException {
+        File file = directory.resolve("files.idx").toFile();
+        FileCountIndex index = new FileCountIndex(file, KEYWORDS);
+        index.load(new ReplayedFiles());
+        index.put("corpus", 1, 10, 100, countsOf(1, 2, 3));
+        index.put("corpus", 2, 20, 200, countsOf(4, 0, 0));
+        index.put("corpus", 1, 11, 101, countsOf(0, 5, 0));
+        index.remove("corpus", 2);
+        index.close();
+
+        ReplayedFiles replayed = load(file, KEYWORDS);
+        assertEquals(Map.of("corpus|1", List.of(11L, 101L, 0L, 5L, 0L)), replayed.files);
+    }
+
+    @Test
+    void countsFollowKeywordsWhenTheirOrderChanges() throws IOException {
+        File file = directory.resolve("files.idx").toFile();
+        FileCountIndex index = new FileCountIndex(file, KEYWORDS);
+        index.load(new ReplayedFiles());
+        index.put("corpus", 1, 10, 100, countsOf(1, 2, 3));
+        index.close();
+
+        ReplayedFiles replayed = load(file, List.of("three", "one", "two"));
+        assertEquals(Map.of("corpus|1", List.of(10L, 100L, 3L, 1L, 2L)), replayed.files);
+    }
+
+    @Test
+    void logWrittenForOtherKeywordsIsDiscarded() throws IOException {
+        File file = directory.resolve("files.idx").toFile();
+        FileCountIndex index = new FileCountIndex(file, KEYWORDS);
+        index.load(new ReplayedFiles());
+        index.put("corpus", 1, 10, 100, countsOf(1, 2, 3));
+        index.close();
+
+        assertTrue(load(file, List.of("one", "two", "four")).files.isEmpty());
+        assertTrue(load(file, KEYWORDS).files.isEmpty());
+    }
+
+    @Test
+    void recordTornByACrashEndsTheLog() throws IOException {
+        File file = directory.resolve("files.idx").toFile();
+        FileCountIndex index = new FileCountIndex(file, KEYWORDS);
+        index.load(new ReplayedFiles());
+        index.put("corpus", 1, 10, 100, countsOf(1, 2, 3));
+        index.close();
+
+        index = new FileCountIndex(file, KEYWORDS);
+        index.load(new ReplayedFiles());
+        index.put("corpus", 2, 20, 200, countsOf(4, 5, 6));
+        index.close();
+        // the last count of the second record is the last byte before the zero
+        // filled tail, so cutting the log short of it tears that record
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        int end = bytes.length;
+        while (bytes[end - 1] == 0) {
+            end--;
+        }
+        try (RandomAccessFile torn = new RandomAccessFile(file, "rw")) {
+            torn.setLength(end - 1);
+        }
+
+        ReplayedFiles replayed = load(file, KEYWORDS);
+        assertEquals(Map.of("corpus|1", List.of(10L, 100L, 1L, 2L, 3L)), replayed.files);
+    }
+
+    @Test
+    void logLargerThanAReplayWindowIsReplayed() throws IOException {
+        File file = directory.resolve("files.idx").toFile();
+        FileCountIndex index = new FileCountIndex(file, KEYWORDS);
+        index.load(new ReplayedFiles());
+        // records of about a megabyte, so some of them straddle replay windows
+        String directoryName = "d".repeat(1 << 20);
+        int records = 70;
+        for (int i = 0; i < records; i++) {
+            index.put(directoryName, i, i, i, countsOf(i, 0, 1));
+        }
+        index.close();
+        assertTrue(file.length() > 64L << 20);
+
+        ReplayedFiles replayed = load(file, KEYWORDS);
+        assertEquals(records, replayed.files.size());
+        for (int i = 0; i < records; i++) {
+            assertEquals(List.of((long) i, (long) i, (long) i, 0L, 1L),
+                    replayed.files.get(directoryName + "|" + i));
+        }
+    }
+
+    private static ReplayedFiles load(File file, List<String> keywords) throws IOException {
+        FileCountIndex index = new FileCountIndex(file, keywords);
+        ReplayedFiles files = new ReplayedFiles();
+        index.load(files);
+        index.close();
+        return files;
+    }
+
+    private static KeywordCounts countsOf(long... values) {
+        KeywordCounts counts = KeywordCounts.create(values.length);
+        for (int i = 0; i < values.length; i++) {
+            counts.add(i, values[i]);
+        }
+        return counts;
+    }
+
+    /**
+     * Replayed files, each as its length, modification time and counts.
+     */
+    private static class ReplayedFiles implements FileCountIndex.Replay {
+
+        private final Map<String, List<Long>> files = new LinkedHashMap<>();
+
+        @Override
+        public void put(String corpus, long name, long length, long lastModified, KeywordCounts counts) {
+            files.put(corpus + "|" + name, List.of(length, lastModified, counts.get(0), counts.get(1), counts.get(2)));
+        }
+
+        @Override
+        public void remove(String corpus, long name) {
+            files.remove(corpus + "|" + name);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package rs.raf.kids.kwc.job;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileTableTest {
+
+    @Test
+    void onlyNewAndChangedFilesAreReported() {
+        FileTable<String> table = new FileTable<>();
+        long name = FileTable.fingerprint("a.txt");
+
+        assertTrue(table.put(name, 10, 100));
+        assertFalse(table.put(name, 10, 100));
+        assertTrue(table.put(name, 10, 101));
+        assertFalse(table.isStale(name, 10, 101));
+        assertTrue(table.isStale(name, 11, 101));
+        assertTrue(table.isStale(FileTable.fingerprint("b.txt"), 10, 101));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    void sweepRemovesOnlyFilesWhichWereNotListed() {
+        FileTable<String> table = new FileTable<>();
+        // names with equal low bits share a probe sequence, so removing
+        // one of them shifts the others back
+        List<Long> names = new ArrayList<>();
+        for (long i = 1; i <= 10; i++) {
+            names.add(i << 40);
+            table.put(i << 40, i, i);
+        }
+        assertEquals(0, table.removeUnseen(null));
+
+        for (int i = 1; i < names.size(); i += 2) {
+            table.put(names.get(i), i + 1, i + 1);
+        }
+        List<Long> removed = new ArrayList<>();
+        assertEquals(5, table.removeUnseen((name, length, lastModified, value) -> removed.add(name)));
+
+        assertEquals(5, table.size());
+        for (int i = 0; i < names.size(); i++) {
+            assertEquals(i % 2 == 0, removed.contains(names.get(i)));
+            assertEquals(i % 2 == 0, table.isStale(names.get(i), i + 1, i + 1));
+        }
+    }
+
+    @Test
+    void valuesAreKeptThroughGrowingAndShrinking() {
+        FileTable<Integer> table = new FileTable<>();
+        for (int i = 0; i < 1000; i++) {
+            assertNull(table.replace(FileTable.fingerprint("file" + i), i, i, i));
+        }
+        assertEquals(1000, table.size());
+        for (int i = 0; i < 1000; i += 2) {
+            table.mark(FileTable.fingerprint("file" + i));
+        }
+        assertEquals(500, table.removeUnseen(null));
+
+        List<Integer> values = new ArrayList<>();
+        table.forEach((name, length, lastModified, value) -> values.add(value));
+        values.sort(null);
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i * 2, values.get(i));
+        }
+        assertEquals(4, table.replace(FileTable.fingerprint("file4"), 5, 5, 5));
+        assertEquals(5, table.remove(FileTable.fingerprint("file4")));
+        assertNull(table.remove(FileTable.fingerprint("file4")));
+        assertEquals(499, table.size());
+    }
+}
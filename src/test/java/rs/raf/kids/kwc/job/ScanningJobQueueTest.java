@@ -0,0 +1,157 @@
+package rs.raf.kids.kwc.job;
+
+import org.junit.jupiter.api.Test;
+import rs.raf.kids.kwc.result.KeywordCounts;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScanningJobQueueTest {
+
+    @Test
+    void fullLaneDoesNotBlockJobsOfAnotherType() {
+        ScanningJobQueue queue = new ScanningJobQueue(1);
+        Job file = new Job(ScanType.FILE, "file|a");
+        Job web = new Job(ScanType.WEB, "web|a");
+        queue.submit(file);
+
+        assertFalse(queue.offer(new Job(ScanType.FILE, "file|b")));
+        assertTrue(queue.offer(web));
+        assertSame(web, queue.next(ScanType.WEB));
+        assertSame(file, queue.next(ScanType.FILE));
+    }
+
+    @Test
+    void submitterWaitsForRoomUntilAJobIsTaken() throws InterruptedException {
+        ScanningJobQueue queue = new ScanningJobQueue(1);
+        Job first = new Job(ScanType.FILE, "file|a");
+        Job second = new Job(ScanType.FILE, "file|b");
+        queue.submit(first);
+
+        Thread submitter = new Thread(() -> queue.submit(second));
+        submitter.start();
+        while (submitter.getState() != Thread.State.WAITING) {
+            assertTrue(submitter.isAlive());
+            Thread.onSpinWait();
+        }
+
+        assertSame(first, queue.next(ScanType.FILE));
+        submitter.join(5000);
+        assertFalse(submitter.isAlive());
+        assertSame(second, queue.next(ScanType.FILE));
+    }
+
+    @Test
+    void jobForAQueuedQueryIsCoalescedEvenIfLaneIsFull() {
+        ScanningJobQueue queue = new ScanningJobQueue(1);
+        Job older = new Job(ScanType.WEB, "web|a");
+        Job newer = new Job(ScanType.WEB, "web|a");
+        queue.submit(older);
+
+        assertTrue(queue.offer(newer));
+        assertSame(newer, queue.next(ScanType.WEB));
+        assertTrue(queue.offer(new Job(ScanType.WEB, "web|b")));
+    }
+
+    @Test
+    void forcedJobsAreTakenBeforeRoomIsFreed() {
+        ScanningJobQueue queue = new ScanningJobQueue(1);
+        Job[] jobs = {
+                new Job(ScanType.WEB, "web|a"),
+                new Job(ScanType.WEB, "web|b"),
+                new Job(ScanType.WEB, "web|c")
+        };
+        queue.submit(jobs[0]);
+        queue.force(jobs[1]);
+        queue.force(jobs[2]);
+
+        Job late = new Job(ScanType.WEB, "web|d");
+        for (Job job : jobs) {
+            assertFalse(queue.offer(late));
+            assertSame(job, queue.next(ScanType.WEB));
+        }
+        assertTrue(queue.offer(late));
+    }
+
+    @Test
+    void terminalJobFollowsQueuedJobsOfEveryType() {
+        ScanningJobQueue queue = new ScanningJobQueue(1);
+        Job file = new Job(ScanType.FILE, "file|a");
+        queue.submit(file);
+
+        // must not wait for room in the full lane
+        queue.terminate();
+
+        assertSame(file, queue.next(ScanType.FILE));
+        assertSame(ScanningJob.TERMINAL_JOB, queue.next(ScanType.FILE));
+        assertSame(ScanningJob.TERMINAL_JOB, queue.next(ScanType.WEB));
+    }
+
+    @Test
+    void sourcesShareALaneByTheirWeights() {
+        ScanningJobQueue queue = new ScanningJobQueue(100);
+        queue.setWeight(ScanType.WEB, "a", 2);
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            jobs.add(new Job(ScanType.WEB, "web|a" + i, "a"));
+        }
+        for (int i = 1; i <= 2; i++) {
+            jobs.add(new Job(ScanType.WEB, "web|b" + i, "b"));
+        }
+        jobs.forEach(queue::submit);
+
+        List<String> taken = new ArrayList<>();
+        for (int i = 0; i < jobs.size(); i++) {
+            taken.add(queue.next(ScanType.WEB).getQuery());
+        }
+        assertEquals(List.of("web|a1", "web|a2", "web|b1", "web|a3", "web|a4", "web|b2"), taken);
+    }
+
+    @Test
+    void overdueJobsAreTakenInOrderOfSubmission() throws InterruptedException {
+        ScanningJobQueue queue = new ScanningJobQueue(100, Map.of(ScanType.WEB, 1L));
+        queue.submit(new Job(ScanType.WEB, "web|a1", "a"));
+        queue.submit(new Job(ScanType.WEB, "web|a2", "a"));
+        queue.submit(new Job(ScanType.WEB, "web|b1", "b"));
+        Thread.sleep(5);
+
+        assertEquals("web|a1", queue.next(ScanType.WEB).getQuery());
+        assertEquals("web|a2", queue.next(ScanType.WEB).getQuery());
+        assertEquals("web|b1", queue.next(ScanType.WEB).getQuery());
+    }
+
+    private record Job(ScanType scanType, String query, String source) implements ScanningJob {
+
+        private Job(ScanType scanType, String query) {
+            this(scanType, query, query);
+        }
+
+        @Override
+        public ScanType getScanType() {
+            return scanType;
+        }
+
+        @Override
+        public String getQuery() {
+            return query;
+        }
+
+        @Override
+        public String getSource() {
+            return source;
+        }
+
+        @Override
+        public Future<KeywordCounts> initiate(ExecutorService executorService) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
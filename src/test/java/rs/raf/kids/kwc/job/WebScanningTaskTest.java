@@ -0,0 +1,129 @@
+package rs.raf.kids.kwc.job;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import rs.raf.kids.kwc.config.AppConfig;
+import rs.raf.kids.kwc.fetch.ContentHashCache;
+import rs.raf.kids.kwc.fetch.HttpPageFetcher;
+import rs.raf.kids.kwc.fetch.PageCache;
+import rs.raf.kids.kwc.fetch.PageFetcher;
+import rs.raf.kids.kwc.result.KeywordCounts;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class WebScanningTaskTest {
+
+    private static final String ETAG = "\"v1\"";
+
+    /**
+     * The link is not followed, since it's not a HTTP URL, so the
+     * task never needs the job queue or the scanner pool.
+     */
+    private static final String LINK = "mailto:someone@example.com";
+
+    private static final String BODY = "<html><body><p>google google search</p>"
+            + "<p><a href=\"" + LINK + "\">mail</a></p></body></html>";
+
+    private HttpServer server;
+
+    private final AtomicInteger fullResponses = new AtomicInteger();
+
+    private final AtomicInteger notModifiedResponses = new AtomicInteger();
+
+    private String url;
+
+    private final PageFetcher fetcher = new HttpPageFetcher(5000, 5000);
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/page", this::servePage);
+        server.createContext("/copy", this::servePage);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/page";
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private void servePage(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("ETag", ETAG);
+        if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            notModifiedResponses.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        fullResponses.incrementAndGet();
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(WebScanningMode.class)
+    void notModifiedPageReusesCachedCountsAndLinks(WebScanningMode mode, @TempDir Path directory) throws IOException {
+        PageCache cache = new PageCache(directory.toFile(), 1 << 20, AppConfig.keywordAutomaton.keywords());
+
+        WebScanningTask first = new WebScanningTask(url, 1, fetcher, mode, cache, null);
+        KeywordCounts counts = first.call();
+        assertFalse(first.hasFailed());
+        assertEquals(1, fullResponses.get());
+        assertEquals(2, counts.get(ordinalOf("google")));
+        assertEquals(1, counts.get(ordinalOf("search")));
+
+        PageCache.Entry cached = cache.get(url);
+        assertNotNull(cached);
+        assertEquals(ETAG, cached.etag());
+        assertEquals(List.of(LINK), cached.links());
+
+        WebScanningTask second = new WebScanningTask(url, 1, fetcher, mode, cache, null);
+        KeywordCounts revalidated = second.call();
+        assertFalse(second.hasFailed());
+        assertEquals(1, fullResponses.get());
+        assertEquals(1, notModifiedResponses.get());
+        assertEquals(2, revalidated.get(ordinalOf("google")));
+        assertEquals(1, revalidated.get(ordinalOf("search")));
+        assertEquals(List.of(LINK), cache.get(url).links());
+    }
+
+    @ParameterizedTest
+    @EnumSource(WebScanningMode.class)
+    void identicalPageUnderAnotherUrlIsFoundByItsBody(WebScanningMode mode) {
+        ContentHashCache contentCache = new ContentHashCache(16);
+        String copy = url.replace("/page", "/copy");
+
+        KeywordCounts counts = new WebScanningTask(url, 1, fetcher, mode, null, contentCache).call();
+        assertEquals(0, contentCache.getHits());
+        KeywordCounts copyCounts = new WebScanningTask(copy, 1, fetcher, mode, null, contentCache).call();
+
+        assertEquals(1, contentCache.getHits());
+        assertEquals(1, contentCache.size());
+        assertEquals(2, copyCounts.get(ordinalOf("google")));
+        assertEquals(counts.get(ordinalOf("search")), copyCounts.get(ordinalOf("search")));
+    }
+
+    private static int ordinalOf(String keyword) {
+        return AppConfig.keywordAutomaton.keywords().indexOf(keyword);
+    }
+}
@@ -0,0 +1,113 @@
+package rs.raf.kids.kwc.pool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import rs.raf.kids.kwc.job.ScanType;
+import rs.raf.kids.kwc.job.ScanningJobQueue;
+import rs.raf.kids.kwc.job.WebScanningJob;
+import rs.raf.kids.kwc.result.DefaultResultRetriever;
+import rs.raf.kids.kwc.result.KeywordCounts;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CrawlCheckpointTest {
+
+    private static final List<String> KEYWORDS = List.of("one", "two", "three");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void scannedPagesAreRestoredAndWaitingJobsResubmitted() {
+        File file = directory.resolve("crawl.checkpoint").toFile();
+        WebScanningJob scanned = new WebScanningJob("http://resume.example.com/scanned", 2, "http://resume.example.com/");
+        WebScanningJob waiting = new WebScanningJob("http://resume.example.com/waiting", 1, "http://resume.example.com/");
+
+        CrawlCheckpoint checkpoint = start(file, KEYWORDS, new DefaultResultRetriever(), new ScanningJobQueue(10));
+        checkpoint.track(scanned);
+        checkpoint.track(waiting);
+        checkpoint.complete(scanned, countsOf(1, 2, 3));
+        checkpoint.stop();
+
+        DefaultResultRetriever results = new DefaultResultRetriever();
+        ScanningJobQueue queue = new ScanningJobQueue(10);
+        start(file, KEYWORDS, results, queue).stop();
+
+        assertEquals(List.of(1L, 2L, 3L), toList(results.getResult("web|" + scanned.getUrl())));
+        WebScanningJob resubmitted = (WebScanningJob) queue.next(ScanType.WEB);
+        assertEquals(waiting.getUrl(), resubmitted.getUrl());
+        assertEquals(waiting.getUrlDepth(), resubmitted.getUrlDepth());
+        assertEquals(waiting.getSource(), resubmitted.getSource());
+        results.stop();
+    }
+
+    @Test
+    void recordCutShortEndsTheLogAndIsOverwritten() throws IOException {
+        File file = directory.resolve("crawl.checkpoint").toFile();
+        WebScanningJob first = new WebScanningJob("http://torn.example.com/first", 0);
+        WebScanningJob second = new WebScanningJob("http://torn.example.com/second", 0);
+
+        CrawlCheckpoint checkpoint = start(file, KEYWORDS, new DefaultResultRetriever(), new ScanningJobQueue(10));
+        checkpoint.track(first);
+        checkpoint.complete(first, countsOf(1, 0, 0));
+        checkpoint.stop();
+        try (DataOutputStream log = new DataOutputStream(new FileOutputStream(file.getPath() + ".log", true))) {
+            log.writeInt(100);
+            log.writeInt(7);
+        }
+
+        checkpoint = start(file, KEYWORDS, new DefaultResultRetriever(), new ScanningJobQueue(10));
+        checkpoint.track(second);
+        checkpoint.complete(second, countsOf(0, 2, 0));
+        checkpoint.stop();
+
+        DefaultResultRetriever results = new DefaultResultRetriever();
+        start(file, KEYWORDS, results, new ScanningJobQueue(10)).stop();
+        assertEquals(List.of(1L, 0L, 0L), toList(results.getResult("web|" + first.getUrl())));
+        assertEquals(List.of(0L, 2L, 0L), toList(results.getResult("web|" + second.getUrl())));
+        results.stop();
+    }
+
+    @Test
+    void checkpointWrittenForOtherKeywordsIsDiscarded() {
+        File file = directory.resolve("crawl.checkpoint").toFile();
+        WebScanningJob scanned = new WebScanningJob("http://keywords.example.com/scanned", 0);
+
+        CrawlCheckpoint checkpoint = start(file, KEYWORDS, new DefaultResultRetriever(), new ScanningJobQueue(10));
+        checkpoint.track(scanned);
+        checkpoint.complete(scanned, countsOf(1, 2, 3));
+        checkpoint.stop();
+
+        DefaultResultRetriever results = new DefaultResultRetriever();
+        start(file, List.of("one", "two", "four"), results, new ScanningJobQueue(10)).stop();
+        assertThrows(IllegalArgumentException.class, () -> results.getResult("web|" + scanned.getUrl()));
+        results.stop();
+    }
+
+    private static CrawlCheckpoint start(File file, List<String> keywords, DefaultResultRetriever results,
+                                         ScanningJobQueue queue) {
+        CrawlCheckpoint checkpoint = new CrawlCheckpoint(file, keywords, 60000);
+        checkpoint.start(results, null, queue);
+        return checkpoint;
+    }
+
+    private static KeywordCounts countsOf(long... values) {
+        KeywordCounts counts = KeywordCounts.create(values.length);
+        for (int i = 0; i < values.length; i++) {
+            counts.add(i, values[i]);
+        }
+        return counts;
+    }
+
+    private static List<Long> toList(KeywordCounts counts) {
+        return List.of(counts.get(0), counts.get(1), counts.get(2));
+    }
+}
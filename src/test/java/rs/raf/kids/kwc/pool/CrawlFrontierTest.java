@@ -0,0 +1,87 @@
+package rs.raf.kids.kwc.pool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import rs.raf.kids.kwc.job.ScanType;
+import rs.raf.kids.kwc.job.ScanningJob;
+import rs.raf.kids.kwc.job.ScanningJobQueue;
+import rs.raf.kids.kwc.job.WebScanningJob;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CrawlFrontierTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void jobsWhichDontFitInMemoryAreSpilledAndSubmittedOnce() throws IOException {
+        ScanningJobQueue queue = new ScanningJobQueue(2);
+        File spillFile = directory.resolve("frontier.spill").toFile();
+        CrawlFrontier frontier = new CrawlFrontier(queue, 4, spillFile);
+
+        Set<String> added = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            String url = "http://host" + i % 3 + ".example.com/" + i;
+            assertTrue(frontier.add(new WebScanningJob(url, i % 5, "http://host0.example.com/")));
+            added.add(url);
+        }
+
+        Set<String> taken = new HashSet<>();
+        for (int i = 0; i < added.size(); i++) {
+            assertTrue(taken.add(((WebScanningJob) queue.next(ScanType.WEB)).getUrl()));
+        }
+        assertEquals(added, taken);
+        assertEquals(0, frontier.size());
+        assertEquals(0, spillFile.length());
+
+        frontier.stop();
+        assertFalse(spillFile.exists());
+        assertFalse(frontier.add(new WebScanningJob("http://host0.example.com/late", 1)));
+    }
+
+    @Test
+    void lowestDepthIsTakenFirstAndHostsTakeTurns() throws IOException {
+        ScanningJobQueue queue = new ScanningJobQueue(1);
+        WebScanningJob blocker = new WebScanningJob("http://blocker.example.com/", 0);
+        queue.submit(blocker);
+        CrawlFrontier frontier = new CrawlFrontier(queue, 100, directory.resolve("frontier.spill").toFile());
+
+        // the feeder takes this job, and waits with it for room in the full queue
+        WebScanningJob first = new WebScanningJob("http://a.example.com/first", 3);
+        frontier.add(first);
+        while (frontier.size() > 0) {
+            Thread.onSpinWait();
+        }
+        frontier.add(new WebScanningJob("http://a.example.com/deep", 2));
+        frontier.add(new WebScanningJob("http://a.example.com/1", 1));
+        frontier.add(new WebScanningJob("http://a.example.com/2", 1));
+        frontier.add(new WebScanningJob("http://b.example.com/1", 1));
+        frontier.add(new WebScanningJob("http://a.example.com/leaf", 0));
+
+        List<String> taken = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            ScanningJob job = queue.next(ScanType.WEB);
+            taken.add(((WebScanningJob) job).getUrl());
+        }
+        assertEquals(List.of(
+                "http://blocker.example.com/",
+                "http://a.example.com/first",
+                "http://a.example.com/leaf",
+                "http://a.example.com/1",
+                "http://b.example.com/1",
+                "http://a.example.com/2",
+                "http://a.example.com/deep"), taken);
+        frontier.stop();
+    }
+}
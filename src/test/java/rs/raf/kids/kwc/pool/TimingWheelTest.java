@@ -0,0 +1,74 @@
+package rs.raf.kids.kwc.pool;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTest {
+
+    private static final long TICK = 1000;
+
+    @Test
+    void itemIsTakenOnlyOnceItIsDue() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 0);
+        wheel.schedule(1, "a", 5 * TICK);
+
+        assertEquals(List.of(), advance(wheel, 4 * TICK));
+        assertEquals(List.of("a"), advance(wheel, 5 * TICK));
+        assertEquals(List.of(), advance(wheel, 100 * TICK));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void itemsAreTakenInOrderOfDueTimeAcrossLevels() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 0);
+        // the first level spans 64 ticks, the second 64^2 and the third 64^3
+        long[] dueTicks = {300_000, 70, 5000, 3, 64, 4096, 262_144};
+        for (long dueTick : dueTicks) {
+            wheel.schedule(dueTick, String.valueOf(dueTick), dueTick * TICK);
+        }
+
+        List<Long> taken = new ArrayList<>();
+        for (long tick = 1; tick <= 300_000; tick++) {
+            int before = taken.size();
+            long now = tick;
+            wheel.advance(tick * TICK, (key, item) -> {
+                assertEquals(now, key);
+                taken.add(key);
+            });
+            assertTrue(taken.size() - before <= 1);
+        }
+
+        assertEquals(List.of(3L, 64L, 70L, 4096L, 5000L, 262_144L, 300_000L), taken);
+    }
+
+    @Test
+    void itemBeyondSpanOfWheelIsCarriedOver() {
+        TimingWheel<String> wheel = new TimingWheel<>(1, 0);
+        long span = 1L << 24;
+        wheel.schedule(0, "late", 3 * span + 5);
+
+        assertEquals(List.of(), advance(wheel, 3 * span + 4));
+        assertEquals(List.of("late"), advance(wheel, 3 * span + 5));
+    }
+
+    @Test
+    void itemAlreadyDueIsTakenByNextAdvance() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 10 * TICK);
+        wheel.schedule(7, null, 0);
+
+        List<Long> keys = new ArrayList<>();
+        assertEquals(1, wheel.advance(11 * TICK, (key, item) -> keys.add(key)));
+        assertEquals(List.of(7L), keys);
+    }
+
+    private static List<String> advance(TimingWheel<String> wheel, long now) {
+        List<String> items = new ArrayList<>();
+        wheel.advance(now, (key, item) -> items.add(item));
+        return items;
+    }
+}
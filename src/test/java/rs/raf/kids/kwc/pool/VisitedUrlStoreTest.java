@@ -0,0 +1,84 @@
+package rs.raf.kids.kwc.pool;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VisitedUrlStoreTest {
+
+    private static final long REFRESH_TIME = 60_000;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void urlIsReadyAgainOnlyOnceItsVisitExpires(boolean useBloom) {
+        VisitedUrlStore store = new VisitedUrlStore(16, useBloom);
+        long url = VisitedUrlStore.fingerprint("http://example.com/");
+        long now = System.currentTimeMillis();
+
+        assertTrue(store.visitIfReady(url, now, REFRESH_TIME));
+        assertFalse(store.visitIfReady(url, now, REFRESH_TIME));
+        assertFalse(store.visitIfReady(url, now + REFRESH_TIME - 1000, REFRESH_TIME));
+        assertTrue(store.visitIfReady(url, now + REFRESH_TIME + 1000, REFRESH_TIME));
+        assertEquals(1, store.size());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void forgottenUrlIsReadyAtOnce(boolean useBloom) {
+        VisitedUrlStore store = new VisitedUrlStore(16, useBloom);
+        long url = VisitedUrlStore.fingerprint("http://example.com/");
+        long now = System.currentTimeMillis();
+        store.visitIfReady(url, now, REFRESH_TIME);
+
+        assertFalse(store.forgetIfExpired(url, now));
+        store.forget(url);
+
+        assertEquals(0, store.size());
+        assertTrue(store.visitIfReady(url, now, REFRESH_TIME));
+        assertTrue(store.forgetIfExpired(url, now + REFRESH_TIME + 1000));
+        assertEquals(0, store.size());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void everyUrlIsKeptWhileTableGrowsAndShrinks(boolean useBloom) {
+        VisitedUrlStore store = new VisitedUrlStore(16, useBloom);
+        long now = System.currentTimeMillis();
+        int urls = 10_000;
+        for (int i = 0; i < urls; i++) {
+            assertTrue(store.visitIfReady(fingerprintOf(i), now, REFRESH_TIME));
+        }
+        // removing every other URL shifts back entries of the probe sequences
+        for (int i = 0; i < urls; i += 2) {
+            store.forget(fingerprintOf(i));
+        }
+
+        assertEquals(urls / 2, store.size());
+        for (int i = 0; i < urls; i++) {
+            assertEquals(i % 2 == 0, store.visitIfReady(fingerprintOf(i), now, REFRESH_TIME), "url " + i);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void expiredUrlsAreDroppedInsteadOfGrowingTable(boolean useBloom) {
+        VisitedUrlStore store = new VisitedUrlStore(1000, useBloom);
+        long memory = store.memoryUsage();
+        long now = System.currentTimeMillis();
+        for (int round = 0; round < 10; round++) {
+            long time = now + round * (REFRESH_TIME + 1000);
+            for (int i = 0; i < 1000; i++) {
+                store.visitIfReady(fingerprintOf(round * 1000 + i), time, REFRESH_TIME);
+            }
+        }
+
+        assertEquals(memory, store.memoryUsage());
+    }
+
+    private static long fingerprintOf(int i) {
+        return VisitedUrlStore.fingerprint("http://example.com/page/" + i);
+    }
+}
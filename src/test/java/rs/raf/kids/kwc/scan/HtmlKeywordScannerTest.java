@@ -0,0 +1,32 @@
+package rs.raf.kids.kwc.scan;
+
+import org.junit.jupiter.api.Test;
+import rs.raf.kids.kwc.result.KeywordCounts;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HtmlKeywordScannerTest {
+
+    private static final KeywordAutomaton KEYWORDS = KeywordAutomaton.compile(List.of("google"));
+
+    @Test
+    void scriptEndsOnlyAtItsWholeEndTag() throws IOException {
+        assertEquals(1, count("<script>var a = '</scripts> google';</script> google"));
+        assertEquals(1, count("<script>var a = '</scriptx google';</script> google"));
+        assertEquals(1, count("<script>google</script >google"));
+        assertEquals(1, count("<script>google</SCRIPT>google"));
+        assertEquals(1, count("<script>google</script/>google"));
+        assertEquals(1, count("<script>google<</script>google"));
+    }
+
+    private static long count(String html) throws IOException {
+        KeywordCounts counts = KeywordCounts.create(KEYWORDS.size());
+        new HtmlKeywordScanner(KEYWORDS.matcher(counts), "http://example.com/", link -> {})
+                .scan(new StringReader(html));
+        return counts.get(0);
+    }
+}
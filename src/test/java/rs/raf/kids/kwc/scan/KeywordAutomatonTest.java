@@ -0,0 +1,73 @@
+package rs.raf.kids.kwc.scan;
+
+import org.junit.jupiter.api.Test;
+import rs.raf.kids.kwc.result.DenseKeywordCounts;
+import rs.raf.kids.kwc.result.KeywordCounts;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class KeywordAutomatonTest {
+
+    @Test
+    void wholeWordsAndPhrasesAreCounted() {
+        KeywordAutomaton automaton = KeywordAutomaton.compile(List.of("search", "mail", "search engine"));
+
+        assertArrayEquals(new long[] {3, 1, 2},
+                count(automaton, "search, research search engine; mail mailbox Search engine. search  engine"));
+    }
+
+    @Test
+    void keywordsAreCaseSensitive() {
+        KeywordAutomaton automaton = KeywordAutomaton.compile(List.of("Search", "search"));
+
+        assertArrayEquals(new long[] {2, 1}, count(automaton, "Search search Search"));
+    }
+
+    @Test
+    void keywordsWhichCleanToSameTextAreAllCounted() {
+        KeywordAutomaton automaton = KeywordAutomaton.compile(List.of("e-mail", "email", "search!", "search"));
+
+        assertArrayEquals(new long[] {2, 2, 1, 1}, count(automaton, "email search e-mail"));
+    }
+
+    @Test
+    void aliasesAreCountedThroughFailureLinks() {
+        KeywordAutomaton automaton = KeywordAutomaton.compile(List.of("engine", "search engine", "engine!"));
+
+        assertArrayEquals(new long[] {2, 1, 2}, count(automaton, "search engine engine"));
+    }
+
+    @Test
+    void bytesAndCharactersAreMatchedTheSame() {
+        KeywordAutomaton automaton = KeywordAutomaton.compile(List.of("\u010da\u0161a", "\u0161olja vode"));
+        String text = "\u010da\u0161a, \u0161olja vode i \u010da\u0161a";
+
+        KeywordCounts counts = new DenseKeywordCounts(automaton.size());
+        KeywordAutomaton.Matcher matcher = automaton.matcher(counts);
+        matcher.feed(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+        matcher.finish();
+
+        assertArrayEquals(new long[] {2, 1}, toArray(counts));
+        assertArrayEquals(toArray(counts), count(automaton, text));
+    }
+
+    private static long[] count(KeywordAutomaton automaton, String text) {
+        KeywordCounts counts = new DenseKeywordCounts(automaton.size());
+        KeywordAutomaton.Matcher matcher = automaton.matcher(counts);
+        matcher.feed(text);
+        matcher.finish();
+        return toArray(counts);
+    }
+
+    static long[] toArray(KeywordCounts counts) {
+        long[] array = new long[counts.size()];
+        for (int ordinal = 0; ordinal < array.length; ordinal++) {
+            array[ordinal] = counts.get(ordinal);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,54 @@
+package rs.raf.kids.kwc.scan;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import rs.raf.kids.kwc.job.FileSegment;
+import rs.raf.kids.kwc.result.DenseKeywordCounts;
+import rs.raf.kids.kwc.result.KeywordCounts;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedFileScannerTest {
+
+    private static final KeywordAutomaton KEYWORDS = KeywordAutomaton.compile(
+            List.of("search", "search engine", "privacy policy of site", "\u010da\u0161a", "\u0161olja vode", "\u65e5\u672c"));
+
+    private static final String TEXT = "search engine, privacy policy of site; \u010da\u0161a\n"
+            + "research \u0161olja  vode \u65e5\u672c search engine privacy policy\n"
+            + "of site \u010da\u0161a\u0161a \u010da\u0161a, \u65e5\u672c search";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void segmentedScanCountsTheSameAsWholeFile() throws IOException {
+        File file = directory.resolve("text.txt").toFile();
+        Files.write(file.toPath(), (TEXT + " " + TEXT).getBytes(StandardCharsets.UTF_8));
+
+        KeywordCounts expected = new DenseKeywordCounts(KEYWORDS.size());
+        new MappedFileScanner(KEYWORDS.matcher(expected)).scan(file);
+        assertArrayEquals(new long[] {6, 4, 4, 4, 2, 4}, KeywordAutomatonTest.toArray(expected));
+
+        // every byte offset of the file is a segment boundary for some size
+        for (long segmentSize = 1; segmentSize <= file.length(); segmentSize++) {
+            List<FileSegment> segments = FileSegment.split(file, segmentSize);
+            assertTrue(segmentSize == file.length() || segments.size() > 1);
+
+            KeywordCounts counts = new DenseKeywordCounts(KEYWORDS.size());
+            MappedFileScanner scanner = new MappedFileScanner(KEYWORDS.matcher(counts));
+            for (FileSegment segment : segments) {
+                scanner.scan(segment.getFile(), segment.getStart(), segment.getEnd());
+            }
+            assertArrayEquals(KeywordAutomatonTest.toArray(expected), KeywordAutomatonTest.toArray(counts),
+                    "segment size " + segmentSize);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package rs.raf.kids.kwc.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class Murmur3Test {
+
+    @Test
+    void bytesHashedInPiecesHashTheSameAsAtOnce() {
+        Random random = new Random(42);
+        for (int length = 0; length < 200; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+
+            Murmur3.Hasher hasher = new Murmur3.Hasher(0);
+            for (int offset = 0; offset < length; ) {
+                int count = Math.min(length - offset, random.nextInt(20));
+                hasher.update(data, offset, count);
+                offset += count;
+            }
+
+            assertArrayEquals(Murmur3.hash128(data, 0, length, 0), hasher.finish(), "length " + length);
+        }
+    }
+
+    @Test
+    void rangeIsHashedTheSameAsCopiedBytes() {
+        byte[] data = "some text which is longer than a block".getBytes(StandardCharsets.UTF_8);
+
+        byte[] range = new byte[21];
+        System.arraycopy(data, 5, range, 0, range.length);
+
+        assertArrayEquals(Murmur3.hash128(range, 0, range.length, 0), Murmur3.hash128(data, 5, range.length, 0));
+    }
+}